@@ -3,11 +3,19 @@ package com.meituan.data.jmxtools;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.meituan.data.jmxtools.conf.Conf;
 import com.meituan.data.jmxtools.conf.Endpoint;
 import com.meituan.data.jmxtools.conf.MetricGroup;
+import com.meituan.data.jmxtools.conf.ReporterConf;
 import com.meituan.data.jmxtools.jmx.JmxConnections;
 import com.meituan.data.jmxtools.jmx.Metric;
+import com.meituan.data.jmxtools.jmx.MetricBatch;
+import com.meituan.data.jmxtools.jmx.MetricCollector;
+import com.meituan.data.jmxtools.jmx.MetricNames;
+import com.meituan.data.jmxtools.jmx.MetricSampler;
+import com.meituan.data.jmxtools.jmx.PersistentConnection;
 import com.meituan.data.jmxtools.reporter.MetricsReportException;
 import com.meituan.data.jmxtools.reporter.Reporter;
 import com.meituan.data.jmxtools.reporter.Reporters;
@@ -15,7 +23,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.management.MBeanServerConnection;
-import javax.management.remote.JMXConnector;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -23,65 +31,296 @@ import java.io.InputStream;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.Map;
+import java.util.concurrent.*;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
+/**
+ * Collect metrics of all endpoints in the config file and report them.
+ *
+ * <p>By default, every endpoint is collected and reported once, which is meant to be run by cron
+ * every step. With "--daemon", the process keeps running and collects every endpoint each step
+ * over connections kept open between steps, saving JVM startup and connection setup each time.
+ * Groups with "sampleIntervalSeconds" are also sampled within steps in daemon mode, and report
+ * summaries of their samples each step.
+ */
 public class Jmx2Falcon {
     static final Logger LOG = LoggerFactory.getLogger(Jmx2Falcon.class);
+    static final int DEFAULT_STEP_SECOND = 60;
 
-    static class EndpointProcessor implements Runnable {
+    static class EndpointProcessor implements Runnable, Closeable {
         private static int JMX_CONNECT_TIMEOUT_SECOND = 20;
+
+        // JVMs of an endpoint with allInstances are collected in this pool,
+        // the caller collects by itself when all threads are busy
+        private static final ExecutorService INSTANCE_POOL = new ThreadPoolExecutor(
+                0, 16, 60, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(),
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("instance-collector-%d").build(),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+
         private Conf conf;
         private Endpoint endpoint;
         private Reporter reporter;
+        private PersistentConnection connection;
+        // whether connections watch bean registrations, only in daemon mode
+        private boolean watchBeans;
+        // groups collected once per step
+        private MetricCollector collector;
+
+        // interval -> groups sampled at the interval, only in daemon mode
+        private final Map<Integer, MetricCollector> sampledCollectors = Maps.newTreeMap();
+        private final MetricSampler sampler = new MetricSampler();
+
+        // pid -> connection of each matching JVM, only used when endpoint.isAllInstances()
+        private final Map<String, PersistentConnection> instances = Maps.newHashMap();
+        // pid -> metrics of each matching JVM, reused among runs
+        private final Map<String, MetricBatch> instanceBatches = Maps.newHashMap();
+
+        // metrics of a run, reused among runs, names are interned in the dictionary of the endpoint,
+        // which is renewed when names of the past pile up, see MetricNames
+        private MetricNames names = new MetricNames();
+        private MetricBatch batch = new MetricBatch(names);
+
+        public EndpointProcessor(Conf conf, Endpoint endpoint, Reporter reporter) {
+            this(conf, endpoint, reporter, false);
+        }
 
-        public EndpointProcessor(Conf conf, Endpoint endpoint) {
+        /**
+         * @param sampling whether running as daemon: groups with a sample interval are sampled within
+         *                 steps, otherwise all groups are collected once per step, and connections
+         *                 watch bean registrations to keep cached MBeanInfo fresh
+         */
+        public EndpointProcessor(Conf conf, Endpoint endpoint, Reporter reporter, boolean sampling) {
             this.conf = checkNotNull(conf, "conf is null");
             this.endpoint = checkNotNull(endpoint, "endpoint is null");
-            this.reporter = Reporters.newReporter(conf.getReporterConf());
-        }
+            this.reporter = checkNotNull(reporter, "reporter is null");
+            this.watchBeans = sampling;
+            this.connection = new PersistentConnection(endpoint, JMX_CONNECT_TIMEOUT_SECOND, TimeUnit.SECONDS, sampling);
 
-        @Override
-        public void run() {
-            try {
-                boolean jmxAlive = false;
-                List<Metric> metrics = Lists.newArrayList();
+            List<MetricGroup> stepGroups = Lists.newArrayList();
+            Map<Integer, List<MetricGroup>> sampledGroups = Maps.newTreeMap();
+            for (MetricGroup group : conf.getMetricGroups()) {
+                int interval = group.getSampleIntervalSeconds();
+                if (!sampling || interval == 0) {
+                    stepGroups.add(group);
+                    continue;
+                }
+                List<MetricGroup> groups = sampledGroups.get(interval);
+                if (groups == null) {
+                    groups = Lists.newArrayList();
+                    sampledGroups.put(interval, groups);
+                }
+                groups.add(group);
+            }
 
-                // connect to JMX endpoint and collect metrics
-                try (JMXConnector connector = JmxConnections.connectWithTimeout(endpoint, JMX_CONNECT_TIMEOUT_SECOND, TimeUnit.SECONDS)) {
-                    MBeanServerConnection connection = connector.getMBeanServerConnection();
-                    jmxAlive = true;
-                    LOG.info("Connected to {}", endpoint.getName());
+            this.collector = new MetricCollector(stepGroups);
+            for (Map.Entry<Integer, List<MetricGroup>> entry : sampledGroups.entrySet()) {
+                sampledCollectors.put(entry.getKey(), new MetricCollector(entry.getValue()));
+            }
+        }
 
-                    for (MetricGroup metricGroup : conf.getMetricGroups()) {
-                        metrics.addAll(metricGroup.resolveMetrics(connection));
+        /**
+         * Returns tasks sampling groups within steps, keyed by their interval in seconds.
+         */
+        public Map<Integer, Runnable> getSampleTasks() {
+            Map<Integer, Runnable> tasks = Maps.newTreeMap();
+            for (Map.Entry<Integer, MetricCollector> entry : sampledCollectors.entrySet()) {
+                final MetricCollector sampledCollector = entry.getValue();
+                tasks.put(entry.getKey(), new Runnable() {
+                    @Override
+                    public void run() {
+                        sample(sampledCollector);
                     }
+                });
+            }
+            return tasks;
+        }
 
-                } catch (IOException e) {
-                    LOG.error("Failed to collect metrics of " + endpoint, e);
+        @Override
+        public void run() {
+            try {
+                long timestamp = System.currentTimeMillis() / 1000;
+                batch.clear();
+                if (endpoint.isAllInstances()) {
+                    collectAllInstances(batch);
+                } else {
+                    collectInstance(connection, batch);
+                }
+                if (!sampledCollectors.isEmpty()) {
+                    // summaries of groups sampled during the last step
+                    List<Metric> summaries = Lists.newArrayList();
+                    sampler.drain(summaries);
+                    batch.addAll(summaries);
                 }
 
-                metrics.add(new Metric("jmx.alive", jmxAlive ? 1 : 0, Metric.Type.GAUGE));
-
-                // report metrics
+                // queue metrics for report, which never blocks
                 try {
-                    reporter.report(getServiceHost(endpoint), conf.getServiceName(), metrics);
-                    LOG.info("Successfully report {} metrics of {}", metrics.size(), endpoint.getName());
+                    Reporters.report(reporter, getServiceHost(endpoint), conf.getServiceName(), timestamp, batch);
+                    LOG.info("Collected {} metrics of {}", batch.size(), endpoint.getName());
 
                 } catch (MetricsReportException e) {
                     LOG.error("Failed to report metrics", e);
                 } catch (UnknownHostException e) {
                     LOG.error("Failed to get host name", e);
                 }
+                if (names.shouldRenew(batch.size())) {
+                    renewNames();
+                }
 
+            } catch (InterruptedException e) {
+                LOG.warn("Interrupted while collecting {}", endpoint);
+                Thread.currentThread().interrupt();
             } catch (Throwable throwable) {
                 LOG.error("Unexpected exception", throwable);
             }
         }
 
+        /**
+         * Connect to a JVM (or reuse the connection of last run) and collect metrics into `result`,
+         * including "jmx.alive".
+         */
+        private void collectInstance(PersistentConnection connection, MetricBatch result) {
+            boolean jmxAlive = false;
+
+            try {
+                MBeanServerConnection mbsc = connection.get();
+                jmxAlive = true;
+                collector.collect(mbsc, result);
+
+            } catch (IOException e) {
+                LOG.error("Failed to collect metrics of " + endpoint, e);
+                connection.invalidate();
+            }
+
+            result.add("jmx.alive", jmxAlive ? 1 : 0, Metric.Type.GAUGE);
+        }
+
+        /**
+         * Sample groups of `sampledCollector` of every JVM of the endpoint, which are summarized
+         * in the next step. Only JVMs found by the last step are sampled.
+         */
+        private void sample(MetricCollector sampledCollector) {
+            try {
+                List<Metric> samples = Lists.newArrayList();
+                if (endpoint.isAllInstances()) {
+                    for (Map.Entry<String, PersistentConnection> entry : getInstances().entrySet()) {
+                        List<Metric> instanceSamples = Lists.newArrayList();
+                        sampleInstance(entry.getValue(), sampledCollector, instanceSamples);
+                        for (Metric metric : instanceSamples) {
+                            samples.add(metric.withTag("pid", entry.getKey()));
+                        }
+                    }
+                } else {
+                    sampleInstance(connection, sampledCollector, samples);
+                }
+                sampler.add(samples);
+
+            } catch (Throwable throwable) {
+                LOG.error("Unexpected exception", throwable);
+            }
+        }
+
+        private void sampleInstance(PersistentConnection connection, MetricCollector sampledCollector,
+                                    List<Metric> samples) {
+            try {
+                sampledCollector.collect(connection.get(), samples);
+            } catch (IOException e) {
+                // reported by jmx.alive of the next step, not worth an error per sample
+                LOG.debug("Failed to sample metrics of " + endpoint, e);
+                connection.invalidate();
+            }
+        }
+
+        /**
+         * Collect every JVM matching the endpoint concurrently into `result`, metrics of each JVM
+         * are tagged with its pid.
+         */
+        private void collectAllInstances(MetricBatch result) throws InterruptedException {
+            Map<String, PersistentConnection> current = updateInstances(JmxConnections.listLocalInstances(endpoint));
+            if (current.isEmpty()) {
+                LOG.error("Cannot find JVM matching {}", endpoint);
+                result.add("jmx.alive", 0, Metric.Type.GAUGE);
+                return;
+            }
+
+            Map<String, Future<?>> futures = Maps.newTreeMap();
+            for (Map.Entry<String, PersistentConnection> entry : current.entrySet()) {
+                final PersistentConnection instance = entry.getValue();
+                final MetricBatch instanceBatch = instanceBatches.get(entry.getKey());
+                instanceBatch.clear();
+                futures.put(entry.getKey(), INSTANCE_POOL.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        collectInstance(instance, instanceBatch);
+                    }
+                }));
+            }
+
+            // each instance is bounded by the connect timeout and timeouts of groups
+            for (Map.Entry<String, Future<?>> entry : futures.entrySet()) {
+                try {
+                    entry.getValue().get();
+                    int from = result.size();
+                    result.addAll(instanceBatches.get(entry.getKey()));
+                    result.tag(from, "pid", entry.getKey());
+                } catch (ExecutionException e) {
+                    LOG.error("Failed to collect metrics of pid " + entry.getKey(), e.getCause());
+                }
+            }
+        }
+
+        /**
+         * Start a new dictionary of names, batches of the old one are dropped.
+         */
+        private synchronized void renewNames() {
+            LOG.info("Renewing {} names of {} for {} metrics", names.size(), endpoint.getName(), batch.size());
+            names = new MetricNames();
+            batch = new MetricBatch(names);
+            for (Map.Entry<String, MetricBatch> entry : instanceBatches.entrySet()) {
+                entry.setValue(new MetricBatch(names));
+            }
+        }
+
+        /**
+         * Open connections for new JVMs and close those of JVMs which are gone.
+         * @return connections of `pids`
+         */
+        private synchronized Map<String, PersistentConnection> updateInstances(List<String> pids) {
+            Map<String, PersistentConnection> current = Maps.newHashMap();
+            for (String pid : pids) {
+                PersistentConnection instance = instances.remove(pid);
+                if (instance == null) {
+                    instance = new PersistentConnection(endpoint.forInstance(pid),
+                            JMX_CONNECT_TIMEOUT_SECOND, TimeUnit.SECONDS, watchBeans);
+                    instanceBatches.put(pid, new MetricBatch(names));
+                }
+                current.put(pid, instance);
+            }
+            instanceBatches.keySet().retainAll(current.keySet());
+
+            for (PersistentConnection gone : instances.values()) {
+                gone.close();
+            }
+            instances.clear();
+            instances.putAll(current);
+            return current;
+        }
+
+        private synchronized Map<String, PersistentConnection> getInstances() {
+            return Maps.newHashMap(instances);
+        }
+
+        @Override
+        public synchronized void close() {
+            connection.close();
+            for (PersistentConnection instance : instances.values()) {
+                instance.close();
+            }
+        }
+
         private String getServiceHost(Endpoint endpoint) throws UnknownHostException {
             if (!endpoint.isRemote() || "localhost".equals(endpoint.getRemoteHost())) {
                 String hostname = InetAddress.getLocalHost().getHostName();
@@ -99,18 +338,80 @@ public class Jmx2Falcon {
         return mapper.readValue(confInput, Conf.class);
     }
 
+    /**
+     * Interval between two collections in daemon mode, which is the "step" option of the first
+     * reporter having it.
+     */
+    static int getStepSecond(Conf conf) {
+        String step = null;
+        for (ReporterConf reporterConf : conf.getReporterConfs()) {
+            step = reporterConf.getOptions().get("step");
+            if (step != null) {
+                break;
+            }
+        }
+        if (step == null) {
+            return DEFAULT_STEP_SECOND;
+        }
+        try {
+            return Integer.parseInt(step);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid step value", e);
+        }
+    }
+
+    static void printUsageAndExit() {
+        System.err.println("Usage: Jmx2Falcon [--daemon] <path-to-config-file>");
+        System.exit(1);
+    }
+
     public static void main(String[] args) throws IOException {
-        if (args.length != 1) {
-            System.err.println("Usage: Jmx2Falcon <path-to-config-file>");
-            System.exit(1);
+        if (args.length < 1 || args.length > 2) {
+            printUsageAndExit();
         }
 
-        Conf conf = loadConf(new FileInputStream(new File(args[0])));
-        ExecutorService pool = Executors.newFixedThreadPool(conf.getEndpoints().size());
+        boolean daemon = false;
+        if (args.length == 2) {
+            if (!args[0].equals("--daemon") && !args[0].equals("-daemon")) {
+                printUsageAndExit();
+            }
+            daemon = true;
+        }
 
-        // Each endpoint is collected and reported in its own thread
+        Conf conf = loadConf(new FileInputStream(new File(args[args.length - 1])));
+        if (!daemon) {
+            // every counter would be skipped for lack of a previous value, and served
+            // metrics would be gone before being scraped
+            for (ReporterConf reporterConf : conf.getReporterConfs()) {
+                checkArgument(!Reporters.computesCounters(reporterConf),
+                        "counterMode of reporter %s requires --daemon", reporterConf.getType());
+                checkArgument(!Reporters.servesMetrics(reporterConf),
+                        "reporter %s requires --daemon", reporterConf.getType());
+            }
+        }
+        Reporter reporter = Reporters.newAsyncReporter(conf.getReporterConfs());
+        List<EndpointProcessor> processors = Lists.newArrayList();
         for (Endpoint endpoint : conf.getEndpoints()) {
-            pool.submit(new EndpointProcessor(conf, endpoint));
+            processors.add(new EndpointProcessor(conf, endpoint, reporter, daemon));
+        }
+
+        if (daemon) {
+            runDaemon(conf, processors, reporter);
+        } else {
+            runOnce(processors);
+            closeQuietly(reporter);
+        }
+    }
+
+    /**
+     * Collect and report every endpoint once, then exit.
+     */
+    static void runOnce(List<EndpointProcessor> processors) {
+        ExecutorService pool = Executors.newFixedThreadPool(processors.size());
+
+        // Each endpoint is collected and reported in its own thread
+        for (EndpointProcessor processor : processors) {
+            pool.submit(processor);
         }
 
         pool.shutdown();
@@ -124,5 +425,58 @@ public class Jmx2Falcon {
             LOG.warn("Main thread was interrupted");
         }
         pool.shutdownNow();
+
+        for (EndpointProcessor processor : processors) {
+            processor.close();
+        }
+    }
+
+    /**
+     * Collect and report every endpoint each step until the process is killed,
+     * connections to endpoints are kept open between steps.
+     */
+    static void runDaemon(Conf conf, final List<EndpointProcessor> processors, final Reporter reporter) {
+        final int step = getStepSecond(conf);
+        int sampleTasks = 0;
+        for (EndpointProcessor processor : processors) {
+            sampleTasks += processor.getSampleTasks().size();
+        }
+        final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(processors.size() + sampleTasks,
+                new ThreadFactoryBuilder().setNameFormat("endpoint-processor-%d").build());
+
+        // start at the next step boundary, so that timestamps are aligned among runs
+        long nowMillis = System.currentTimeMillis();
+        long initialDelayMillis = step * 1000L - nowMillis % (step * 1000L);
+        for (EndpointProcessor processor : processors) {
+            scheduler.scheduleAtFixedRate(processor, initialDelayMillis, step * 1000L, TimeUnit.MILLISECONDS);
+
+            for (Map.Entry<Integer, Runnable> entry : processor.getSampleTasks().entrySet()) {
+                long intervalMillis = entry.getKey() * 1000L;
+                scheduler.scheduleAtFixedRate(entry.getValue(), intervalMillis - nowMillis % intervalMillis,
+                        intervalMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        LOG.info("Started daemon for {} endpoints with step {}s and {} sample tasks",
+                processors.size(), step, sampleTasks);
+
+        Runtime.getRuntime().addShutdownHook(new Thread("shutdown-hook") {
+            @Override
+            public void run() {
+                LOG.info("Shutting down daemon");
+                scheduler.shutdownNow();
+                for (EndpointProcessor processor : processors) {
+                    processor.close();
+                }
+                closeQuietly(reporter);
+            }
+        });
+    }
+
+    private static void closeQuietly(Reporter reporter) {
+        try {
+            reporter.close();
+        } catch (IOException e) {
+            LOG.warn("Failed to close reporter", e);
+        }
     }
 }
@@ -4,6 +4,7 @@ import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.meituan.data.jmxtools.conf.Endpoint;
 import com.meituan.data.jmxtools.jmx.JmxConnections;
+import com.meituan.data.jmxtools.jmx.MBeanInfoCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -128,7 +129,7 @@ public class Jmx2Json implements AutoCloseable {
             String code = "";
             Object attributeinfo = null;
             try {
-                minfo = mBeanServer.getMBeanInfo(oname);
+                minfo = MBeanInfoCache.getMBeanInfo(mBeanServer, oname);
                 code = minfo.getClassName();
                 String prs = "";
                 try {
@@ -10,6 +10,7 @@ import com.meituan.data.jmxtools.conf.GlobMetricGroup;
 import com.meituan.data.jmxtools.conf.MetricGroup;
 import com.meituan.data.jmxtools.jmx.JmxConnections;
 import com.meituan.data.jmxtools.jmx.Metric;
+import com.meituan.data.jmxtools.jmx.MetricCollector;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -70,14 +71,15 @@ public class Jmx2Metrics implements AutoCloseable {
     public SortedMap<String, Metric> collect() {
         SortedMap<String, Metric> result = Maps.newTreeMap();
 
-        for (MetricGroup group : metricGroups) {
-            try {
-                for (Metric metric : group.resolveMetrics(connection)) {
-                    result.put(metric.getName(), metric);
-                }
-            } catch (IOException e) {
-                LOG.error("Error processing group " + group.getGroupName(), e);
-            }
+        List<Metric> metrics = Lists.newArrayList();
+        try {
+            new MetricCollector(metricGroups).collect(connection, metrics);
+        } catch (IOException e) {
+            LOG.error("Error collecting metrics of " + endpoint, e);
+        }
+
+        for (Metric metric : metrics) {
+            result.put(metric.getName(), metric);
         }
 
         return result;
@@ -1,8 +1,10 @@
 package com.meituan.data.jmxtools.conf;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
+import java.util.Collections;
 import java.util.List;
 
 import static com.google.common.base.Preconditions.checkArgument;
@@ -13,20 +15,31 @@ import static com.google.common.base.Preconditions.checkNotNull;
  */
 public class Conf {
     private final String serviceName;
-    private final ReporterConf reporterConf;
+    private final List<ReporterConf> reporterConfs;
     private final List<Endpoint> endpoints;
     private final List<MetricGroup> metricGroups;
 
+    /**
+     * Reporters are given by either "reporter" (a single one) or "reporters" (a list),
+     * every collected metric is sent to all of them.
+     */
     @JsonCreator
     public Conf(@JsonProperty("serviceName") String serviceName,
                 @JsonProperty("reporter") ReporterConf reporterConf,
+                @JsonProperty("reporters") List<ReporterConf> reporterConfs,
                 @JsonProperty("endpoints") List<Endpoint> endpoints,
                 @JsonProperty("metrics") List<MetricGroup> metricGroups) {
         this.serviceName = checkNotNull(serviceName, "serviceName is null");
-        this.reporterConf = checkNotNull(reporterConf, "reporter is null");
+        checkArgument(reporterConf == null || reporterConfs == null, "only one of reporter and reporters is allowed");
+        if (reporterConf != null) {
+            this.reporterConfs = Collections.singletonList(reporterConf);
+        } else {
+            this.reporterConfs = checkNotNull(reporterConfs, "reporter is null");
+        }
         this.endpoints = checkNotNull(endpoints, "endpoints is null");
         this.metricGroups = checkNotNull(metricGroups, "metrics is null");
 
+        checkArgument(this.reporterConfs.size() > 0, "reporters is empty");
         checkArgument(endpoints.size() > 0, "endpoints is empty");
     }
 
@@ -34,9 +47,17 @@ public class Conf {
         return serviceName;
     }
 
-    @JsonProperty("reporter")
+    /**
+     * Returns the first reporter.
+     */
+    @JsonIgnore
     public ReporterConf getReporterConf() {
-        return reporterConf;
+        return reporterConfs.get(0);
+    }
+
+    @JsonProperty("reporters")
+    public List<ReporterConf> getReporterConfs() {
+        return reporterConfs;
     }
 
     public List<Endpoint> getEndpoints() {
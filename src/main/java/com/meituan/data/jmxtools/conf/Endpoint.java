@@ -7,6 +7,7 @@ import com.google.common.primitives.Ints;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
 
 /**
  * Represents a JMX endpoint.
@@ -16,20 +17,33 @@ import static com.google.common.base.Preconditions.checkNotNull;
  *     <li>For local endpoint, `name` is a regex matching JVM process name</li>
  * </ul>
  *
+ * <p>A local endpoint stands for the first JVM matching `name`, unless `allInstances` is set,
+ * in which case it stands for all matching JVMs, see {@link #forInstance(String)}.
  */
 public class Endpoint {
     private final String name;
     private final boolean isRemote;
+    private final boolean allInstances;
+
+    // only valid for an instance of a local endpoint, see forInstance()
+    private String pid;
 
     // only valid when isRemote == true
     private String remoteHost;
     private int remotePort;
 
+    public Endpoint(String name, boolean isRemote) {
+        this(name, isRemote, false);
+    }
+
     @JsonCreator
     public Endpoint(@JsonProperty("name") String name,
-                    @JsonProperty("remote") boolean isRemote) {
+                    @JsonProperty("remote") boolean isRemote,
+                    @JsonProperty("allInstances") boolean allInstances) {
         this.name = checkNotNull(name, "name is null");
         this.isRemote = checkNotNull(isRemote, "isRemote is null");
+        this.allInstances = allInstances;
+        checkArgument(!(isRemote && allInstances), "allInstances is only valid for local endpoint");
 
         if (isRemote) {
             String[] parts = name.split(":");
@@ -49,6 +63,28 @@ public class Endpoint {
         return isRemote;
     }
 
+    public boolean isAllInstances() {
+        return allInstances;
+    }
+
+    /**
+     * Returns pid of the JVM this endpoint stands for, or null if it's not an instance.
+     */
+    @JsonIgnore
+    public String getPid() {
+        return pid;
+    }
+
+    /**
+     * Returns the endpoint standing for JVM `pid`, one of the JVMs matching this local endpoint.
+     */
+    public Endpoint forInstance(String pid) {
+        checkState(!isRemote, "remote endpoint has no instances");
+        Endpoint instance = new Endpoint(name, false);
+        instance.pid = checkNotNull(pid, "pid is null");
+        return instance;
+    }
+
     @JsonIgnore
     public String getRemoteHost() {
         return remoteHost;
@@ -64,6 +100,9 @@ public class Endpoint {
         if (isRemote) {
             return "RemoteEndpoint(" + name + ")";
         }
+        if (pid != null) {
+            return "LocalEndpoint(" + name + ", pid=" + pid + ")";
+        }
         return "LocalEndpoint(" + name + ")";
     }
 
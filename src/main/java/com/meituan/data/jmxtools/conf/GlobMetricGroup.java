@@ -3,8 +3,10 @@ package com.meituan.data.jmxtools.conf;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.meituan.data.jmxtools.jmx.GlobAutomaton;
 import com.meituan.data.jmxtools.jmx.GlobMetricResolver;
 import com.meituan.data.jmxtools.jmx.Metric;
+import com.meituan.data.jmxtools.jmx.MetricBatch;
 
 import javax.management.MBeanServerConnection;
 import javax.management.MalformedObjectNameException;
@@ -20,15 +22,23 @@ public final class GlobMetricGroup extends MetricGroup {
     private final String objectNameString;
     private final List<String> gauges;
     private final List<String> counters;
+    private final String nameFormat;
 
     private final ObjectName objectName;
+    private final GlobAutomaton automaton;
+
+    public GlobMetricGroup(String groupName, String objectNameString, List<String> gauges, List<String> counters) {
+        this(groupName, objectNameString, null, gauges, counters);
+    }
 
     @JsonCreator
     public GlobMetricGroup(@JsonProperty(value = "group") String groupName,
                            @JsonProperty(value = "objectName") String objectNameString,
+                           @JsonProperty(value = "nameFormat", required = false) String nameFormat,
                            @JsonProperty(value = "gauges") List<String> gauges,
                            @JsonProperty(value = "counters", required = false) List<String> counters) {
         super(groupName);
+        this.nameFormat = nameFormat;
         this.objectNameString = checkNotNull(objectNameString, "objectName is null");
         this.gauges = checkNotNull(gauges, "gauges is null");
         if (counters == null) {
@@ -42,6 +52,8 @@ public final class GlobMetricGroup extends MetricGroup {
         } catch (MalformedObjectNameException e) {
             throw new IllegalArgumentException("invalid objectName: " + objectNameString, e);
         }
+        // compiled once and shared by every resolve of this group
+        this.automaton = GlobMetricResolver.compile(this.gauges, this.counters);
     }
 
     @JsonProperty("objectName")
@@ -49,6 +61,13 @@ public final class GlobMetricGroup extends MetricGroup {
         return objectNameString;
     }
 
+    /**
+     * Only used when objectName is a pattern, see {@link GlobMetricResolver}.
+     */
+    public String getNameFormat() {
+        return nameFormat;
+    }
+
     public List<String> getGauges() {
         return gauges;
     }
@@ -62,8 +81,18 @@ public final class GlobMetricGroup extends MetricGroup {
         return objectName;
     }
 
+    @JsonIgnore
+    public GlobAutomaton getAutomaton() {
+        return automaton;
+    }
+
     @Override
     public Collection<Metric> resolveMetrics(MBeanServerConnection connection) throws IOException {
         return new GlobMetricResolver(connection).resolve(this);
     }
+
+    @Override
+    public void resolveMetrics(MBeanServerConnection connection, MetricBatch batch) throws IOException {
+        new GlobMetricResolver(connection).resolve(this, batch);
+    }
 }
@@ -2,22 +2,114 @@ package com.meituan.data.jmxtools.conf;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.meituan.data.jmxtools.jmx.jvm.JvmMetricResolver;
 import com.meituan.data.jmxtools.jmx.Metric;
+import com.meituan.data.jmxtools.jmx.MetricBatch;
 
 import javax.management.MBeanServerConnection;
 import java.io.IOException;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
 
 public final class JvmMetricGroup extends MetricGroup {
+    public static final int DEFAULT_THREAD_STATE_SAMPLE_SIZE = 256;
+
+    // names of collectors in "collectorIntervals"
+    public static final Set<String> COLLECTOR_NAMES =
+            ImmutableSet.of("Memory", "GC", "ClassLoading", "Thread", "Deadlock", "OS");
+
+    /**
+     * How thread states are counted: "full" reads the info of every thread, "sampled" reads
+     * infos of at most `threadStateSampleSize` random threads and scales their counts.
+     */
+    public enum ThreadStateMode {
+        FULL, SAMPLED;
+
+        @JsonCreator
+        public static ThreadStateMode of(String name) {
+            for (ThreadStateMode mode : values()) {
+                if (mode.name().equalsIgnoreCase(name)) {
+                    return mode;
+                }
+            }
+            throw new IllegalArgumentException("Invalid threadStateMode value: " + name);
+        }
+    }
+
+    private ThreadStateMode threadStateMode = ThreadStateMode.FULL;
+    private int threadStateSampleSize = DEFAULT_THREAD_STATE_SAMPLE_SIZE;
+    private Map<String, Integer> collectorIntervals = Collections.emptyMap();
 
     @JsonCreator
     public JvmMetricGroup(@JsonProperty(value = "group") String groupName) {
         super(groupName);
     }
 
+    public ThreadStateMode getThreadStateMode() {
+        return threadStateMode;
+    }
+
+    @JsonProperty("threadStateMode")
+    public void setThreadStateMode(ThreadStateMode threadStateMode) {
+        this.threadStateMode = checkNotNull(threadStateMode, "threadStateMode is null");
+    }
+
+    /**
+     * Max number of threads whose infos are read in "sampled" mode.
+     */
+    public int getThreadStateSampleSize() {
+        return threadStateSampleSize;
+    }
+
+    @JsonProperty("threadStateSampleSize")
+    public void setThreadStateSampleSize(int threadStateSampleSize) {
+        checkArgument(threadStateSampleSize > 0, "threadStateSampleSize should be positive");
+        this.threadStateSampleSize = threadStateSampleSize;
+    }
+
+    /**
+     * Intervals of collectors in cycles (resolves of this group), e.g. {"Deadlock": 5} looks for
+     * deadlocked threads every 5th cycle, which stops the world of the JVM, and {"Thread": 5} counts
+     * thread states every 5th cycle. Collectors not listed run every cycle. Metrics of a collector
+     * not run are reused or skipped by {@link #getStalePolicy()}.
+     */
+    public Map<String, Integer> getCollectorIntervals() {
+        return collectorIntervals;
+    }
+
+    @JsonProperty("collectorIntervals")
+    public void setCollectorIntervals(Map<String, Integer> collectorIntervals) {
+        checkNotNull(collectorIntervals, "collectorIntervals is null");
+        for (Map.Entry<String, Integer> entry : collectorIntervals.entrySet()) {
+            checkArgument(COLLECTOR_NAMES.contains(entry.getKey()), "Unknown collector: %s", entry.getKey());
+            checkArgument(entry.getValue() != null && entry.getValue() > 0,
+                    "interval of collector %s should be positive", entry.getKey());
+        }
+        this.collectorIntervals = ImmutableMap.copyOf(collectorIntervals);
+    }
+
+    /**
+     * Interval of collector `name` in cycles, 1 if not configured.
+     */
+    public int getCollectorInterval(String name) {
+        Integer interval = collectorIntervals.get(name);
+        return interval == null ? 1 : interval;
+    }
+
     @Override
     public Collection<Metric> resolveMetrics(MBeanServerConnection connection) throws IOException {
         return new JvmMetricResolver(connection).resolve(this);
     }
+
+    @Override
+    public void resolveMetrics(MBeanServerConnection connection, MetricBatch batch) throws IOException {
+        new JvmMetricResolver(connection).resolve(this, batch);
+    }
 }
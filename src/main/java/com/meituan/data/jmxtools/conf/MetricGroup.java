@@ -1,14 +1,18 @@
 package com.meituan.data.jmxtools.conf;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonSubTypes;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
 import com.meituan.data.jmxtools.jmx.Metric;
+import com.meituan.data.jmxtools.jmx.MetricBatch;
 
 import javax.management.MBeanServerConnection;
 import java.io.IOException;
 import java.util.Collection;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 @JsonTypeInfo(
@@ -23,10 +27,39 @@ import static com.google.common.base.Preconditions.checkNotNull;
         @JsonSubTypes.Type(value = CustomMetricGroup.class, name = "custom")
 })
 public abstract class MetricGroup {
+    public static final int DEFAULT_TIMEOUT_SECONDS = 10;
+
+    /**
+     * What to report for metrics not collected in a collection because of their interval:
+     * "reuse" the last collected values (default), or "skip" them. Counters are always skipped,
+     * a repeated cumulative value would read as no change followed by a spike.
+     */
+    public enum StalePolicy {
+        REUSE, SKIP;
+
+        @JsonCreator
+        public static StalePolicy of(String name) {
+            for (StalePolicy policy : values()) {
+                if (policy.name().equalsIgnoreCase(name)) {
+                    return policy;
+                }
+            }
+            throw new IllegalArgumentException("Invalid stalePolicy value: " + name);
+        }
+    }
+
     protected final String groupName;
+    private final String metricPrefix;
+
+    // optional settings common to all groups
+    private int timeoutSeconds = DEFAULT_TIMEOUT_SECONDS;
+    private int sampleIntervalSeconds;
+    private int intervalCycles = 1;
+    private StalePolicy stalePolicy = StalePolicy.REUSE;
 
     public MetricGroup(@JsonProperty(value = "group") String groupName) {
         this.groupName = checkNotNull(groupName, "group is null");
+        this.metricPrefix = groupName + ".";
     }
 
     @JsonProperty("group")
@@ -34,5 +67,74 @@ public abstract class MetricGroup {
         return groupName;
     }
 
+    /**
+     * Prefix of all metric names of this group, i.e. "{group}.".
+     */
+    @JsonIgnore
+    public String getMetricPrefix() {
+        return metricPrefix;
+    }
+
+    /**
+     * Time allowed for resolving metrics of this group, metrics of the group are
+     * discarded when it's exceeded. Other groups of the endpoint are not affected.
+     */
+    public int getTimeoutSeconds() {
+        return timeoutSeconds;
+    }
+
+    @JsonProperty("timeoutSeconds")
+    public void setTimeoutSeconds(int timeoutSeconds) {
+        checkArgument(timeoutSeconds > 0, "timeoutSeconds should be positive");
+        this.timeoutSeconds = timeoutSeconds;
+    }
+
+    /**
+     * Interval of sampling this group within a step in daemon mode, 0 (the default) means the
+     * group is collected once per step. A sampled group reports summaries of its samples in
+     * each step instead, see {@link com.meituan.data.jmxtools.jmx.MetricSampler}.
+     */
+    public int getSampleIntervalSeconds() {
+        return sampleIntervalSeconds;
+    }
+
+    @JsonProperty("sampleIntervalSeconds")
+    public void setSampleIntervalSeconds(int sampleIntervalSeconds) {
+        checkArgument(sampleIntervalSeconds >= 0, "sampleIntervalSeconds should not be negative");
+        this.sampleIntervalSeconds = sampleIntervalSeconds;
+    }
+
+    /**
+     * Collect this group every `intervalCycles` collections of its endpoint, 1 (the default)
+     * means every collection. In between, its metrics are reused or skipped by {@link #getStalePolicy()}.
+     * Cycles are counted within a process, so it only matters in daemon mode.
+     */
+    public int getIntervalCycles() {
+        return intervalCycles;
+    }
+
+    @JsonProperty("intervalCycles")
+    public void setIntervalCycles(int intervalCycles) {
+        checkArgument(intervalCycles > 0, "intervalCycles should be positive");
+        this.intervalCycles = intervalCycles;
+    }
+
+    public StalePolicy getStalePolicy() {
+        return stalePolicy;
+    }
+
+    @JsonProperty("stalePolicy")
+    public void setStalePolicy(StalePolicy stalePolicy) {
+        this.stalePolicy = checkNotNull(stalePolicy, "stalePolicy is null");
+    }
+
     public abstract Collection<Metric> resolveMetrics(MBeanServerConnection connection) throws IOException;
+
+    /**
+     * Resolve metrics into `batch`, groups whose resolver supports batches override it.
+     */
+    public void resolveMetrics(MBeanServerConnection connection, MetricBatch batch) throws IOException {
+        checkNotNull(batch, "batch is null");
+        batch.addAll(resolveMetrics(connection));
+    }
 }
@@ -5,11 +5,13 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 
 import java.util.Map;
 
-import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
  * Represents configurations for metrics reporter.
+ *
+ * <p>`type` is either a builtin reporter type like "falcon", or name of a class implementing
+ * Reporter with a public constructor taking options as Map&lt;String, String&gt;.
  */
 public class ReporterConf {
     private final String type;
@@ -18,10 +20,10 @@ public class ReporterConf {
     @JsonCreator
     public ReporterConf(@JsonProperty("type") String type,
                         @JsonProperty("options") Map<String, String> options) {
-        this.type = checkNotNull(type, "type is null").toLowerCase();
+        checkNotNull(type, "type is null");
+        // class names are case sensitive
+        this.type = type.contains(".") ? type : type.toLowerCase();
         this.options = checkNotNull(options, "options is null");
-
-        checkArgument(type.equals("falcon"), "Invalid reporter type: %s, only \"falcon\" is supported", type);
     }
 
     public String getType() {
@@ -0,0 +1,204 @@
+package com.meituan.data.jmxtools.jmx;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.primitives.Ints;
+
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Compiled form of a set of glob patterns (see {@link GlobMetricResolver} for the syntax),
+ * which tests a name against all of them in a single pass.
+ *
+ * <p>Each pattern is given a label, which is an int bit flag. {@link #match(String)} returns the
+ * bitwise OR of labels of all patterns matching the name, so callers can tell e.g. gauges apart
+ * from counters without matching twice.
+ *
+ * <p>Patterns without any wildcard are kept in a hash map and looked up directly, the others are
+ * merged into one NFA which is simulated over the input. Instances are immutable and thread-safe.
+ */
+public final class GlobAutomaton {
+    // token values of the NFA, non-negative values are literal chars
+    private static final int STAR = -1;
+    private static final int ANY = -2;
+    private static final int ACCEPT = -3;
+
+    private final Map<String, Integer> literals = Maps.newHashMap();
+
+    private final int[] tokens;
+    private final int[] labels; // label of each ACCEPT state
+    private final int[] starts; // first state of each wildcard pattern
+
+    // per-thread buffers for the simulation, so matching doesn't allocate
+    private final ThreadLocal<StateSet[]> buffers = new ThreadLocal<StateSet[]>() {
+        @Override
+        protected StateSet[] initialValue() {
+            return new StateSet[]{new StateSet(tokens.length), new StateSet(tokens.length)};
+        }
+    };
+
+    /**
+     * @param globLabels maps each glob pattern to its label
+     */
+    public GlobAutomaton(Map<String, Integer> globLabels) {
+        checkNotNull(globLabels, "globLabels is null");
+
+        List<Integer> tokenList = Lists.newArrayList();
+        List<Integer> labelList = Lists.newArrayList();
+        List<Integer> startList = Lists.newArrayList();
+
+        for (Map.Entry<String, Integer> entry : globLabels.entrySet()) {
+            String glob = checkNotNull(entry.getKey(), "glob is null");
+            int label = checkNotNull(entry.getValue(), "label is null");
+            checkArgument(label != 0, "label of %s is 0", glob);
+
+            if (!glob.contains("*") && !glob.contains("?")) {
+                // exact matching, escape characters are not interpreted
+                Integer prev = literals.get(glob);
+                literals.put(glob, (prev == null) ? label : prev | label);
+                continue;
+            }
+
+            startList.add(tokenList.size());
+            for (int i = 0; i < glob.length(); i++) {
+                char c = glob.charAt(i);
+                if (c == '\\' && i + 1 < glob.length()
+                        && (glob.charAt(i + 1) == '*' || glob.charAt(i + 1) == '?' || glob.charAt(i + 1) == '\\')) {
+                    tokenList.add((int) glob.charAt(++i));
+                } else if (c == '*') {
+                    tokenList.add(STAR);
+                } else if (c == '?') {
+                    tokenList.add(ANY);
+                } else {
+                    tokenList.add((int) c);
+                }
+                labelList.add(0);
+            }
+            tokenList.add(ACCEPT);
+            labelList.add(label);
+        }
+
+        this.tokens = Ints.toArray(tokenList);
+        this.labels = Ints.toArray(labelList);
+        this.starts = Ints.toArray(startList);
+    }
+
+    /**
+     * Returns the OR-ed labels of all patterns matching `name`, or 0 if none matches.
+     */
+    public int match(String name) {
+        checkNotNull(name, "name is null");
+
+        Integer literalLabel = literals.get(name);
+        int result = (literalLabel == null) ? 0 : literalLabel;
+
+        if (starts.length > 0) {
+            StateSet states = run(name);
+            for (int i = 0; i < states.size; i++) {
+                int s = states.states[i];
+                if (tokens[s] == ACCEPT) {
+                    result |= labels[s];
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns true if any pattern may match `attrName` itself or a name nested under it,
+     * i.e. "attrName.xxx".
+     */
+    public boolean mayMatchUnder(String attrName) {
+        checkNotNull(attrName, "attrName is null");
+
+        if (literals.containsKey(attrName)) {
+            return true;
+        }
+        String nestedPrefix = attrName + ".";
+        for (String literal : literals.keySet()) {
+            if (literal.startsWith(nestedPrefix)) {
+                return true;
+            }
+        }
+
+        if (starts.length > 0) {
+            StateSet states = run(attrName);
+            for (int i = 0; i < states.size; i++) {
+                if (tokens[states.states[i]] == ACCEPT) {
+                    return true;
+                }
+            }
+            // every live state can reach ACCEPT by consuming more input
+            return run(nestedPrefix).size > 0;
+        }
+        return false;
+    }
+
+    /**
+     * Simulate the NFA over `input`, returns the set of states reached.
+     * The returned set is only valid until the next call in the same thread.
+     */
+    private StateSet run(String input) {
+        StateSet[] buffer = buffers.get();
+        StateSet current = buffer[0];
+        StateSet next = buffer[1];
+        current.clear();
+
+        for (int start : starts) {
+            current.addWithClosure(start, tokens);
+        }
+
+        for (int i = 0; i < input.length() && current.size > 0; i++) {
+            char c = input.charAt(i);
+            next.clear();
+            for (int j = 0; j < current.size; j++) {
+                int s = current.states[j];
+                int token = tokens[s];
+                if (token == STAR) {
+                    next.addWithClosure(s, tokens);
+                } else if (token == ANY || token == c) {
+                    next.addWithClosure(s + 1, tokens);
+                }
+            }
+
+            StateSet tmp = current;
+            current = next;
+            next = tmp;
+        }
+        return current;
+    }
+
+    private static final class StateSet {
+        final int[] states;
+        final boolean[] member;
+        int size;
+
+        StateSet(int capacity) {
+            this.states = new int[capacity];
+            this.member = new boolean[capacity];
+        }
+
+        void clear() {
+            for (int i = 0; i < size; i++) {
+                member[states[i]] = false;
+            }
+            size = 0;
+        }
+
+        // '*' may match empty string, so the state after it is reachable as well
+        void addWithClosure(int s, int[] tokens) {
+            while (!member[s]) {
+                member[s] = true;
+                states[size++] = s;
+                if (tokens[s] != STAR) {
+                    break;
+                }
+                s++;
+            }
+        }
+    }
+}
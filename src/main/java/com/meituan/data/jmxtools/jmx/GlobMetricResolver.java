@@ -1,11 +1,15 @@
 package com.meituan.data.jmxtools.jmx;
 
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.base.Function;
 import com.google.common.base.Predicate;
-import com.google.common.base.Predicates;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Ordering;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.meituan.data.jmxtools.conf.GlobMetricGroup;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -13,9 +17,14 @@ import org.slf4j.LoggerFactory;
 import javax.management.*;
 import javax.management.openmbean.CompositeData;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.meituan.data.jmxtools.jmx.Metric.Type.COUNTER;
@@ -30,6 +39,12 @@ import static com.meituan.data.jmxtools.jmx.Metric.Type.GAUGE;
  * <p>For example, "A.*.C" will match "A.BBB.C" and "A.BB.BB.C", pattern
  * "A.B?" will match "A.B1" and "A.B2" but not "A.BBB".
  *
+ * <p>Only attributes that may be matched by at least one of the patterns are fetched from
+ * the MBean, e.g. with patterns ["RunningQueries", "ExecutionTime.*.P??"] attributes other
+ * than "RunningQueries" and "ExecutionTime" are never read. Which attributes to fetch and the
+ * metric name of each attribute path are worked out once per bean, and kept as long as its
+ * {@link MBeanInfo} is cached by {@link MBeanInfoCache}.
+ *
  * <p>All metrics are collected from the leaf attribute of a managed bean. If the attribute has
  * nested structure, we go from top to bottom and using '.' to concatenate name. For array type
  * attribute, its children are not visited.
@@ -49,6 +64,19 @@ import static com.meituan.data.jmxtools.jmx.Metric.Type.GAUGE;
  * }
  * </pre>
  *
+ * The ObjectName of a group can also be a pattern, e.g. "java.lang:type=MemoryPool,name=*".
+ * All beans matching it are collected, and the metric names get a per bean part in the middle,
+ * which is built from the group's "nameFormat", e.g. "{name}" for the pattern above:
+ * <pre>
+ * {
+ *   "group": "MemPool",
+ *   "objectName": "java.lang:type=MemoryPool,name=*",
+ *   "nameFormat": "{name}",
+ *   "gauges": ["Usage.used"]
+ * }
+ * </pre>
+ * produces "MemPool.Metaspace.Usage.used", "MemPool.Code Cache.Usage.used" and so on.
+ *
  * You can specify patterns for both <b>gauge</b> and <b>counter</b> metrics. To avoid
  * duplicated name problem when you want a metric to be both gauge and counter, a
  * ".Delta" postfix is added to all counter metrics for you.
@@ -74,45 +102,210 @@ import static com.meituan.data.jmxtools.jmx.Metric.Type.GAUGE;
 public class GlobMetricResolver extends MetricResolver<GlobMetricGroup> {
     static final Logger LOG = LoggerFactory.getLogger(GlobMetricResolver.class);
 
+    // labels of gauge and counter patterns in the compiled automaton
+    static final int GAUGE_LABEL = 1;
+    static final int COUNTER_LABEL = 2;
+
+    // beans matched by a pattern ObjectName are fetched concurrently in this pool,
+    // the caller fetches by itself when all threads are busy
+    static final ExecutorService FETCH_POOL = new ThreadPoolExecutor(
+            0, 16, 60, TimeUnit.SECONDS,
+            new SynchronousQueue<Runnable>(),
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("glob-fetch-pool-%d").build(),
+            new ThreadPoolExecutor.CallerRunsPolicy());
+
+    // names of metrics per bean and group. MBeanInfoCache returns the same MBeanInfo until the
+    // bean is registered again or its info expires, keys are weak and compared by identity,
+    // so names are rebuilt for a new MBeanInfo and dropped with the old one. Beans may share an
+    // MBeanInfo (e.g. standard MBeans of a class in a local server), so names are also per ObjectName
+    private static final LoadingCache<MBeanInfo, ConcurrentMap<GlobMetricGroup, ConcurrentMap<ObjectName, BeanNames>>> BEAN_NAMES =
+            CacheBuilder.newBuilder()
+                    .weakKeys()
+                    .build(new CacheLoader<MBeanInfo, ConcurrentMap<GlobMetricGroup, ConcurrentMap<ObjectName, BeanNames>>>() {
+                        @Override
+                        public ConcurrentMap<GlobMetricGroup, ConcurrentMap<ObjectName, BeanNames>> load(MBeanInfo info) {
+                            return new ConcurrentHashMap<>();
+                        }
+                    });
+
     public GlobMetricResolver(MBeanServerConnection connection) {
         super(connection);
     }
 
     @Override
     public Collection<Metric> resolve(GlobMetricGroup metricGroup) throws IOException {
+        MetricBatch batch = new MetricBatch();
+        resolve(metricGroup, batch);
+
+        Map<String, Metric> result = Maps.newTreeMap();
+        for (int i = 0; i < batch.size(); i++) {
+            result.put(batch.getName(i), batch.getMetric(i));
+        }
+        return result.values();
+    }
+
+    /**
+     * Resolve metrics into `batch` in the order of beans and then attributes. A metric
+     * name produced again (e.g. by beans with the same formatted name) replaces the former value.
+     *
+     * @throws IOException the last communication problem of a bean, if any. It's thrown after all
+     *                     beans are processed, so `batch` contains metrics of the other beans.
+     */
+    @Override
+    public void resolve(GlobMetricGroup metricGroup, MetricBatch batch) throws IOException {
         checkNotNull(connection, "connection is null");
         checkNotNull(metricGroup, "metricGroup is null");
+        checkNotNull(batch, "batch is null");
 
-        Map<String, Number> allMetrics = fetchAllMetrics(metricGroup.getObjectName());
+        int start = batch.size();
+        BitSet added = new BitSet();
 
-        Map<String, Number> gauges = extract(allMetrics, metricGroup.getGauges());
+        if (!metricGroup.getObjectName().isPattern()) {
+            MetricBatch fetched = new MetricBatch(batch.getNames());
+            fetchAllMetrics(metricGroup, metricGroup.getObjectName(), fetched);
+            addMetrics(fetched, batch, start, added);
+            return;
+        }
 
-        Map<String, Number> counters = extract(allMetrics, metricGroup.getCounters());
+        // resolve the pattern with one query, then fetch matched beans concurrently
+        Set<ObjectName> objectNames = connection.queryNames(metricGroup.getObjectName(), null);
+        Map<ObjectName, Future<MetricBatch>> futures = Maps.newTreeMap();
+        for (ObjectName objectName : objectNames) {
+            futures.put(objectName, FETCH_POOL.submit(newFetchTask(metricGroup, objectName, batch.getNames())));
+        }
 
-        // Merge gauges and counters.
-        // all counter's name has a ".Delta" postfix (assuming no gauge has that postfix)
-        Map<String, Metric> result = Maps.newTreeMap();
-        final String prefix = metricGroup.getGroupName() + ".";
-        final String postfix = ".Delta";
+        // a bean failing with a communication problem doesn't drop metrics of the others,
+        // the last problem is thrown after all beans are merged
+        IOException failure = null;
+        for (Map.Entry<ObjectName, Future<MetricBatch>> entry : futures.entrySet()) {
+            try {
+                addMetrics(entry.getValue().get(), batch, start, added);
 
-        for (String name : gauges.keySet()) {
-            String key = prefix + name;
-            result.put(key, new Metric(key, gauges.get(name), GAUGE));
+            } catch (InterruptedException e) {
+                for (Future<?> future : futures.values()) {
+                    future.cancel(true);
+                }
+                InterruptedIOException wrapper = new InterruptedIOException(e.getMessage());
+                wrapper.initCause(e);
+                throw wrapper;
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    failure = (IOException) e.getCause();
+                }
+                LOG.error("Problem occurred while trying to process MBean: " + entry.getKey(), e.getCause());
+            }
         }
-        for (String name : counters.keySet()) {
-            String key = prefix + name + postfix;
-            result.put(key, new Metric(key, counters.get(name), COUNTER));
+
+        if (failure != null) {
+            throw failure;
         }
+    }
 
-        return result.values();
+    private Callable<MetricBatch> newFetchTask(final GlobMetricGroup metricGroup, final ObjectName objectName,
+                                               final MetricNames names) {
+        return new Callable<MetricBatch>() {
+            @Override
+            public MetricBatch call() throws IOException {
+                MetricBatch fetched = new MetricBatch(names);
+                fetchAllMetrics(metricGroup, objectName, fetched);
+                return fetched;
+            }
+        };
     }
 
-    private Map<String, Number> fetchAllMetrics(ObjectName objectName) throws IOException {
-        Map<String, Number> result = Maps.newTreeMap();
+    /**
+     * Merge metrics fetched from a bean into metrics of `batch` from `start`,
+     * `added` has the name ids of those metrics.
+     */
+    private static void addMetrics(MetricBatch fetched, MetricBatch batch, int start, BitSet added) {
+        for (int i = 0; i < fetched.size(); i++) {
+            int nameId = fetched.getNameId(i);
+            if (added.get(nameId)) {
+                batch.replace(start, nameId, fetched.getValue(i), fetched.getType(i));
+            } else {
+                added.set(nameId);
+                batch.add(fetched, i);
+            }
+        }
+    }
+
+    /**
+     * Name of a bean matched by a pattern group. Each "{key}" in the group's name format is
+     * replaced by the value of that key property. Without name format, the values of keys
+     * not fixed by the pattern are joined with '.', or the domain is used if there are none.
+     */
+    @VisibleForTesting
+    static String formatBeanName(GlobMetricGroup metricGroup, ObjectName objectName) {
+        String format = metricGroup.getNameFormat();
+        StringBuilder sb = new StringBuilder();
+
+        if (format == null) {
+            ObjectName pattern = metricGroup.getObjectName();
+            for (String key : Ordering.natural().sortedCopy(objectName.getKeyPropertyList().keySet())) {
+                if (pattern.getKeyProperty(key) == null || pattern.isPropertyValuePattern(key)) {
+                    if (sb.length() > 0) {
+                        sb.append('.');
+                    }
+                    appendKeyValue(sb, objectName, key);
+                }
+            }
+            return (sb.length() > 0) ? sb.toString() : objectName.getDomain();
+        }
 
+        int start = 0;
+        while (start < format.length()) {
+            int open = format.indexOf('{', start);
+            int close = (open < 0) ? -1 : format.indexOf('}', open);
+            if (close < 0) {
+                sb.append(format, start, format.length());
+                break;
+            }
+            sb.append(format, start, open);
+            appendKeyValue(sb, objectName, format.substring(open + 1, close));
+            start = close + 1;
+        }
+        return sb.toString();
+    }
+
+    private static void appendKeyValue(StringBuilder sb, ObjectName objectName, String key) {
+        String value = objectName.getKeyProperty(key);
+        if (value != null) {
+            sb.append(value.startsWith("\"") ? ObjectName.unquote(value) : value);
+        }
+    }
+
+    /**
+     * Compile gauge and counter patterns of a group into one automaton.
+     */
+    public static GlobAutomaton compile(List<String> gauges, List<String> counters) {
+        Map<String, Integer> globLabels = Maps.newHashMap();
+        for (String gauge : gauges) {
+            globLabels.put(gauge, GAUGE_LABEL);
+        }
+        for (String counter : counters) {
+            Integer prev = globLabels.get(counter);
+            globLabels.put(counter, (prev == null) ? COUNTER_LABEL : prev | COUNTER_LABEL);
+        }
+        return new GlobAutomaton(globLabels);
+    }
+
+    /**
+     * Number of readable attributes of a bean never fetched for the group, because no pattern could
+     * match them. It only depends on the group and the bean, so resolves don't share any count.
+     */
+    @VisibleForTesting
+    static int getSkippedAttributeCount(GlobMetricGroup metricGroup, ObjectName objectName, MBeanInfo info) {
+        return getBeanNames(metricGroup, objectName, info).skipped;
+    }
+
+    /**
+     * Fetch metrics under attributes of `objectName` matched by the group into `result`.
+     */
+    private void fetchAllMetrics(GlobMetricGroup metricGroup, ObjectName objectName,
+                                 MetricBatch result) throws IOException {
         MBeanInfo info;
         try {
-            info = connection.getMBeanInfo(objectName);
+            info = MBeanInfoCache.getMBeanInfo(connection, objectName);
 
         } catch (InstanceNotFoundException | IntrospectionException | ReflectionException e) {
             // InstanceNotFoundException: Ignored for some reason the bean was not found
@@ -120,69 +313,220 @@ public class GlobMetricResolver extends MetricResolver<GlobMetricGroup> {
             // ReflectionException: Happens when the code inside the JMX bean threw an exception
             // In all above cases, we log it and skip processing this MBean
             LOG.warn("Problem occurred while trying to process MBean: " + objectName, e);
-            return result;
-        }
-
-        for (MBeanAttributeInfo attrInfo : info.getAttributes()) {
-            if (attrInfo.isReadable()) {
-                String attrName = attrInfo.getName();
-                try {
-                    Object attrValue = connection.getAttribute(objectName, attrName);
-                    dfsTraverse(attrName, attrValue, result);
-
-                } catch (JMException | JMRuntimeException e) {
-                    // JMException and JMRuntimeException are thrown by JMX implementations.
-                    // In these cases, we just log it and keep processing other attributes
-                    if (e.getCause() instanceof UnsupportedOperationException) {
-                        // we don't want to log UnsupportedOperationException as warn level or higher
-                        LOG.debug("getting attribute " + attrName + " of " + objectName + " threw an exception", e);
-                    } else {
-                        LOG.warn("getting attribute " + attrName + " of " + objectName + " threw an exception", e);
+            return;
+        }
+
+        BeanNames beanNames = getBeanNames(metricGroup, objectName, info);
+        String[] attrNames = beanNames.attrNames;
+        LOG.debug("Fetching {} attributes of {}, skipped {}", attrNames.length, objectName, beanNames.skipped);
+        if (attrNames.length == 0) {
+            return;
+        }
+
+        // fetch all attributes in one round trip, getAttributes silently leaves out
+        // attributes it failed to read, those are retried one by one afterwards
+        Set<String> fetched = Sets.newHashSet();
+        try {
+            AttributeList attrs = connection.getAttributes(objectName, attrNames);
+            for (Attribute attr : attrs.asList()) {
+                beanNames.addMetrics(attr.getName(), attr.getValue(), result);
+                fetched.add(attr.getName());
+            }
+
+        } catch (InstanceNotFoundException e) {
+            // the bean was unregistered after we got its info
+            MBeanInfoCache.invalidate(connection, objectName);
+            LOG.warn("Problem occurred while trying to process MBean: " + objectName, e);
+            return;
+        } catch (ReflectionException | JMRuntimeException e) {
+            LOG.debug("getting attributes of " + objectName + " in bulk threw an exception", e);
+        } catch (RuntimeException e) {
+            LOG.warn("getting attributes of " + objectName + " in bulk threw an exception", e);
+        }
+
+        for (String attrName : attrNames) {
+            if (!fetched.contains(attrName)) {
+                fetchAttribute(objectName, attrName, beanNames, result);
+            }
+        }
+    }
+
+    private void fetchAttribute(ObjectName objectName, String attrName, BeanNames beanNames,
+                                MetricBatch result) throws IOException {
+        try {
+            Object attrValue = connection.getAttribute(objectName, attrName);
+            beanNames.addMetrics(attrName, attrValue, result);
+
+        } catch (JMException | JMRuntimeException e) {
+            // JMException and JMRuntimeException are thrown by JMX implementations.
+            // In these cases, we just log it and keep processing other attributes
+            if (e.getCause() instanceof UnsupportedOperationException) {
+                // we don't want to log UnsupportedOperationException as warn level or higher
+                LOG.debug("getting attribute " + attrName + " of " + objectName + " threw an exception", e);
+            } else {
+                LOG.warn("getting attribute " + attrName + " of " + objectName + " threw an exception", e);
+            }
+        } catch (RuntimeException e) {
+            // For some reason Runtime exceptions can still find their way through
+            LOG.error("getting attribute " + attrName + " of " + objectName + " threw an exception", e);
+        }
+    }
+
+    private static BeanNames getBeanNames(GlobMetricGroup metricGroup, ObjectName objectName, MBeanInfo info) {
+        ConcurrentMap<GlobMetricGroup, ConcurrentMap<ObjectName, BeanNames>> groups = BEAN_NAMES.getUnchecked(info);
+        ConcurrentMap<ObjectName, BeanNames> beans = groups.get(metricGroup);
+        if (beans == null) {
+            beans = new ConcurrentHashMap<>();
+            ConcurrentMap<ObjectName, BeanNames> prev = groups.putIfAbsent(metricGroup, beans);
+            if (prev != null) {
+                beans = prev;
+            }
+        }
+        BeanNames beanNames = beans.get(objectName);
+        if (beanNames == null) {
+            beanNames = new BeanNames(metricGroup, objectName, info);
+            BeanNames prev = beans.putIfAbsent(objectName, beanNames);
+            if (prev != null) {
+                beanNames = prev;
+            }
+        }
+        return beanNames;
+    }
+
+    /**
+     * Names of metrics a group gets from a bean, kept as long as the bean's MBeanInfo. It has the
+     * attributes to fetch, and the metric names of each attribute path, which are matched and
+     * concatenated the first time the path is seen, so that resolving a bean again builds no
+     * name string. It must not reference the MBeanInfo, which is its weak key.
+     */
+    private static final class BeanNames {
+        final String[] attrNames;
+        final int skipped;
+        private final String prefix;
+        private final GlobAutomaton automaton;
+        private final Map<String, Path> attrPaths = Maps.newHashMap();
+
+        BeanNames(GlobMetricGroup metricGroup, ObjectName objectName, MBeanInfo info) {
+            this.automaton = metricGroup.getAutomaton();
+            this.prefix = metricGroup.getObjectName().isPattern()
+                    ? metricGroup.getMetricPrefix() + formatBeanName(metricGroup, objectName) + "."
+                    : metricGroup.getMetricPrefix();
+
+            // skip attributes that can't produce any wanted metric before doing any RPCs
+            List<String> names = Lists.newArrayList();
+            int readableCount = 0;
+            for (MBeanAttributeInfo attrInfo : info.getAttributes()) {
+                if (attrInfo.isReadable()) {
+                    readableCount++;
+                    if (automaton.mayMatchUnder(attrInfo.getName())) {
+                        names.add(attrInfo.getName());
                     }
-                } catch (RuntimeException e) {
-                    // For some reason Runtime exceptions can still find their way through
-                    LOG.error("getting attribute " + attrName + " of " + objectName + " threw an exception", e);
                 }
             }
+            this.attrNames = names.toArray(new String[names.size()]);
+            this.skipped = readableCount - attrNames.length;
         }
 
-        return result;
-    }
+        // the same bean may be fetched by concurrent resolves, e.g. of a sampled group
+        synchronized void addMetrics(String attrName, Object value, MetricBatch result) {
+            Path path = attrPaths.get(attrName);
+            if (path == null) {
+                path = new Path(attrName);
+                attrPaths.put(attrName, path);
+            }
+            dfsTraverse(path, value, result);
+        }
 
-    private void dfsTraverse(String prefix, Object value, Map<String, Number> result) {
-        if (value == null) {
-            return;
+        private void dfsTraverse(Path path, Object value, MetricBatch result) {
+            if (value == null) {
+                return;
+            }
+
+            if (value instanceof Number) {
+                if (!path.matched) {
+                    path.match(prefix, automaton);
+                }
+                // all counter's name has a ".Delta" postfix (assuming no gauge has that postfix)
+                if (path.gaugeName != null) {
+                    result.add(path.gaugeName, (Number) value, GAUGE);
+                }
+                if (path.counterName != null) {
+                    result.add(path.counterName, (Number) value, COUNTER);
+                }
+
+            } else if (value instanceof CompositeData) {
+                CompositeData compoValue = (CompositeData) value;
+                for (String key : compoValue.getCompositeType().keySet()) {
+                    dfsTraverse(path.child(key), compoValue.get(key), result);
+                }
+            }
         }
+    }
+
+    /**
+     * An attribute or a key nested in it, e.g. "HeapMemoryUsage.used".
+     */
+    private static final class Path {
+        final String path;
+        Map<String, Path> children;
+        boolean matched;
+        String gaugeName;   // null if not matched as a gauge
+        String counterName; // null if not matched as a counter
 
-        if (value instanceof Number) {
-            result.put(prefix, (Number) value);
+        Path(String path) {
+            this.path = path;
+        }
 
-        } else if (value instanceof CompositeData) {
-            CompositeData compoValue = (CompositeData) value;
-            for (String key : compoValue.getCompositeType().keySet()) {
-                dfsTraverse(prefix + "." + key, compoValue.get(key), result);
+        Path child(String key) {
+            if (children == null) {
+                children = Maps.newHashMap();
+            }
+            Path child = children.get(key);
+            if (child == null) {
+                child = new Path(path + "." + key);
+                children.put(key, child);
             }
+            return child;
+        }
+
+        void match(String prefix, GlobAutomaton automaton) {
+            int labels = automaton.match(path);
+            gaugeName = (labels & GAUGE_LABEL) != 0 ? prefix + path : null;
+            counterName = (labels & COUNTER_LABEL) != 0 ? prefix + path + ".Delta" : null;
+            matched = true;
         }
     }
 
+    /**
+     * Matcher of a single glob pattern.
+     */
     @VisibleForTesting
     static class GlobMatcher implements Predicate<String> {
-        private String pattern;
+        private final GlobAutomaton automaton;
 
         public GlobMatcher(String pattern) {
-            this.pattern = checkNotNull(pattern, "pattern is null");
+            checkNotNull(pattern, "pattern is null");
+            this.automaton = new GlobAutomaton(Collections.singletonMap(pattern, 1));
         }
 
         @Override
         public boolean apply(String input) {
             checkNotNull(input, "input is null");
+            return automaton.match(input) != 0;
+        }
 
-            if (!pattern.contains("*") && !pattern.contains("?")) {
-                return pattern.equals(input);   // fall back to exact matching
-            }
-            return input.matches(convertGlobToRegex(pattern));
+        /**
+         * Returns true if the pattern may match `attrName` itself or any metric nested
+         * under it, i.e. "attrName.xxx".
+         */
+        public boolean mayMatchUnder(String attrName) {
+            return automaton.mayMatchUnder(attrName);
         }
 
+        /**
+         * Regex equivalent of a glob pattern, which was what the matching was based on
+         * before {@link GlobAutomaton}. Kept as the reference semantics.
+         */
         @VisibleForTesting
         static String convertGlobToRegex(String glob) {
             StringBuilder sb = new StringBuilder("^");
@@ -234,15 +578,4 @@ public class GlobMetricResolver extends MetricResolver<GlobMetricGroup> {
             return sb.toString();
         }
     }
-
-    Map<String, Number> extract(Map<String, Number> metrics, List<String> globs) {
-        List<GlobMatcher> matchers = Lists.transform(globs, new Function<String, GlobMatcher>() {
-            @Override
-            public GlobMatcher apply(String pattern) {
-                return new GlobMatcher(pattern);
-            }
-        });
-
-        return Maps.filterKeys(metrics, Predicates.or(matchers));
-    }
 }
@@ -1,9 +1,10 @@
 package com.meituan.data.jmxtools.jmx;
 
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.meituan.data.jmxtools.conf.Endpoint;
-import com.sun.tools.attach.AttachNotSupportedException;
-import com.sun.tools.attach.VirtualMachine;
 import com.sun.tools.attach.VirtualMachineDescriptor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -11,13 +12,20 @@ import org.slf4j.LoggerFactory;
 import javax.management.remote.JMXConnector;
 import javax.management.remote.JMXConnectorFactory;
 import javax.management.remote.JMXServiceURL;
-import java.io.File;
 import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.net.MalformedURLException;
 import java.net.SocketTimeoutException;
+import java.rmi.server.RMISocketFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.*;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
 /**
  * Manage JMX connections.
  */
@@ -30,108 +38,193 @@ public class JmxConnections {
                     .setNameFormat("jmx-connector-pool-%d")
                     .build();
 
-    public static JMXConnector connectWithTimeout(Endpoint endpoint, long timeout, TimeUnit unit) throws IOException {
-        JMXServiceURL url;
+    // at most MAX_CONNECTING_THREADS connections are being established at the same time,
+    // and at most MAX_PENDING_CONNECTS more are waiting, others are refused at once
+    static final int MAX_CONNECTING_THREADS = 16;
+    static final int MAX_PENDING_CONNECTS = 256;
+
+    private static final ThreadPoolExecutor CONNECT_POOL;
+    static {
+        CONNECT_POOL = new ThreadPoolExecutor(
+                MAX_CONNECTING_THREADS, MAX_CONNECTING_THREADS, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(MAX_PENDING_CONNECTS),
+                DAEMON_THREAD_FACTORY);
+        CONNECT_POOL.allowCoreThreadTimeOut(true);
+    }
 
-        if (endpoint.isRemote()) {
-            url = getRemoteURL(endpoint.getRemoteHost(), endpoint.getRemotePort());
-        } else {
-            url = getLocalAttachURL(endpoint.getName());
+    private static final ScheduledExecutorService TIMEOUT_SCHEDULER = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder()
+                    .setDaemon(true)
+                    .setNameFormat("jmx-connect-timer-%d")
+                    .build());
+
+    private static final LocalAttachCache ATTACH_CACHE = new LocalAttachCache();
+
+    // every JMX call over RMI fails if no response is read within RMI_READ_TIMEOUT_MILLIS
+    static final int RMI_CONNECT_TIMEOUT_MILLIS = 20 * 1000;
+    static final int RMI_READ_TIMEOUT_MILLIS = 30 * 1000;
+    // the notification fetch is a long poll (60s by default) that must return within the read
+    // timeout, otherwise idle connections would be broken every RMI_READ_TIMEOUT_MILLIS
+    static final long NOTIFICATION_FETCH_TIMEOUT_MILLIS = 20 * 1000;
+    static final TimeoutRMISocketFactory SOCKET_FACTORY =
+            new TimeoutRMISocketFactory(RMI_CONNECT_TIMEOUT_MILLIS, RMI_READ_TIMEOUT_MILLIS);
+
+    static {
+        // The environment map only applies SOCKET_FACTORY to the registry lookup, calls on the
+        // connector stub use the factory chosen by the server, which is the default one unless
+        // the server configured otherwise. So also install it as the default, if nobody did.
+        try {
+            if (RMISocketFactory.getSocketFactory() == null) {
+                RMISocketFactory.setSocketFactory(SOCKET_FACTORY);
+            }
+        } catch (IOException e) {
+            LOG.warn("Failed to set default RMI socket factory, JMX calls may block forever", e);
         }
-
-        LOG.debug("Trying to connect {}", url);
-        return connectWithTimeout(url, timeout, unit);
     }
 
-    private static JMXServiceURL getRemoteURL(String host, int port) throws MalformedURLException {
-        return new JMXServiceURL("service:jmx:rmi:///jndi/rmi://" + host + ":" + port + "/jmxrmi");
+    public static JMXConnector connectWithTimeout(Endpoint endpoint, long timeout, TimeUnit unit) throws IOException {
+        ListenableFuture<JMXConnector> future = connectAsync(endpoint, timeout, unit);
+        try {
+            // the future is guaranteed to be done after timeout
+            return future.get();
+
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            InterruptedIOException wrapper = new InterruptedIOException(e.getMessage());
+            wrapper.initCause(e);
+            throw wrapper;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause.toString(), cause);
+        }
     }
 
-    private static JMXServiceURL getLocalAttachURL(String processRegex) throws IOException {
-        final String LOCAL_CONNECTOR_ADDRESS = "com.sun.management.jmxremote.localConnectorAddress";
+    /**
+     * Connect to an endpoint asynchronously in a shared pool.
+     *
+     * <p>The returned future fails with {@link SocketTimeoutException} if the connection isn't
+     * established after `timeout` (including the time waiting in the pool), and a connector
+     * established after that is closed. Connector is also closed if the future is cancelled.
+     * When too many connections are pending, the future fails at once.
+     */
+    public static ListenableFuture<JMXConnector> connectAsync(final Endpoint endpoint, long timeout, TimeUnit unit) {
+        checkNotNull(endpoint, "endpoint is null");
+        final SettableFuture<JMXConnector> result = SettableFuture.create();
+
+        final Future<?> task;
         try {
-            for (VirtualMachineDescriptor vmd : VirtualMachine.list()) {
-                if (vmd.displayName().matches(processRegex)) {
-                    VirtualMachine vm = VirtualMachine.attach(vmd);
-                    String connectorAddress = vm.getAgentProperties().getProperty(LOCAL_CONNECTOR_ADDRESS);
-
-                    //If jmx agent is not running in VM, load it and return the connector url
-                    if (connectorAddress == null) {
-                        LOG.debug("JMX agent not running in JVM({}), load it", vmd.id());
-                        loadJMXAgent(vm);
-
-                        // agent is started, get the connector address
-                        connectorAddress = vm.getAgentProperties().getProperty(LOCAL_CONNECTOR_ADDRESS);
+            task = CONNECT_POOL.submit(new Runnable() {
+                @Override
+                public void run() {
+                    if (result.isDone()) {
+                        return; // timed out or cancelled while waiting in the pool
                     }
+                    try {
+                        JMXServiceURL url = getServiceURL(endpoint);
+                        LOG.debug("Trying to connect {}", url);
+
+                        Map<String, Object> env = new HashMap<>();
+                        env.put("com.sun.jndi.rmi.factory.socket", SOCKET_FACTORY);
+                        env.put("jmx.remote.x.notification.fetch.timeout", NOTIFICATION_FETCH_TIMEOUT_MILLIS);
+
+                        JMXConnector connector = JMXConnectorFactory.connect(url, env);
+                        if (!result.set(connector)) {
+                            LOG.debug("Closing connection to {} established after timeout", endpoint);
+                            closeQuietly(connector);
+                        }
+                    } catch (Throwable t) {
+                        if (!endpoint.isRemote()) {
+                            invalidateLocalAttachURL(endpoint);
+                        }
+                        result.setException(t);
+                    }
+                }
+            });
+
+        } catch (RejectedExecutionException e) {
+            result.setException(new IOException("Too many pending connections, refused to connect " + endpoint, e));
+            return result;
+        }
 
-                    return new JMXServiceURL(connectorAddress);
+        final ScheduledFuture<?> timer = TIMEOUT_SCHEDULER.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (result.setException(new SocketTimeoutException("Connection timed out: " + endpoint))) {
+                    LOG.warn("Connection timed out: " + endpoint);
+                    task.cancel(true);
                 }
             }
-            throw new IOException("Cannot find JVM matching regex: " + processRegex);
+        }, timeout, unit);
 
-        } catch (AttachNotSupportedException e) {
-            throw new IOException("Unable to attach to process regex: " + processRegex, e);
-        }
+        result.addListener(new Runnable() {
+            @Override
+            public void run() {
+                timer.cancel(false);
+            }
+        }, MoreExecutors.directExecutor());
+
+        return result;
     }
 
-    private static void loadJMXAgent(VirtualMachine vm) throws IOException {
-        String agent = vm.getSystemProperties().getProperty("java.home")
-                + File.separator + "lib" + File.separator + "management-agent.jar";
-        try {
-            vm.loadAgent(agent);
-        } catch (Exception e) {
-            throw new IOException("Failed to load JMX agent", e);
+    private static JMXServiceURL getServiceURL(Endpoint endpoint) throws IOException {
+        if (endpoint.isRemote()) {
+            return getRemoteURL(endpoint.getRemoteHost(), endpoint.getRemotePort());
+        }
+        if (endpoint.getPid() != null) {
+            return ATTACH_CACHE.getAddress(endpoint.getPid());
         }
+        return getLocalAttachURL(endpoint.getName());
     }
 
     /**
-     * Connect to a MBean Server with a timeout. Based on
-     * https://weblogs.java.net/blog/emcmanus/archive/2007/05/making_a_jmx_co.html
+     * Returns pids of all local JVMs matching a local endpoint, which can be collected
+     * separately through {@link Endpoint#forInstance(String)}.
      */
-    private static JMXConnector connectWithTimeout(final JMXServiceURL url, long timeout, TimeUnit unit) throws IOException {
-        final BlockingQueue<Object> mailbox = new ArrayBlockingQueue<>(1);
+    public static List<String> listLocalInstances(Endpoint endpoint) {
+        checkNotNull(endpoint, "endpoint is null");
+        checkArgument(!endpoint.isRemote(), "endpoint is not local");
 
-        // make connection in another thread so that we can timeout the request
-        ExecutorService executor = Executors.newSingleThreadExecutor(DAEMON_THREAD_FACTORY);
-        executor.submit(new Runnable() {
-            public void run() {
-                try {
-                    JMXConnector connector = JMXConnectorFactory.connect(url, null);
-                    if (!mailbox.offer(connector)) {
-                        connector.close();  //
-                    }
-                } catch (Throwable t) {
-                    mailbox.offer(t);
-                }
-            }
-        });
+        List<String> pids = new ArrayList<>();
+        for (VirtualMachineDescriptor vmd : ATTACH_CACHE.findJvms(endpoint.getName())) {
+            pids.add(vmd.id());
+        }
+        return pids;
+    }
 
-        // poll the result with timeout
-        Object result;
+    private static void closeQuietly(JMXConnector connector) {
         try {
-            result = mailbox.poll(timeout, unit);
-            if (result == null) {
-                if (!mailbox.offer(""))
-                    result = mailbox.take();    // connected right after timeout
-            }
-        } catch (InterruptedException e) {
-            InterruptedIOException wrapper = new InterruptedIOException(e.getMessage());
-            wrapper.initCause(e);
-            throw wrapper;
-        } finally {
-            executor.shutdown();
+            connector.close();
+        } catch (IOException e) {
+            LOG.debug("Failed to close " + connector, e);
         }
-        if (result == null) {
-            LOG.warn("Connection timed out: " + url);
-            throw new SocketTimeoutException("Connection timed out: " + url);
+    }
+
+    private static JMXServiceURL getRemoteURL(String host, int port) throws MalformedURLException {
+        return new JMXServiceURL("service:jmx:rmi:///jndi/rmi://" + host + ":" + port + "/jmxrmi");
+    }
+
+    private static JMXServiceURL getLocalAttachURL(String processRegex) throws IOException {
+        List<VirtualMachineDescriptor> jvms = ATTACH_CACHE.findJvms(processRegex);
+        if (jvms.isEmpty()) {
+            throw new IOException("Cannot find JVM matching regex: " + processRegex);
         }
-        if (result instanceof JMXConnector) {
-            return (JMXConnector) result;
+        return ATTACH_CACHE.getAddress(jvms.get(0).id());
+    }
+
+    /**
+     * Forget cached connector addresses of JVMs of a local endpoint, e.g. because
+     * connecting to them failed.
+     */
+    private static void invalidateLocalAttachURL(Endpoint endpoint) {
+        if (endpoint.getPid() != null) {
+            ATTACH_CACHE.invalidate(endpoint.getPid());
+            return;
         }
-        try {
-            throw (Throwable) result;
-        } catch (Throwable e) {
-            throw new IOException(e.toString(), e);
+        for (VirtualMachineDescriptor vmd : ATTACH_CACHE.findJvms(endpoint.getName())) {
+            ATTACH_CACHE.invalidate(vmd.id());
         }
     }
 }
@@ -0,0 +1,195 @@
+package com.meituan.data.jmxtools.jmx;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.sun.tools.attach.AttachNotSupportedException;
+import com.sun.tools.attach.VirtualMachine;
+import com.sun.tools.attach.VirtualMachineDescriptor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.remote.JMXServiceURL;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Caches local JVMs found by the attach API and their JMX connector addresses.
+ *
+ * <p>Listing JVMs is not free, and attaching to a JVM shows up as a pause in it, so
+ * <ul>
+ *     <li>JVMs are only listed again, and process regexes only matched again, when the hsperfdata
+ *     directories (where every JVM has a file named by its pid) have changed</li>
+ *     <li>a JVM is only attached when there is no cached address for its pid. The address of a
+ *     pid is dropped when the pid disappears, or when connecting to it failed</li>
+ * </ul>
+ */
+class LocalAttachCache {
+    static final Logger LOG = LoggerFactory.getLogger(LocalAttachCache.class);
+    static final String LOCAL_CONNECTOR_ADDRESS = "com.sun.management.jmxremote.localConnectorAddress";
+    static final long UNKNOWN_STAMP = -1;
+
+    private long perfDataStamp = UNKNOWN_STAMP;
+    private final Map<String, List<VirtualMachineDescriptor>> matches = Maps.newHashMap();
+    private List<VirtualMachineDescriptor> descriptors = Lists.newArrayList();
+    private final Map<String, JMXServiceURL> addresses = Maps.newHashMap();
+    // one lock per pid being attached, so that a JVM is attached by one thread at a time
+    private final ConcurrentMap<String, Object> attachLocks = new ConcurrentHashMap<>();
+
+    /**
+     * Returns all local JVMs whose display name matches `processRegex`.
+     */
+    synchronized List<VirtualMachineDescriptor> findJvms(String processRegex) {
+        long stamp = getPerfDataStamp();
+        if (stamp == UNKNOWN_STAMP || stamp != perfDataStamp) {
+            refresh();
+            perfDataStamp = stamp;
+        }
+
+        List<VirtualMachineDescriptor> result = matches.get(processRegex);
+        if (result == null) {
+            result = Lists.newArrayList();
+            for (VirtualMachineDescriptor vmd : descriptors) {
+                if (vmd.displayName().matches(processRegex)) {
+                    result.add(vmd);
+                }
+            }
+            matches.put(processRegex, result);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the JMX connector address of local JVM `pid`, start the JMX agent in it if needed.
+     * JVMs are attached outside the lock of the cache, so that attaching to a JVM doesn't hold up
+     * other JVMs, only another attach to the same JVM waits for it.
+     */
+    JMXServiceURL getAddress(String pid) throws IOException {
+        synchronized (this) {
+            JMXServiceURL address = addresses.get(pid);
+            if (address != null) {
+                return address;
+            }
+        }
+
+        Object attachLock = attachLocks.get(pid);
+        if (attachLock == null) {
+            Object newLock = new Object();
+            attachLock = attachLocks.putIfAbsent(pid, newLock);
+            if (attachLock == null) {
+                attachLock = newLock;
+            }
+        }
+
+        synchronized (attachLock) {
+            // attached by another thread meanwhile
+            synchronized (this) {
+                JMXServiceURL address = addresses.get(pid);
+                if (address != null) {
+                    return address;
+                }
+            }
+
+            JMXServiceURL address = attach(pid);
+            synchronized (this) {
+                addresses.put(pid, address);
+            }
+            return address;
+        }
+    }
+
+    private static JMXServiceURL attach(String pid) throws IOException {
+        LOG.debug("Attaching to JVM({})", pid);
+        VirtualMachine vm;
+        try {
+            vm = VirtualMachine.attach(pid);
+        } catch (AttachNotSupportedException e) {
+            throw new IOException("Unable to attach to JVM(" + pid + ")", e);
+        }
+
+        try {
+            String connectorAddress = vm.getAgentProperties().getProperty(LOCAL_CONNECTOR_ADDRESS);
+
+            //If jmx agent is not running in VM, load it and return the connector url
+            if (connectorAddress == null) {
+                LOG.debug("JMX agent not running in JVM({}), load it", pid);
+                loadJMXAgent(vm);
+
+                // agent is started, get the connector address
+                connectorAddress = vm.getAgentProperties().getProperty(LOCAL_CONNECTOR_ADDRESS);
+            }
+
+            return new JMXServiceURL(connectorAddress);
+
+        } finally {
+            vm.detach();
+        }
+    }
+
+    /**
+     * Forget the address of JVM `pid`, so that it's attached again next time.
+     */
+    synchronized void invalidate(String pid) {
+        addresses.remove(pid);
+    }
+
+    private void refresh() {
+        descriptors = VirtualMachine.list();
+        matches.clear();
+
+        Set<String> alive = Sets.newHashSet();
+        for (VirtualMachineDescriptor vmd : descriptors) {
+            alive.add(vmd.id());
+        }
+        addresses.keySet().retainAll(alive);
+        attachLocks.keySet().retainAll(alive);
+    }
+
+    private static void loadJMXAgent(VirtualMachine vm) throws IOException {
+        String agent = vm.getSystemProperties().getProperty("java.home")
+                + File.separator + "lib" + File.separator + "management-agent.jar";
+        try {
+            vm.loadAgent(agent);
+        } catch (Exception e) {
+            throw new IOException("Failed to load JMX agent", e);
+        }
+    }
+
+    /**
+     * A value changing whenever a JVM starts or exits, computed from the hsperfdata directories.
+     * Returns {@link #UNKNOWN_STAMP} if there is no such directory (e.g. -XX:-UsePerfData).
+     */
+    private static long getPerfDataStamp() {
+        Set<File> tmpDirs = Sets.newHashSet(new File(System.getProperty("java.io.tmpdir")), new File("/tmp"));
+        long stamp = 0;
+        boolean found = false;
+
+        for (File tmpDir : tmpDirs) {
+            File[] perfDataDirs = tmpDir.listFiles(new FilenameFilter() {
+                @Override
+                public boolean accept(File dir, String name) {
+                    return name.startsWith("hsperfdata_");
+                }
+            });
+            if (perfDataDirs == null) {
+                continue;
+            }
+
+            for (File perfDataDir : perfDataDirs) {
+                String[] files = perfDataDir.list();
+                stamp = 31 * stamp + perfDataDir.getAbsolutePath().hashCode();
+                stamp = 31 * stamp + perfDataDir.lastModified();
+                stamp = 31 * stamp + (files == null ? 0 : files.length);
+                found = true;
+            }
+        }
+
+        return (found && stamp != UNKNOWN_STAMP) ? stamp : UNKNOWN_STAMP;
+    }
+}
@@ -0,0 +1,154 @@
+package com.meituan.data.jmxtools.jmx;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.*;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Caches {@link MBeanInfo} per connection, since bean metadata almost never changes between
+ * collections.
+ *
+ * <p>Entries expire {@link #TTL_MINUTES} minutes after being loaded. Connections kept open
+ * (daemon mode) may also {@link #subscribe} to the MBeanServerDelegate, so that an entry is
+ * invalidated as soon as its bean is registered or unregistered, which is not worth an extra
+ * RPC and a notification thread for connections closed right after one collection.
+ */
+public final class MBeanInfoCache {
+    static final Logger LOG = LoggerFactory.getLogger(MBeanInfoCache.class);
+    static final long TTL_MINUTES = 10;
+
+    // keys are weak so that caches go away with their connections. Values must not
+    // reference the connection, otherwise it would never be collected.
+    private static final LoadingCache<MBeanServerConnection, Infos> CACHES = CacheBuilder.newBuilder()
+            .weakKeys()
+            .build(new CacheLoader<MBeanServerConnection, Infos>() {
+                @Override
+                public Infos load(MBeanServerConnection connection) {
+                    return new Infos();
+                }
+            });
+
+    private static final class Infos implements NotificationListener {
+        final Cache<ObjectName, MBeanInfo> cache = CacheBuilder.newBuilder()
+                .expireAfterWrite(TTL_MINUTES, TimeUnit.MINUTES)
+                .build();
+        // bumped by each invalidation, so that an info fetched before it is not put after it
+        long generation;
+        boolean subscribed;
+
+        synchronized long getGeneration() {
+            return generation;
+        }
+
+        synchronized void put(ObjectName name, MBeanInfo info, long fetchedGeneration) {
+            if (generation == fetchedGeneration) {
+                cache.put(name, info);
+            }
+        }
+
+        synchronized void invalidate(ObjectName name) {
+            generation++;
+            cache.invalidate(name);
+        }
+
+        @Override
+        public void handleNotification(Notification notification, Object handback) {
+            if (notification instanceof MBeanServerNotification) {
+                invalidate(((MBeanServerNotification) notification).getMBeanName());
+            }
+        }
+    }
+
+    private MBeanInfoCache() {}
+
+    /**
+     * Same as {@link MBeanServerConnection#getMBeanInfo(ObjectName)}, but served from cache when possible.
+     */
+    public static MBeanInfo getMBeanInfo(MBeanServerConnection connection, ObjectName name)
+            throws InstanceNotFoundException, IntrospectionException, ReflectionException, IOException {
+        checkNotNull(connection, "connection is null");
+        checkNotNull(name, "name is null");
+
+        Infos infos = CACHES.getUnchecked(connection);
+        MBeanInfo info = infos.cache.getIfPresent(name);
+        if (info == null) {
+            long generation = infos.getGeneration();
+            info = connection.getMBeanInfo(name);
+            infos.put(name, info, generation);
+        }
+        return info;
+    }
+
+    /**
+     * Drop the cached info of `name`, e.g. when the bean turns out to be gone.
+     */
+    public static void invalidate(MBeanServerConnection connection, ObjectName name) {
+        Infos infos = CACHES.getIfPresent(connection);
+        if (infos != null) {
+            infos.invalidate(name);
+        }
+    }
+
+    /**
+     * Invalidate cached infos of `connection` on (un)registration of their beans,
+     * should only be called for connections kept open, see {@link #unsubscribe}.
+     */
+    public static void subscribe(MBeanServerConnection connection) {
+        checkNotNull(connection, "connection is null");
+        Infos infos = CACHES.getUnchecked(connection);
+        synchronized (infos) {
+            if (infos.subscribed) {
+                return;
+            }
+            infos.subscribed = true;
+        }
+
+        NotificationFilterSupport filter = new NotificationFilterSupport();
+        filter.enableType(MBeanServerNotification.REGISTRATION_NOTIFICATION);
+        filter.enableType(MBeanServerNotification.UNREGISTRATION_NOTIFICATION);
+        try {
+            connection.addNotificationListener(MBeanServerDelegate.DELEGATE_NAME, infos, filter, null);
+        } catch (InstanceNotFoundException | IOException | RuntimeException e) {
+            LOG.warn("Failed to subscribe to MBeanServerDelegate, cached MBeanInfo will only expire by TTL", e);
+        }
+    }
+
+    /**
+     * Undo {@link #subscribe} and drop cached infos of `connection`, which is about to be closed.
+     *
+     * @param removeListener whether to remove the listener from the server, which takes an RPC;
+     *                       not needed for a broken connection, closing a connector removes
+     *                       its listeners anyway
+     */
+    public static void unsubscribe(MBeanServerConnection connection, boolean removeListener) {
+        checkNotNull(connection, "connection is null");
+        Infos infos = CACHES.getIfPresent(connection);
+        if (infos == null) {
+            return;
+        }
+        CACHES.invalidate(connection);
+        synchronized (infos) {
+            if (!infos.subscribed) {
+                return;
+            }
+            infos.subscribed = false;
+        }
+
+        if (removeListener) {
+            try {
+                connection.removeNotificationListener(MBeanServerDelegate.DELEGATE_NAME, infos);
+            } catch (InstanceNotFoundException | ListenerNotFoundException | IOException | RuntimeException e) {
+                LOG.debug("Failed to unsubscribe from MBeanServerDelegate", e);
+            }
+        }
+    }
+}
@@ -1,6 +1,10 @@
 package com.meituan.data.jmxtools.jmx;
 
 import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Maps;
+
+import java.util.Map;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -18,11 +22,27 @@ public class Metric {
     private final String name;
     private final Number value;
     private final Type type;
+    private final Map<String, String> tags;
 
     public Metric(String name, Number value, Type type) {
+        this(name, value, type, ImmutableSortedMap.<String, String>of());
+    }
+
+    public Metric(String name, Number value, Type type, Map<String, String> tags) {
         this.name = checkNotNull(name);
         this.value = checkNotNull(value);
         this.type = checkNotNull(type);
+        this.tags = ImmutableSortedMap.copyOf(checkNotNull(tags));
+    }
+
+    /**
+     * Returns a copy of this metric with tag `key` set to `value`.
+     */
+    public Metric withTag(String key, String value) {
+        Map<String, String> newTags = Maps.newTreeMap();
+        newTags.putAll(tags);
+        newTags.put(checkNotNull(key), checkNotNull(value));
+        return new Metric(name, this.value, type, newTags);
     }
 
     public String getName() {
@@ -37,12 +57,20 @@ public class Metric {
         return type;
     }
 
+    /**
+     * Returns tags of this metric sorted by key, e.g. pid of the JVM it was collected from.
+     */
+    public Map<String, String> getTags() {
+        return tags;
+    }
+
     @Override
     public String toString() {
         return MoreObjects.toStringHelper(this)
                 .add("name", name)
                 .add("value", value)
                 .add("type", type)
+                .add("tags", tags)
                 .toString();
     }
 }
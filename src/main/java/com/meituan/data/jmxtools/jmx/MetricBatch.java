@@ -0,0 +1,312 @@
+package com.meituan.data.jmxtools.jmx;
+
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A columnar list of metrics, holding the same data as a list of {@link Metric} without an
+ * object per metric: names are ids of a {@link MetricNames}, values are unboxed in a long
+ * column (raw bits of a double for floating point values), and types are a byte column.
+ *
+ * <p>A batch is meant to be cleared and refilled every collection, its columns grow to the
+ * number of metrics of an endpoint once and are then reused. Tags are kept by reference, rows
+ * with the same tags (e.g. the pid of an instance) share one map.
+ *
+ * <p>A batch is not thread safe.
+ */
+public final class MetricBatch {
+    private static final byte COUNTER_FLAG = 1;
+    private static final byte DOUBLE_FLAG = 2;
+    private static final Map<String, String> NO_TAGS = ImmutableSortedMap.of();
+
+    private final MetricNames names;
+    private int[] nameIds;
+    private long[] values;
+    private byte[] flags;
+    private Map<String, String>[] tags;
+    private int size;
+
+    public MetricBatch() {
+        this(new MetricNames());
+    }
+
+    public MetricBatch(MetricNames names) {
+        this(names, 16);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public MetricBatch(MetricNames names, int capacity) {
+        this.names = checkNotNull(names, "names is null");
+        checkArgument(capacity > 0, "capacity should be positive");
+        this.nameIds = new int[capacity];
+        this.values = new long[capacity];
+        this.flags = new byte[capacity];
+        this.tags = new Map[capacity];
+    }
+
+    /**
+     * Returns a new batch of `metrics`.
+     */
+    public static MetricBatch of(Collection<Metric> metrics) {
+        MetricBatch batch = new MetricBatch(new MetricNames(), Math.max(metrics.size(), 1));
+        batch.addAll(metrics);
+        return batch;
+    }
+
+    public MetricNames getNames() {
+        return names;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Remove all metrics, keeping the columns for reuse.
+     */
+    public void clear() {
+        Arrays.fill(tags, 0, size, null);
+        size = 0;
+    }
+
+    public void add(String name, Number value, Metric.Type type) {
+        add(names.intern(name), value, type);
+    }
+
+    public void add(String name, long value, Metric.Type type) {
+        addRow(names.intern(name), value, flag(type), NO_TAGS);
+    }
+
+    public void add(String name, double value, Metric.Type type) {
+        addRow(names.intern(name), Double.doubleToRawLongBits(value), (byte) (flag(type) | DOUBLE_FLAG), NO_TAGS);
+    }
+
+    /**
+     * Add a metric named `prefix + suffix`, see {@link MetricNames#intern(String, String)}.
+     */
+    public void add(String prefix, String suffix, long value, Metric.Type type) {
+        addRow(names.intern(prefix, suffix), value, flag(type), NO_TAGS);
+    }
+
+    public void add(String prefix, String suffix, double value, Metric.Type type) {
+        addRow(names.intern(prefix, suffix), Double.doubleToRawLongBits(value), (byte) (flag(type) | DOUBLE_FLAG), NO_TAGS);
+    }
+
+    /**
+     * Add a metric named by `nameId` of {@link #getNames()}.
+     */
+    public void add(int nameId, Number value, Metric.Type type) {
+        addRow(nameId, bits(value), flag(type, value), NO_TAGS);
+    }
+
+    /**
+     * Add a metric named by `nameId` of {@link #getNames()}, `tags` is kept by reference.
+     */
+    public void add(int nameId, Number value, Metric.Type type, Map<String, String> tags) {
+        checkNotNull(tags, "tags is null");
+        addRow(nameId, bits(value), flag(type, value), tags);
+    }
+
+    public void add(Metric metric) {
+        add(names.intern(metric.getName()), metric.getValue(), metric.getType(), metric.getTags());
+    }
+
+    public void addAll(Collection<Metric> metrics) {
+        checkNotNull(metrics, "metrics is null");
+        ensureCapacity(size + metrics.size());
+        for (Metric metric : metrics) {
+            add(metric);
+        }
+    }
+
+    /**
+     * Add metric `index` of `other` as is.
+     */
+    public void add(MetricBatch other, int index) {
+        checkElementIndex(index, other.size);
+        int nameId = other.names == names ? other.nameIds[index] : names.intern(other.getName(index));
+        addRow(nameId, other.values[index], other.flags[index], other.tags[index]);
+    }
+
+    /**
+     * Add all metrics of `other`, which is copied column by column if it has the same names.
+     */
+    public void addAll(MetricBatch other) {
+        checkNotNull(other, "other is null");
+        ensureCapacity(size + other.size);
+        if (other.names == names) {
+            System.arraycopy(other.nameIds, 0, nameIds, size, other.size);
+        } else {
+            for (int i = 0; i < other.size; i++) {
+                nameIds[size + i] = names.intern(other.getName(i));
+            }
+        }
+        System.arraycopy(other.values, 0, values, size, other.size);
+        System.arraycopy(other.flags, 0, flags, size, other.size);
+        System.arraycopy(other.tags, 0, tags, size, other.size);
+        size += other.size;
+    }
+
+    /**
+     * Replace the value and type of the metric named by `nameId` from index `from`.
+     */
+    void replace(int from, int nameId, Number value, Metric.Type type) {
+        for (int i = size - 1; i >= from; i--) {
+            if (nameIds[i] == nameId) {
+                values[i] = bits(value);
+                flags[i] = flag(type, value);
+                return;
+            }
+        }
+        throw new IllegalArgumentException("No metric of name id " + nameId + " from " + from);
+    }
+
+    /**
+     * Set tag `key` to `value` on metrics from index `from` to the end, e.g. to tag metrics of
+     * an instance after they are added. Metrics without other tags share one tag map.
+     */
+    public void tag(int from, String key, String value) {
+        checkNotNull(key, "key is null");
+        checkNotNull(value, "value is null");
+        Map<String, String> single = ImmutableSortedMap.of(key, value);
+        for (int i = from; i < size; i++) {
+            if (tags[i].isEmpty()) {
+                tags[i] = single;
+            } else {
+                Map<String, String> merged = Maps.newTreeMap();
+                merged.putAll(tags[i]);
+                merged.put(key, value);
+                tags[i] = ImmutableSortedMap.copyOf(merged);
+            }
+        }
+    }
+
+    /**
+     * Returns a copy of this batch with columns trimmed to its size, sharing the same names.
+     */
+    public MetricBatch copy() {
+        MetricBatch copy = new MetricBatch(names, Math.max(size, 1));
+        copy.addAll(this);
+        return copy;
+    }
+
+    /**
+     * Returns a copy of the GAUGE metrics of this batch, sharing the same names.
+     */
+    public MetricBatch copyGauges() {
+        MetricBatch copy = new MetricBatch(names, Math.max(size, 1));
+        for (int i = 0; i < size; i++) {
+            if (getType(i) == Metric.Type.GAUGE) {
+                copy.add(this, i);
+            }
+        }
+        return copy;
+    }
+
+    public int getNameId(int index) {
+        checkElementIndex(index, size);
+        return nameIds[index];
+    }
+
+    public String getName(int index) {
+        return names.getName(getNameId(index));
+    }
+
+    public Metric.Type getType(int index) {
+        checkElementIndex(index, size);
+        return (flags[index] & COUNTER_FLAG) != 0 ? Metric.Type.COUNTER : Metric.Type.GAUGE;
+    }
+
+    /**
+     * Returns true if the value is integral, which is then exact by {@link #getLong(int)}.
+     */
+    public boolean isIntegral(int index) {
+        checkElementIndex(index, size);
+        return (flags[index] & DOUBLE_FLAG) == 0;
+    }
+
+    public long getLong(int index) {
+        return isIntegral(index) ? values[index] : (long) Double.longBitsToDouble(values[index]);
+    }
+
+    public double getDouble(int index) {
+        return isIntegral(index) ? (double) values[index] : Double.longBitsToDouble(values[index]);
+    }
+
+    /**
+     * Returns the value boxed, as a Long or a Double.
+     */
+    public Number getValue(int index) {
+        return isIntegral(index) ? (Number) values[index] : (Number) Double.longBitsToDouble(values[index]);
+    }
+
+    public Map<String, String> getTags(int index) {
+        checkElementIndex(index, size);
+        return tags[index];
+    }
+
+    public Metric getMetric(int index) {
+        return new Metric(getName(index), getValue(index), getType(index), getTags(index));
+    }
+
+    /**
+     * Returns metrics of this batch as objects, for code not taking batches.
+     */
+    public List<Metric> toMetrics() {
+        List<Metric> metrics = Lists.newArrayListWithCapacity(size);
+        for (int i = 0; i < size; i++) {
+            metrics.add(getMetric(i));
+        }
+        return metrics;
+    }
+
+    private void addRow(int nameId, long value, byte flag, Map<String, String> rowTags) {
+        ensureCapacity(size + 1);
+        nameIds[size] = nameId;
+        values[size] = value;
+        flags[size] = flag;
+        tags[size] = rowTags;
+        size++;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > nameIds.length) {
+            int newCapacity = Math.max(capacity, nameIds.length * 2);
+            nameIds = Arrays.copyOf(nameIds, newCapacity);
+            values = Arrays.copyOf(values, newCapacity);
+            flags = Arrays.copyOf(flags, newCapacity);
+            tags = Arrays.copyOf(tags, newCapacity);
+        }
+    }
+
+    private static byte flag(Metric.Type type) {
+        return checkNotNull(type, "type is null") == Metric.Type.COUNTER ? COUNTER_FLAG : 0;
+    }
+
+    private static byte flag(Metric.Type type, Number value) {
+        return isIntegral(value) ? flag(type) : (byte) (flag(type) | DOUBLE_FLAG);
+    }
+
+    private static long bits(Number value) {
+        checkNotNull(value, "value is null");
+        return isIntegral(value) ? value.longValue() : Double.doubleToRawLongBits(value.doubleValue());
+    }
+
+    private static boolean isIntegral(Number value) {
+        return value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte;
+    }
+}
@@ -0,0 +1,192 @@
+package com.meituan.data.jmxtools.jmx;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.meituan.data.jmxtools.conf.MetricGroup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.MBeanServerConnection;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Collects metrics of a list of groups from an endpoint.
+ *
+ * <p>Each group is resolved with its own deadline ({@link MetricGroup#getTimeoutSeconds()}),
+ * a group exceeding it is abandoned and the collection goes on with the next group, so that
+ * one slow bean doesn't stall the rest of the endpoint.
+ *
+ * <p>A group with {@link MetricGroup#getIntervalCycles()} above 1 is only resolved every that many
+ * collections of a connection, its last metrics are reused or skipped in between.
+ */
+public class MetricCollector {
+    static final Logger LOG = LoggerFactory.getLogger(MetricCollector.class);
+
+    // groups are resolved in this pool so that the caller can stop waiting for them. It's not
+    // bounded, as a group is never dropped nor resolved without deadline: a collection has one
+    // group in flight at a time, so threads are bounded by the concurrent collections plus the
+    // abandoned groups, which end within the RMI read timeout. Idle threads exit after 60s
+    private static final ExecutorService GROUP_POOL = new ThreadPoolExecutor(
+            0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+            new SynchronousQueue<Runnable>(),
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("metric-group-pool-%d").build());
+
+    private final List<MetricGroup> metricGroups;
+    private final Queue<MetricBatch> scratches = new ConcurrentLinkedQueue<>();
+    // cycles and last metrics of groups per connection, keys are weak so states go away with connections
+    private final LoadingCache<MBeanServerConnection, GroupStates> states = CacheBuilder.newBuilder()
+            .weakKeys()
+            .build(new CacheLoader<MBeanServerConnection, GroupStates>() {
+                @Override
+                public GroupStates load(MBeanServerConnection connection) {
+                    return new GroupStates(metricGroups.size());
+                }
+            });
+
+    private static final class GroupStates {
+        final long[] cycles;
+        final MetricBatch[] lastMetrics;
+
+        GroupStates(int size) {
+            this.cycles = new long[size];
+            this.lastMetrics = new MetricBatch[size];
+        }
+    }
+
+    public MetricCollector(List<MetricGroup> metricGroups) {
+        this.metricGroups = checkNotNull(metricGroups, "metricGroups is null");
+    }
+
+    /**
+     * Resolve all groups and add their metrics to `result`.
+     *
+     * @throws IOException the last communication problem, if any group had one. It's thrown after
+     *                     all groups are processed, so `result` contains metrics of the other groups.
+     */
+    public void collect(MBeanServerConnection connection, Collection<Metric> result) throws IOException {
+        checkNotNull(result, "result is null");
+        MetricBatch batch = new MetricBatch();
+        try {
+            collect(connection, batch);
+        } finally {
+            result.addAll(batch.toMetrics());
+        }
+    }
+
+    /**
+     * Resolve all groups and add their metrics to `result`, like {@link #collect(MBeanServerConnection, Collection)}.
+     *
+     * <p>Each group is resolved into a scratch batch, which is appended to `result` only if the
+     * group finished in time, so an abandoned group never touches `result` afterwards. Scratch
+     * batches are pooled and reused among collections.
+     */
+    public void collect(final MBeanServerConnection connection, final MetricBatch result) throws IOException {
+        checkNotNull(connection, "connection is null");
+        checkNotNull(result, "result is null");
+
+        IOException failure = null;
+        GroupStates groupStates = null;
+        for (int i = 0; i < metricGroups.size(); i++) {
+            final MetricGroup group = metricGroups.get(i);
+            final GroupStates keptStates;
+            if (group.getIntervalCycles() > 1) {
+                if (groupStates == null) {
+                    groupStates = states.getUnchecked(connection);
+                }
+                keptStates = groupStates;
+                if (keptStates.cycles[i]++ % group.getIntervalCycles() != 0) {
+                    MetricBatch lastMetrics = keptStates.lastMetrics[i];
+                    if (group.getStalePolicy() == MetricGroup.StalePolicy.REUSE && lastMetrics != null) {
+                        result.addAll(lastMetrics);
+                    }
+                    continue;
+                }
+                // metrics of a failed collection are not reused
+                keptStates.lastMetrics[i] = null;
+            } else {
+                keptStates = null;
+            }
+
+            final int index = i;
+            final MetricBatch scratch = pollScratch(result.getNames());
+            final AtomicBoolean abandoned = new AtomicBoolean();
+            Callable<Void> task = new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    try {
+                        // metrics resolved before a communication problem (e.g. of other beans
+                        // of a pattern group) are kept
+                        IOException failure = null;
+                        try {
+                            group.resolveMetrics(connection, scratch);
+                        } catch (IOException e) {
+                            failure = e;
+                        }
+                        synchronized (abandoned) {
+                            if (!abandoned.get()) {
+                                result.addAll(scratch);
+                                if (keptStates != null && failure == null) {
+                                    // counters are never reused, see StalePolicy
+                                    keptStates.lastMetrics[index] = scratch.copyGauges();
+                                }
+                            }
+                        }
+                        if (failure != null) {
+                            throw failure;
+                        }
+                    } finally {
+                        scratch.clear();
+                        scratches.offer(scratch);
+                    }
+                    return null;
+                }
+            };
+
+            Future<Void> future = GROUP_POOL.submit(task);
+            try {
+                future.get(group.getTimeoutSeconds(), TimeUnit.SECONDS);
+
+            } catch (TimeoutException e) {
+                abandon(future, abandoned);
+                LOG.warn("Timeout processing group {} after {}s", group.getGroupName(), group.getTimeoutSeconds());
+            } catch (InterruptedException e) {
+                abandon(future, abandoned);
+                InterruptedIOException wrapper = new InterruptedIOException(e.getMessage());
+                wrapper.initCause(e);
+                throw wrapper;
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    failure = (IOException) e.getCause();
+                }
+                LOG.error("Error processing group " + group.getGroupName(), e.getCause());
+            }
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private MetricBatch pollScratch(MetricNames names) {
+        MetricBatch scratch = scratches.poll();
+        // a scratch of other names would be copied name by name
+        return (scratch != null && scratch.getNames() == names) ? scratch : new MetricBatch(names);
+    }
+
+    private static void abandon(Future<?> future, AtomicBoolean abandoned) {
+        synchronized (abandoned) {
+            abandoned.set(true);
+        }
+        future.cancel(true);
+    }
+}
@@ -0,0 +1,86 @@
+package com.meituan.data.jmxtools.jmx;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A dictionary of metric names, giving each distinct name a dense int id, so that a
+ * {@link MetricBatch} stores ids instead of strings.
+ *
+ * <p>Names are never removed, as batches and queued reports may still refer to their ids. Names of
+ * beans which come and go (e.g. per connection or per topic) would pile up in a long lived
+ * dictionary, so its owner starts a new one when {@link #shouldRenew(int)}, and batches of the old
+ * one are copied by name. A dictionary thus holds at most {@value #RENEW_RATIO} times the names in
+ * use plus {@value #RENEW_SLACK}. Interning is synchronized, looking up a name by id takes no lock.
+ */
+public class MetricNames {
+    static final int RENEW_RATIO = 4;
+    static final int RENEW_SLACK = 1024;
+
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final Map<String, Map<String, Integer>> joinedIds = new HashMap<>();
+    private volatile String[] names = new String[64];
+    private int size;
+
+    /**
+     * Returns the id of `name`, assigning a new id if it's never seen.
+     */
+    public synchronized int intern(String name) {
+        checkNotNull(name, "name is null");
+        Integer id = ids.get(name);
+        if (id != null) {
+            return id;
+        }
+
+        String[] current = names;
+        if (size == current.length) {
+            current = Arrays.copyOf(current, size * 2);
+        }
+        current[size] = name;
+        names = current;    // publish the name before its id
+        ids.put(name, size);
+        return size++;
+    }
+
+    /**
+     * Returns the id of `prefix + suffix`. The two parts are only concatenated the first time
+     * they are seen, later calls with the same parts take two lookups and build no string.
+     */
+    public synchronized int intern(String prefix, String suffix) {
+        checkNotNull(prefix, "prefix is null");
+        checkNotNull(suffix, "suffix is null");
+        Map<String, Integer> suffixIds = joinedIds.get(prefix);
+        if (suffixIds == null) {
+            suffixIds = new HashMap<>();
+            joinedIds.put(prefix, suffixIds);
+        }
+        Integer id = suffixIds.get(suffix);
+        if (id == null) {
+            id = intern(prefix + suffix);
+            suffixIds.put(suffix, id);
+        }
+        return id;
+    }
+
+    /**
+     * Returns the name of `id` returned by {@link #intern(String)}.
+     */
+    public String getName(int id) {
+        return names[id];
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Whether this dictionary is worth replacing by a new one, which is when it has many more
+     * names than `used`, the number of names (or metrics) in use.
+     */
+    public synchronized boolean shouldRenew(int used) {
+        return size > (long) used * RENEW_RATIO + RENEW_SLACK;
+    }
+}
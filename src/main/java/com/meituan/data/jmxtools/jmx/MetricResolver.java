@@ -17,4 +17,13 @@ public abstract class MetricResolver<T extends MetricGroup> {
     }
 
     public abstract Collection<Metric> resolve(T metricGroup) throws IOException;
+
+    /**
+     * Resolve metrics of `metricGroup` into `batch`, resolvers may override it to
+     * add metrics without creating {@link Metric} objects.
+     */
+    public void resolve(T metricGroup, MetricBatch batch) throws IOException {
+        checkNotNull(batch, "batch is null");
+        batch.addAll(resolve(metricGroup));
+    }
 }
@@ -0,0 +1,138 @@
+package com.meituan.data.jmxtools.jmx;
+
+import java.util.*;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Summarizes metrics sampled several times within a step, so that short spikes are visible
+ * without reporting every sample.
+ *
+ * <p>Each GAUGE metric sampled since the last {@link #drain(Collection)} is reported as
+ * "{name}.Min", "{name}.Max", "{name}.Mean", "{name}.P50" and "{name}.P99", besides its last
+ * value as "{name}". A COUNTER metric only reports its last value.
+ *
+ * <p>Min, max and mean are exact. Percentiles are computed from a fixed-size uniform reservoir
+ * of samples per metric, which are exact as long as a step has no more samples than the
+ * reservoir. Reservoirs are reused among steps, so memory stays fixed.
+ */
+public class MetricSampler {
+    public static final int DEFAULT_RESERVOIR_SIZE = 256;
+
+    private static class Reservoir {
+        final double[] samples;
+        int count;  // samples offered since reset, may exceed samples.length
+        double min;
+        double max;
+        double sum;
+        Metric last;
+
+        Reservoir(int size) {
+            this.samples = new double[size];
+        }
+
+        void add(double value, Random random) {
+            if (count == 0) {
+                min = value;
+                max = value;
+            } else {
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+            sum += value;
+
+            // algorithm R, every sample is kept with the same probability
+            if (count < samples.length) {
+                samples[count] = value;
+            } else {
+                int i = random.nextInt(count + 1);
+                if (i < samples.length) {
+                    samples[i] = value;
+                }
+            }
+            count++;
+        }
+
+        void reset() {
+            count = 0;
+            sum = 0;
+            last = null;
+        }
+    }
+
+    private final int reservoirSize;
+    private final Map<String, Reservoir> reservoirs = new LinkedHashMap<>();
+    private final Random random = new Random();
+    private double[] sorted;
+
+    public MetricSampler() {
+        this(DEFAULT_RESERVOIR_SIZE);
+    }
+
+    public MetricSampler(int reservoirSize) {
+        checkArgument(reservoirSize > 0, "reservoirSize should be positive");
+        this.reservoirSize = reservoirSize;
+        this.sorted = new double[reservoirSize];
+    }
+
+    /**
+     * Add a sample of each metric.
+     */
+    public synchronized void add(Collection<Metric> samples) {
+        checkNotNull(samples, "samples is null");
+        for (Metric metric : samples) {
+            String id = metric.getTags().isEmpty() ? metric.getName() : metric.getName() + metric.getTags();
+            Reservoir reservoir = reservoirs.get(id);
+            if (reservoir == null) {
+                reservoir = new Reservoir(metric.getType() == Metric.Type.GAUGE ? reservoirSize : 0);
+                reservoirs.put(id, reservoir);
+            }
+
+            reservoir.last = metric;
+            double value = metric.getValue().doubleValue();
+            if (metric.getType() == Metric.Type.GAUGE && !Double.isNaN(value) && !Double.isInfinite(value)) {
+                reservoir.add(value, random);
+            }
+        }
+    }
+
+    /**
+     * Add summaries of samples added since the last call to `result`, and start over.
+     * Metrics not sampled since the last call are forgotten.
+     */
+    public synchronized void drain(Collection<Metric> result) {
+        checkNotNull(result, "result is null");
+        Iterator<Reservoir> it = reservoirs.values().iterator();
+        while (it.hasNext()) {
+            Reservoir reservoir = it.next();
+            Metric last = reservoir.last;
+            if (last == null) {
+                it.remove();
+                continue;
+            }
+
+            result.add(last);
+            if (reservoir.count > 0) {
+                String name = last.getName();
+                Map<String, String> tags = last.getTags();
+                result.add(new Metric(name + ".Min", reservoir.min, Metric.Type.GAUGE, tags));
+                result.add(new Metric(name + ".Max", reservoir.max, Metric.Type.GAUGE, tags));
+                result.add(new Metric(name + ".Mean", reservoir.sum / reservoir.count, Metric.Type.GAUGE, tags));
+
+                int n = Math.min(reservoir.count, reservoirSize);
+                System.arraycopy(reservoir.samples, 0, sorted, 0, n);
+                Arrays.sort(sorted, 0, n);
+                result.add(new Metric(name + ".P50", percentile(sorted, n, 0.5), Metric.Type.GAUGE, tags));
+                result.add(new Metric(name + ".P99", percentile(sorted, n, 0.99), Metric.Type.GAUGE, tags));
+            }
+            reservoir.reset();
+        }
+    }
+
+    // nearest-rank percentile of the first n values of sorted
+    static double percentile(double[] sorted, int n, double p) {
+        int rank = (int) Math.ceil(p * n);
+        return sorted[Math.max(rank, 1) - 1];
+    }
+}
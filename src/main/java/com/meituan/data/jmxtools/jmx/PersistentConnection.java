@@ -0,0 +1,117 @@
+package com.meituan.data.jmxtools.jmx;
+
+import com.meituan.data.jmxtools.conf.Endpoint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.MBeanServerConnection;
+import javax.management.remote.JMXConnector;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A JMX connection to an endpoint which is kept open across collections.
+ *
+ * <p>The connection is established on first use, and re-established after {@link #invalidate()}.
+ * When connecting fails, further attempts are refused until a backoff time has passed, which
+ * starts at {@link #MIN_BACKOFF_MILLIS} and doubles on each failure up to {@link #MAX_BACKOFF_MILLIS}.
+ *
+ * <p>With `watchBeans`, each connection subscribes {@link MBeanInfoCache} to bean (un)registrations
+ * until it's closed.
+ */
+public class PersistentConnection implements Closeable {
+    static final Logger LOG = LoggerFactory.getLogger(PersistentConnection.class);
+    static final long MIN_BACKOFF_MILLIS = 5 * 1000;
+    static final long MAX_BACKOFF_MILLIS = 5 * 60 * 1000;
+
+    private final Endpoint endpoint;
+    private final long connectTimeout;
+    private final TimeUnit connectTimeoutUnit;
+    private final boolean watchBeans;
+
+    private JMXConnector connector;
+    private MBeanServerConnection connection;
+    private int failures;
+    private long nextAttemptMillis;
+
+    public PersistentConnection(Endpoint endpoint, long connectTimeout, TimeUnit connectTimeoutUnit) {
+        this(endpoint, connectTimeout, connectTimeoutUnit, false);
+    }
+
+    public PersistentConnection(Endpoint endpoint, long connectTimeout, TimeUnit connectTimeoutUnit,
+                                boolean watchBeans) {
+        this.endpoint = checkNotNull(endpoint, "endpoint is null");
+        this.connectTimeout = connectTimeout;
+        this.connectTimeoutUnit = checkNotNull(connectTimeoutUnit, "connectTimeoutUnit is null");
+        this.watchBeans = watchBeans;
+    }
+
+    /**
+     * Returns the current connection, connect if there isn't one.
+     * @throws IOException if connecting failed, or backoff time of the last failure hasn't passed
+     */
+    public synchronized MBeanServerConnection get() throws IOException {
+        if (connection != null) {
+            return connection;
+        }
+
+        long now = System.currentTimeMillis();
+        if (now < nextAttemptMillis) {
+            throw new IOException("Not reconnecting to " + endpoint + " in the next "
+                    + (nextAttemptMillis - now) + "ms after " + failures + " failures");
+        }
+
+        try {
+            connector = JmxConnections.connectWithTimeout(endpoint, connectTimeout, connectTimeoutUnit);
+            connection = connector.getMBeanServerConnection();
+            failures = 0;
+            LOG.info("Connected to {}", endpoint);
+            if (watchBeans) {
+                MBeanInfoCache.subscribe(connection);
+            }
+            return connection;
+
+        } catch (IOException e) {
+            failures++;
+            long backoff = Math.min(MAX_BACKOFF_MILLIS, MIN_BACKOFF_MILLIS << Math.min(failures - 1, 16));
+            nextAttemptMillis = now + backoff;
+            closeConnector(false);
+            throw e;
+        }
+    }
+
+    /**
+     * Close the current connection so that the next {@link #get()} reconnects,
+     * should be called when the connection turns out to be broken.
+     */
+    public synchronized void invalidate() {
+        closeConnector(false);
+    }
+
+    @Override
+    public synchronized void close() {
+        closeConnector(true);
+    }
+
+    /**
+     * @param healthy whether the connection is still usable, so that listeners can be removed politely
+     */
+    private void closeConnector(boolean healthy) {
+        if (connection != null) {
+            MBeanInfoCache.unsubscribe(connection, healthy);
+        }
+        if (connector != null) {
+            LOG.debug("Closing connection to {}", endpoint);
+            try {
+                connector.close();
+            } catch (IOException e) {
+                LOG.warn("Failed to close " + connector, e);
+            }
+        }
+        connector = null;
+        connection = null;
+    }
+}
@@ -0,0 +1,65 @@
+package com.meituan.data.jmxtools.jmx;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.rmi.server.RMISocketFactory;
+
+/**
+ * RMI socket factory whose client sockets have connect and read timeouts, so that a hung
+ * JMX call fails with {@link java.net.SocketTimeoutException} instead of blocking forever.
+ * Client sockets also have TCP_NODELAY and SO_KEEPALIVE turned on.
+ *
+ * <p>Equality is based on the timeouts, since RMI reuses connections created by equal factories.
+ */
+class TimeoutRMISocketFactory extends RMISocketFactory implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final int connectTimeoutMillis;
+    private final int readTimeoutMillis;
+
+    TimeoutRMISocketFactory(int connectTimeoutMillis, int readTimeoutMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setKeepAlive(true);
+            socket.setSoTimeout(readTimeoutMillis);
+            socket.connect(new InetSocketAddress(host, port), connectTimeoutMillis);
+            return socket;
+
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public ServerSocket createServerSocket(int port) throws IOException {
+        return new ServerSocket(port);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        TimeoutRMISocketFactory that = (TimeoutRMISocketFactory) o;
+        return connectTimeoutMillis == that.connectTimeoutMillis && readTimeoutMillis == that.readTimeoutMillis;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * connectTimeoutMillis + readTimeoutMillis;
+    }
+}
@@ -0,0 +1,81 @@
+package com.meituan.data.jmxtools.jmx.jvm;
+
+import javax.management.Attribute;
+import javax.management.JMException;
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import java.io.IOException;
+import java.lang.management.MemoryUsage;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Attributes of a platform MXBean read with one getAttributes call, in their open types, e.g.
+ * a {@link MemoryUsage} is a {@link CompositeData} decoded when it's got.
+ */
+final class Attributes {
+    private final ObjectName objectName;
+    private final Map<String, Object> values = new HashMap<>();
+
+    Attributes(ObjectName objectName) {
+        this.objectName = checkNotNull(objectName, "objectName is null");
+    }
+
+    /**
+     * Read attributes `names` of `objectName` in one round trip. Attributes failed to read
+     * are left out, see {@link MBeanServerConnection#getAttributes(ObjectName, String[])}.
+     */
+    static Attributes fetch(MBeanServerConnection connection, ObjectName objectName, String[] names)
+            throws IOException, JMException {
+        Attributes attributes = new Attributes(objectName);
+        for (Attribute attr : connection.getAttributes(objectName, names).asList()) {
+            attributes.put(attr.getName(), attr.getValue());
+        }
+        return attributes;
+    }
+
+    ObjectName getObjectName() {
+        return objectName;
+    }
+
+    /**
+     * Set `name` to `value`, which may also be the result of an operation read along with attributes.
+     */
+    void put(String name, Object value) {
+        values.put(name, value);
+    }
+
+    boolean has(String name) {
+        return values.get(name) != null;
+    }
+
+    /**
+     * @throws IllegalStateException if `name` is not available, see {@link #has}
+     */
+    Object get(String name) {
+        Object value = values.get(name);
+        if (value == null) {
+            throw new IllegalStateException("Attribute " + name + " of " + objectName + " is not available");
+        }
+        return value;
+    }
+
+    long getLong(String name) {
+        return ((Number) get(name)).longValue();
+    }
+
+    double getDouble(String name) {
+        return ((Number) get(name)).doubleValue();
+    }
+
+    String getString(String name) {
+        return (String) get(name);
+    }
+
+    MemoryUsage getMemoryUsage(String name) {
+        return MemoryUsage.from((CompositeData) get(name));
+    }
+}
@@ -1,10 +1,6 @@
 package com.meituan.data.jmxtools.jmx.jvm;
 
-import com.google.common.collect.Lists;
-import com.meituan.data.jmxtools.jmx.Metric;
-
-import java.lang.management.ClassLoadingMXBean;
-import java.util.Collection;
+import com.meituan.data.jmxtools.jmx.MetricBatch;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.meituan.data.jmxtools.jmx.Metric.Type.GAUGE;
@@ -17,23 +13,27 @@ import static com.meituan.data.jmxtools.jmx.Metric.Type.GAUGE;
  *     <li>ClassLoading.TotalLoaded</li>
  *     <li>ClassLoading.TotalUnloaded</li>
  * </ul>
+ * A metric is left out if the JVM doesn't have its attribute.
  */
 class ClassLoadingCollector implements Collector {
-    private final ClassLoadingMXBean classLoadingMXBean;
+    static final String[] ATTRIBUTES = {"LoadedClassCount", "TotalLoadedClassCount", "UnloadedClassCount"};
+
+    private final Attributes classLoading;
 
-    public ClassLoadingCollector(ClassLoadingMXBean classLoadingMXBean) {
-        this.classLoadingMXBean = checkNotNull(classLoadingMXBean, "classLoadingMXBean is null");
+    public ClassLoadingCollector(Attributes classLoading) {
+        this.classLoading = checkNotNull(classLoading, "classLoading is null");
     }
 
     @Override
-    public Collection<Metric> collect(String metricPrefix) {
-        Collection<Metric> metrics = Lists.newArrayList();
-        metricPrefix += "ClassLoading.";
-
-        metrics.add(new Metric(metricPrefix + "Loaded", classLoadingMXBean.getLoadedClassCount(), GAUGE));
-        metrics.add(new Metric(metricPrefix + "TotalLoaded", classLoadingMXBean.getTotalLoadedClassCount(), GAUGE));
-        metrics.add(new Metric(metricPrefix + "TotalUnloaded", classLoadingMXBean.getUnloadedClassCount(), GAUGE));
-
-        return metrics;
+    public void collect(String metricPrefix, MetricBatch batch) {
+        if (classLoading.has("LoadedClassCount")) {
+            batch.add(metricPrefix, "ClassLoading.Loaded", classLoading.getLong("LoadedClassCount"), GAUGE);
+        }
+        if (classLoading.has("TotalLoadedClassCount")) {
+            batch.add(metricPrefix, "ClassLoading.TotalLoaded", classLoading.getLong("TotalLoadedClassCount"), GAUGE);
+        }
+        if (classLoading.has("UnloadedClassCount")) {
+            batch.add(metricPrefix, "ClassLoading.TotalUnloaded", classLoading.getLong("UnloadedClassCount"), GAUGE);
+        }
     }
 }
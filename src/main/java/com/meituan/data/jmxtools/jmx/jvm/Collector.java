@@ -1,9 +1,12 @@
 package com.meituan.data.jmxtools.jmx.jvm;
 
-import com.meituan.data.jmxtools.jmx.Metric;
-
-import java.util.Collection;
+import com.meituan.data.jmxtools.jmx.MetricBatch;
 
+/**
+ * Collects metrics of a platform MXBean into a batch. Metric names are added as
+ * `metricPrefix` and a constant (or cached) suffix, so that they are only concatenated
+ * the first time, see {@link com.meituan.data.jmxtools.jmx.MetricNames#intern(String, String)}.
+ */
 interface Collector {
-    Collection<Metric> collect(String metricPrefix);
+    void collect(String metricPrefix, MetricBatch batch);
 }
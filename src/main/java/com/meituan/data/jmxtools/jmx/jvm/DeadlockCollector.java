@@ -0,0 +1,57 @@
+package com.meituan.data.jmxtools.jmx.jvm;
+
+import com.meituan.data.jmxtools.jmx.MetricBatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.JMRuntimeException;
+import javax.management.MBeanServerConnection;
+import java.io.IOException;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.meituan.data.jmxtools.jmx.Metric.Type.GAUGE;
+
+/**
+ * DeadlockCollector will produce the following metric:
+ * <ul>
+ *     <li>Thread.DeadlockCount</li>
+ * </ul>
+ *
+ * Finding deadlocked threads stops the world of the JVM, so it's a collector of its own,
+ * which can run less often than the others, see {@link com.meituan.data.jmxtools.conf.JvmMetricGroup}.
+ */
+class DeadlockCollector implements Collector {
+    private static Logger LOG = LoggerFactory.getLogger(DeadlockCollector.class);
+
+    // result of findDeadlockedThreads, kept as an attribute of the threading bean
+    static final String DEADLOCKED_THREADS = "DeadlockedThreads";
+
+    private final Attributes threading;
+
+    public DeadlockCollector(Attributes threading) {
+        this.threading = checkNotNull(threading, "threading is null");
+    }
+
+    static Attributes fetch(MBeanServerConnection connection) throws IOException, JMException {
+        Attributes threading = new Attributes(PlatformBeans.THREADING);
+        try {
+            Object deadlocked = connection.invoke(PlatformBeans.THREADING, "findDeadlockedThreads", null, null);
+            // null if there is no deadlock, which is told apart from not supported
+            threading.put(DEADLOCKED_THREADS, deadlocked == null ? new long[0] : deadlocked);
+        } catch (JMRuntimeException e) {
+            if (!(e.getCause() instanceof UnsupportedOperationException)) {
+                throw e;
+            }
+            LOG.debug("findDeadlockedThreads is not supported", e);
+        }
+        return threading;
+    }
+
+    @Override
+    public void collect(String metricPrefix, MetricBatch batch) {
+        if (threading.has(DEADLOCKED_THREADS)) {
+            batch.add(metricPrefix, "Thread.DeadlockCount", ((long[]) threading.get(DEADLOCKED_THREADS)).length, GAUGE);
+        }
+    }
+}
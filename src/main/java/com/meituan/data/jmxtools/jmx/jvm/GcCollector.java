@@ -1,10 +1,7 @@
 package com.meituan.data.jmxtools.jmx.jvm;
 
-import com.google.common.collect.Lists;
-import com.meituan.data.jmxtools.jmx.Metric;
+import com.meituan.data.jmxtools.jmx.MetricBatch;
 
-import java.lang.management.GarbageCollectorMXBean;
-import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -23,12 +20,19 @@ import static com.meituan.data.jmxtools.jmx.Metric.Type.GAUGE;
  *     <li>GC.All.Count</li>
  *     <li>GC.All.TimeMillis</li>
  * </ul>
+ * A metric is left out if the collector doesn't have its attribute, or has it undefined (-1).
  */
 class GcCollector implements Collector {
 
     enum GarbageCollectorType {
         Unknown, Minor, Major;
 
+        // metric names without prefix, built once
+        final String countName = "GC." + name() + ".Count";
+        final String countDeltaName = countName + ".Delta";
+        final String timeName = "GC." + name() + ".TimeMillis";
+        final String timeDeltaName = timeName + ".Delta";
+
         private static Map<String, GarbageCollectorType> mapping;
 
         static {
@@ -56,40 +60,54 @@ class GcCollector implements Collector {
         }
     }
 
-    List<GarbageCollectorMXBean> garbageCollectorMXBeans;
+    static final String[] ATTRIBUTES = {"Name", "CollectionCount", "CollectionTime"};
+
+    private final List<Attributes> garbageCollectors;
 
-    public GcCollector(List<GarbageCollectorMXBean> garbageCollectorMXBeans) {
-        this.garbageCollectorMXBeans = checkNotNull(garbageCollectorMXBeans, "garbageCollectorMXBeans is null");
+    public GcCollector(List<Attributes> garbageCollectors) {
+        this.garbageCollectors = checkNotNull(garbageCollectors, "garbageCollectors is null");
     }
 
     @Override
-    public Collection<Metric> collect(String metricPrefix) {
-        Collection<Metric> metrics = Lists.newArrayList();
-        metricPrefix = metricPrefix + "GC.";
-
-        long totalCount = 0;
-        long totalTimeMillis = 0;
+    public void collect(String metricPrefix, MetricBatch batch) {
+        long totalCount = -1;
+        long totalTimeMillis = -1;
 
-        for (GarbageCollectorMXBean gcMXBean : garbageCollectorMXBeans) {
-            final long count = gcMXBean.getCollectionCount();
-            final long time = gcMXBean.getCollectionTime();
-            GarbageCollectorType gcType = GarbageCollectorType.of(gcMXBean.getName());
+        for (Attributes gc : garbageCollectors) {
+            if (!gc.has("Name")) {
+                continue;   // unregistered after it was discovered
+            }
+            GarbageCollectorType gcType = GarbageCollectorType.of(gc.getString("Name"));
 
-            addGaugeAndCounter(metricPrefix + gcType + ".Count", count, metrics);
-            addGaugeAndCounter(metricPrefix + gcType + ".TimeMillis", time, metrics);
+            long count = getDefined(gc, "CollectionCount");
+            if (count >= 0) {
+                addGaugeAndCounter(metricPrefix, gcType.countName, gcType.countDeltaName, count, batch);
+                totalCount = Math.max(totalCount, 0) + count;
+            }
+            long time = getDefined(gc, "CollectionTime");
+            if (time >= 0) {
+                addGaugeAndCounter(metricPrefix, gcType.timeName, gcType.timeDeltaName, time, batch);
+                totalTimeMillis = Math.max(totalTimeMillis, 0) + time;
+            }
+        }
 
-            totalCount += count;
-            totalTimeMillis += time;
+        if (totalCount >= 0) {
+            addGaugeAndCounter(metricPrefix, "GC.All.Count", "GC.All.Count.Delta", totalCount, batch);
         }
+        if (totalTimeMillis >= 0) {
+            addGaugeAndCounter(metricPrefix, "GC.All.TimeMillis", "GC.All.TimeMillis.Delta", totalTimeMillis, batch);
+        }
+    }
 
-        addGaugeAndCounter(metricPrefix + "All.Count", totalCount, metrics);
-        addGaugeAndCounter(metricPrefix + "All.TimeMillis", totalTimeMillis, metrics);
-        return metrics;
+    // value of `name`, or -1 if it's missing
+    private static long getDefined(Attributes gc, String name) {
+        return gc.has(name) ? gc.getLong(name) : -1;
     }
 
-    private void addGaugeAndCounter(String name, Number value, Collection<Metric> metrics) {
-        metrics.add(new Metric(name, value, GAUGE));
-        metrics.add(new Metric(name + ".Delta", value, COUNTER));
+    private void addGaugeAndCounter(String metricPrefix, String gaugeName, String counterName,
+                                    long value, MetricBatch batch) {
+        batch.add(metricPrefix, gaugeName, value, GAUGE);
+        batch.add(metricPrefix, counterName, value, COUNTER);
     }
 
 }
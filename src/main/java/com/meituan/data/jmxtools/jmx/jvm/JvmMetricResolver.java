@@ -1,51 +1,236 @@
 package com.meituan.data.jmxtools.jmx.jvm;
 
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.meituan.data.jmxtools.conf.JvmMetricGroup;
+import com.meituan.data.jmxtools.conf.MetricGroup;
 import com.meituan.data.jmxtools.jmx.Metric;
+import com.meituan.data.jmxtools.jmx.MetricBatch;
 import com.meituan.data.jmxtools.jmx.MetricResolver;
 
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
 import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
 import java.io.IOException;
-import java.lang.management.*;
+import java.io.InterruptedIOException;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
+/**
+ * Resolves metrics of the platform MXBeans. Beans are discovered once per connection, see
+ * {@link PlatformBeans}, then each bean is read with one getAttributes call, and all beans
+ * are read concurrently, so a resolve takes as long as a few round trips.
+ *
+ * <p>Collectors with an interval ({@link JvmMetricGroup#getCollectorIntervals()}) only read
+ * their beans every that many resolves of a group on a connection.
+ */
 public class JvmMetricResolver extends MetricResolver<JvmMetricGroup> {
 
+    // beans are read concurrently in this pool, the caller reads by itself when all threads are busy
+    static final ExecutorService FETCH_POOL = new ThreadPoolExecutor(
+            0, 16, 60, TimeUnit.SECONDS,
+            new SynchronousQueue<Runnable>(),
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("jvm-fetch-pool-%d").build(),
+            new ThreadPoolExecutor.CallerRunsPolicy());
+
+    // cycles and last metrics of collectors per connection and group, keys are weak so that
+    // states go away with connections
+    private static final LoadingCache<MBeanServerConnection, ConcurrentMap<JvmMetricGroup, CollectorStates>> STATES =
+            CacheBuilder.newBuilder()
+                    .weakKeys()
+                    .build(new CacheLoader<MBeanServerConnection, ConcurrentMap<JvmMetricGroup, CollectorStates>>() {
+                        @Override
+                        public ConcurrentMap<JvmMetricGroup, CollectorStates> load(MBeanServerConnection connection) {
+                            return new ConcurrentHashMap<>();
+                        }
+                    });
+
+    private static final class CollectorStates {
+        private long cycles;
+        private final Map<String, MetricBatch> lastMetrics = Maps.newHashMap();
+
+        synchronized long nextCycle() {
+            return cycles++;
+        }
+
+        synchronized MetricBatch getLastMetrics(String collectorName) {
+            return lastMetrics.get(collectorName);
+        }
+
+        synchronized void setLastMetrics(String collectorName, MetricBatch metrics) {
+            lastMetrics.put(collectorName, metrics);
+        }
+    }
+
     public JvmMetricResolver(MBeanServerConnection connection) {
         super(connection);
     }
 
     @Override
     public Collection<Metric> resolve(JvmMetricGroup metricGroup) throws IOException {
+        MetricBatch batch = new MetricBatch();
+        resolve(metricGroup, batch);
+        return batch.toMetrics();
+    }
+
+    @Override
+    public void resolve(final JvmMetricGroup metricGroup, MetricBatch batch) throws IOException {
         checkNotNull(metricGroup, "metricGroup is null");
+        checkNotNull(batch, "batch is null");
 
-        Collection<Metric> result = Lists.newArrayList();
-        String prefix = metricGroup.getGroupName() + ".";
+        CollectorStates states = metricGroup.getCollectorIntervals().isEmpty() ? null : getStates(metricGroup);
+        long cycle = (states == null) ? 0 : states.nextCycle();
 
-        List<Collector> collectors = Lists.newArrayList(
-                new MemoryCollector(proxy(MemoryMXBean.class), proxies(MemoryPoolMXBean.class)),
-                new GcCollector(proxies(GarbageCollectorMXBean.class)),
-                new ClassLoadingCollector(proxy(ClassLoadingMXBean.class)),
-                new ThreadCollector(proxy(ThreadMXBean.class)),
-                new OSCollector(proxy(com.sun.management.UnixOperatingSystemMXBean.class))
-        );
+        PlatformBeans beans = PlatformBeans.get(connection);
+        List<Future<Attributes>> futures = Lists.newArrayList();
+        try {
+            // only collectors due in this cycle read their beans
+            Future<Attributes> memory = null;
+            List<Future<Attributes>> memoryPools = Lists.newArrayList();
+            if (isDue(metricGroup, "Memory", cycle)) {
+                memory = fetch(PlatformBeans.MEMORY, MemoryCollector.MEMORY_ATTRIBUTES, futures);
+                for (ObjectName memoryPool : beans.memoryPools) {
+                    memoryPools.add(fetch(memoryPool, MemoryCollector.POOL_ATTRIBUTES, futures));
+                }
+            }
+            List<Future<Attributes>> garbageCollectors = null;
+            if (isDue(metricGroup, "GC", cycle)) {
+                garbageCollectors = Lists.newArrayList();
+                for (ObjectName garbageCollector : beans.garbageCollectors) {
+                    garbageCollectors.add(fetch(garbageCollector, GcCollector.ATTRIBUTES, futures));
+                }
+            }
+            Future<Attributes> classLoading = isDue(metricGroup, "ClassLoading", cycle)
+                    ? fetch(PlatformBeans.CLASS_LOADING, ClassLoadingCollector.ATTRIBUTES, futures) : null;
+            Future<Attributes> os = isDue(metricGroup, "OS", cycle)
+                    ? fetch(PlatformBeans.OPERATING_SYSTEM, OSCollector.ATTRIBUTES, futures) : null;
+            Future<Attributes> threading = null;
+            if (isDue(metricGroup, "Thread", cycle)) {
+                threading = submit(new Callable<Attributes>() {
+                    @Override
+                    public Attributes call() throws IOException, JMException {
+                        return ThreadCollector.fetch(connection, metricGroup);
+                    }
+                }, futures);
+            }
+            Future<Attributes> deadlock = null;
+            if (isDue(metricGroup, "Deadlock", cycle)) {
+                deadlock = submit(new Callable<Attributes>() {
+                    @Override
+                    public Attributes call() throws IOException, JMException {
+                        return DeadlockCollector.fetch(connection);
+                    }
+                }, futures);
+            }
 
-        for (Collector collector : collectors) {
-            result.addAll(collector.collect(prefix));
+            Map<String, Collector> collectors = Maps.newHashMap();
+            if (memory != null) {
+                collectors.put("Memory", new MemoryCollector(memory.get(), getAll(memoryPools)));
+            }
+            if (garbageCollectors != null) {
+                collectors.put("GC", new GcCollector(getAll(garbageCollectors)));
+            }
+            if (classLoading != null) {
+                collectors.put("ClassLoading", new ClassLoadingCollector(classLoading.get()));
+            }
+            if (threading != null) {
+                collectors.put("Thread", new ThreadCollector(threading.get()));
+            }
+            if (deadlock != null) {
+                collectors.put("Deadlock", new DeadlockCollector(deadlock.get()));
+            }
+            if (os != null) {
+                collectors.put("OS", new OSCollector(os.get()));
+            }
+
+            for (String name : JvmMetricGroup.COLLECTOR_NAMES) {
+                Collector collector = collectors.get(name);
+                if (collector == null) {
+                    MetricBatch lastMetrics = states.getLastMetrics(name);
+                    if (metricGroup.getStalePolicy() == MetricGroup.StalePolicy.REUSE && lastMetrics != null) {
+                        batch.addAll(lastMetrics);
+                    }
+                } else if (metricGroup.getCollectorInterval(name) > 1) {
+                    MetricBatch metrics = new MetricBatch(batch.getNames());
+                    collector.collect(metricGroup.getMetricPrefix(), metrics);
+                    // counters are never reused, see StalePolicy
+                    states.setLastMetrics(name, metrics.copyGauges());
+                    batch.addAll(metrics);
+                } else {
+                    collector.collect(metricGroup.getMetricPrefix(), batch);
+                }
+            }
+
+        } catch (InterruptedException e) {
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+            InterruptedIOException wrapper = new InterruptedIOException(e.getMessage());
+            wrapper.initCause(e);
+            throw wrapper;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Failed to read platform beans", e.getCause());
         }
+    }
 
-        return result;
+    private CollectorStates getStates(JvmMetricGroup metricGroup) {
+        ConcurrentMap<JvmMetricGroup, CollectorStates> groups = STATES.getUnchecked(connection);
+        CollectorStates states = groups.get(metricGroup);
+        if (states == null) {
+            states = new CollectorStates();
+            CollectorStates prev = groups.putIfAbsent(metricGroup, states);
+            if (prev != null) {
+                states = prev;
+            }
+        }
+        return states;
+    }
+
+    private static boolean isDue(JvmMetricGroup metricGroup, String collectorName, long cycle) {
+        return cycle % metricGroup.getCollectorInterval(collectorName) == 0;
+    }
+
+    private Future<Attributes> fetch(final ObjectName objectName, final String[] attrNames,
+                                     List<Future<Attributes>> futures) {
+        return submit(new Callable<Attributes>() {
+            @Override
+            public Attributes call() throws IOException, JMException {
+                try {
+                    return Attributes.fetch(connection, objectName, attrNames);
+
+                } catch (InstanceNotFoundException e) {
+                    // e.g. a memory pool removed after discovery, which is left out this time
+                    PlatformBeans.invalidate(connection);
+                    return new Attributes(objectName);
+                }
+            }
+        }, futures);
     }
 
-    private <T extends PlatformManagedObject> T proxy(Class<T> mbeanInterface) throws IOException {
-        return ManagementFactory.getPlatformMXBean(connection, mbeanInterface);
+    private static Future<Attributes> submit(Callable<Attributes> task, List<Future<Attributes>> futures) {
+        Future<Attributes> future = FETCH_POOL.submit(task);
+        futures.add(future);
+        return future;
     }
 
-    private <T extends PlatformManagedObject> List<T> proxies(Class<T> mbeanInterface) throws IOException {
-        return ManagementFactory.getPlatformMXBeans(connection, mbeanInterface);
+    private static List<Attributes> getAll(List<Future<Attributes>> futures)
+            throws InterruptedException, ExecutionException {
+        List<Attributes> result = Lists.newArrayListWithCapacity(futures.size());
+        for (Future<Attributes> future : futures) {
+            result.add(future.get());
+        }
+        return result;
     }
 }
@@ -1,13 +1,11 @@
 package com.meituan.data.jmxtools.jmx.jvm;
 
-import com.google.common.collect.Lists;
-import com.meituan.data.jmxtools.jmx.Metric;
+import com.meituan.data.jmxtools.jmx.MetricBatch;
 
-import java.lang.management.MemoryMXBean;
-import java.lang.management.MemoryPoolMXBean;
 import java.lang.management.MemoryUsage;
-import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.meituan.data.jmxtools.jmx.Metric.Type.GAUGE;
@@ -20,6 +18,7 @@ import static com.meituan.data.jmxtools.jmx.Metric.Type.GAUGE;
  *     <li>Mem.{Young, Old}.{Used, Committed, Max}[.Percent]</li>
  *     <li>MemPool.{mem pool name}.{Used, Committed, Max}[.Percent]</li>
  * </ul>
+ * Metrics of an attribute the JVM doesn't have are left out.
  */
 class MemoryCollector implements Collector {
 
@@ -42,47 +41,88 @@ class MemoryCollector implements Collector {
         abstract boolean include(final String poolName);
     }
 
+    // metric names of a memory usage without prefix, built once
+    private static final class UsageNames {
+        final String used;
+        final String committed;
+        final String max;
+        final String usedPercent;
+
+        UsageNames(String part) {
+            this.used = part + "Used";
+            this.committed = part + "Committed";
+            this.max = part + "Max";
+            this.usedPercent = part + "Used.Percent";
+        }
+    }
+
     // java.lang.management.MemoryUsage use -1 for undefined value
     private static long MEM_SIZE_UNDEFINED = -1;
 
-    private final MemoryMXBean memoryMXBean;
-    private final List<MemoryPoolMXBean> memoryPoolMXBeans;
+    private static final UsageNames HEAP_NAMES = new UsageNames("Mem.Heap.");
+    private static final UsageNames NON_HEAP_NAMES = new UsageNames("Mem.NonHeap.");
+    private static final UsageNames YOUNG_NAMES = new UsageNames("Mem.Young.");
+    private static final UsageNames OLD_NAMES = new UsageNames("Mem.Old.");
+
+    // pool names are few and the same among JVMs of the same collector
+    private static final ConcurrentMap<String, UsageNames> POOL_NAMES = new ConcurrentHashMap<>();
 
-    public MemoryCollector(MemoryMXBean memoryMXBean, List<MemoryPoolMXBean> memoryPoolMXBeans) {
-        this.memoryMXBean = checkNotNull(memoryMXBean, "memoryMXBean is null");
-        this.memoryPoolMXBeans = checkNotNull(memoryPoolMXBeans, "memoryPoolMXBeans is null");
+    static final String[] MEMORY_ATTRIBUTES = {"HeapMemoryUsage", "NonHeapMemoryUsage"};
+    static final String[] POOL_ATTRIBUTES = {"Name", "Usage"};
+
+    private final Attributes memory;
+    private final List<Attributes> memoryPools;
+
+    public MemoryCollector(Attributes memory, List<Attributes> memoryPools) {
+        this.memory = checkNotNull(memory, "memory is null");
+        this.memoryPools = checkNotNull(memoryPools, "memoryPools is null");
     }
 
     @Override
-    public Collection<Metric> collect(String metricPrefix) {
-        Collection<Metric> metrics = Lists.newArrayList();
-
-        collectMemoryUsage(metricPrefix + "Mem.Heap.", memoryMXBean.getHeapMemoryUsage(), metrics);
-        collectMemoryUsage(metricPrefix + "Mem.NonHeap.", memoryMXBean.getNonHeapMemoryUsage(), metrics);
+    public void collect(String metricPrefix, MetricBatch batch) {
+        if (memory.has("HeapMemoryUsage")) {
+            collectMemoryUsage(metricPrefix, HEAP_NAMES, memory.getMemoryUsage("HeapMemoryUsage"), batch);
+        }
+        if (memory.has("NonHeapMemoryUsage")) {
+            collectMemoryUsage(metricPrefix, NON_HEAP_NAMES, memory.getMemoryUsage("NonHeapMemoryUsage"), batch);
+        }
 
         MemoryUsage youngUsage = new MemoryUsage(0, 0, 0, 0);
         MemoryUsage oldUsage = new MemoryUsage(0, 0, 0, 0);
 
         // mem pool specific usage
-        for (MemoryPoolMXBean memPoolMXBean : memoryPoolMXBeans) {
-            String newPoolName = memPoolMXBean.getName().replaceAll("\\s", "");
-            MemoryUsage poolUsage = memPoolMXBean.getUsage();
-
-            collectMemoryUsage(metricPrefix + "MemPool." + newPoolName + ".", poolUsage, metrics);
+        for (Attributes memPool : memoryPools) {
+            // usage is null if the pool is no longer valid
+            if (!memPool.has("Name") || !memPool.has("Usage")) {
+                continue;
+            }
+            String poolName = memPool.getString("Name");
+            MemoryUsage poolUsage = memPool.getMemoryUsage("Usage");
+            collectMemoryUsage(metricPrefix, poolNames(poolName), poolUsage, batch);
 
-            if (HeapMemType.Young.include(memPoolMXBean.getName())) {
+            if (HeapMemType.Young.include(poolName)) {
                 youngUsage = mergeMemoryUsage(youngUsage, poolUsage);
 
-            } else if (HeapMemType.Old.include(memPoolMXBean.getName())) {
+            } else if (HeapMemType.Old.include(poolName)) {
                 oldUsage = mergeMemoryUsage(oldUsage, poolUsage);
             }
         }
 
         // young / old usage
-        collectMemoryUsage(metricPrefix + "Mem.Young.", youngUsage, metrics);
-        collectMemoryUsage(metricPrefix + "Mem.Old.", oldUsage, metrics);
+        collectMemoryUsage(metricPrefix, YOUNG_NAMES, youngUsage, batch);
+        collectMemoryUsage(metricPrefix, OLD_NAMES, oldUsage, batch);
+    }
 
-        return metrics;
+    private static UsageNames poolNames(String poolName) {
+        UsageNames names = POOL_NAMES.get(poolName);
+        if (names == null) {
+            names = new UsageNames("MemPool." + poolName.replaceAll("\\s", "") + ".");
+            UsageNames prev = POOL_NAMES.putIfAbsent(poolName, names);
+            if (prev != null) {
+                names = prev;
+            }
+        }
+        return names;
     }
 
     private MemoryUsage mergeMemoryUsage(MemoryUsage p, MemoryUsage c) {
@@ -103,16 +143,16 @@ class MemoryCollector implements Collector {
                 max);
     }
 
-    private void collectMemoryUsage(String prefix, MemoryUsage usage, Collection<Metric> metrics) {
-        metrics.add(new Metric(prefix + "Used", usage.getUsed(), GAUGE));
-        metrics.add(new Metric(prefix + "Committed", usage.getCommitted(), GAUGE));
-        metrics.add(new Metric(prefix + "Max", usage.getMax(), GAUGE));
+    private void collectMemoryUsage(String metricPrefix, UsageNames names, MemoryUsage usage, MetricBatch batch) {
+        batch.add(metricPrefix, names.used, usage.getUsed(), GAUGE);
+        batch.add(metricPrefix, names.committed, usage.getCommitted(), GAUGE);
+        batch.add(metricPrefix, names.max, usage.getMax(), GAUGE);
 
         // it makes no sense to compute usage percent if the memory pool doesn't have a max value.
         // e.g., in java 8, the Metaspace pool doesn't have a max unless specified explicitly
         if (usage.getMax() != MEM_SIZE_UNDEFINED) {
             double usedPercent = 100.0 * usage.getUsed() / usage.getMax();
-            metrics.add(new Metric(prefix + "Used.Percent", usedPercent, GAUGE));
+            batch.add(metricPrefix, names.usedPercent, usedPercent, GAUGE);
         }
     }
 }
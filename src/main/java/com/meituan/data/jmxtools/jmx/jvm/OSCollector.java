@@ -1,10 +1,6 @@
 package com.meituan.data.jmxtools.jmx.jvm;
 
-import com.google.common.collect.Lists;
-import com.meituan.data.jmxtools.jmx.Metric;
-import com.sun.management.UnixOperatingSystemMXBean;
-
-import java.util.Collection;
+import com.meituan.data.jmxtools.jmx.MetricBatch;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.meituan.data.jmxtools.jmx.Metric.Type.GAUGE;
@@ -18,27 +14,37 @@ import static com.meituan.data.jmxtools.jmx.Metric.Type.GAUGE;
  *     <li>OS.OpenFileDescriptorCount</li>
  *     <li>OS.OpenFileDescriptorPercent</li>
  * </ul>
+ * A metric is left out if the JVM doesn't have its attribute, e.g. file descriptors on Windows.
  */
 class OSCollector implements Collector {
-    private final UnixOperatingSystemMXBean unixOsMXBean;
+    static final String[] ATTRIBUTES = {"ProcessCpuLoad", "ProcessCpuTime", "SystemCpuLoad",
+            "OpenFileDescriptorCount", "MaxFileDescriptorCount"};
+
+    private final Attributes os;
 
-    public OSCollector(UnixOperatingSystemMXBean unixOsMXBean) {
-        this.unixOsMXBean = checkNotNull(unixOsMXBean, "unixOsMXBean is null");
+    public OSCollector(Attributes os) {
+        this.os = checkNotNull(os, "os is null");
     }
 
     @Override
-    public Collection<Metric> collect(String metricPrefix) {
-        Collection<Metric> metrics = Lists.newArrayList();
-        metricPrefix += "OS.";
-
-        metrics.add(new Metric(metricPrefix + "ProcessCpuLoad", unixOsMXBean.getProcessCpuLoad(), GAUGE));
-        metrics.add(new Metric(metricPrefix + "ProcessCpuTimeMillis", unixOsMXBean.getProcessCpuTime() / 1e6, GAUGE));
-        metrics.add(new Metric(metricPrefix + "SystemCpuLoad", unixOsMXBean.getSystemCpuLoad(), GAUGE));
-        metrics.add(new Metric(metricPrefix + "OpenFileDescriptorCount", unixOsMXBean.getOpenFileDescriptorCount(), GAUGE));
-
-        double fdPercent = 100.0 * unixOsMXBean.getOpenFileDescriptorCount() / unixOsMXBean.getMaxFileDescriptorCount();
-        metrics.add(new Metric(metricPrefix + "OpenFileDescriptorPercent", fdPercent, GAUGE));
-
-        return metrics;
+    public void collect(String metricPrefix, MetricBatch batch) {
+        if (os.has("ProcessCpuLoad")) {
+            batch.add(metricPrefix, "OS.ProcessCpuLoad", os.getDouble("ProcessCpuLoad"), GAUGE);
+        }
+        if (os.has("ProcessCpuTime")) {
+            batch.add(metricPrefix, "OS.ProcessCpuTimeMillis", os.getLong("ProcessCpuTime") / 1e6, GAUGE);
+        }
+        if (os.has("SystemCpuLoad")) {
+            batch.add(metricPrefix, "OS.SystemCpuLoad", os.getDouble("SystemCpuLoad"), GAUGE);
+        }
+        if (os.has("OpenFileDescriptorCount")) {
+            long fdCount = os.getLong("OpenFileDescriptorCount");
+            batch.add(metricPrefix, "OS.OpenFileDescriptorCount", fdCount, GAUGE);
+
+            if (os.has("MaxFileDescriptorCount")) {
+                double fdPercent = 100.0 * fdCount / os.getLong("MaxFileDescriptorCount");
+                batch.add(metricPrefix, "OS.OpenFileDescriptorPercent", fdPercent, GAUGE);
+            }
+        }
     }
 }
@@ -0,0 +1,78 @@
+package com.meituan.data.jmxtools.jmx.jvm;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Ordering;
+
+import javax.management.MBeanServerConnection;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Names of the platform MXBeans of a connection. Beans with fixed names are constants, memory
+ * pools and garbage collectors are queried once per connection and cached, instead of looking
+ * up proxies with {@link ManagementFactory#getPlatformMXBeans} in every resolve.
+ */
+final class PlatformBeans {
+    static final long TTL_MINUTES = 10;
+
+    static final ObjectName MEMORY = newObjectName(ManagementFactory.MEMORY_MXBEAN_NAME);
+    static final ObjectName CLASS_LOADING = newObjectName(ManagementFactory.CLASS_LOADING_MXBEAN_NAME);
+    static final ObjectName THREADING = newObjectName(ManagementFactory.THREAD_MXBEAN_NAME);
+    static final ObjectName OPERATING_SYSTEM = newObjectName(ManagementFactory.OPERATING_SYSTEM_MXBEAN_NAME);
+
+    private static final ObjectName MEMORY_POOLS = newObjectName(ManagementFactory.MEMORY_POOL_MXBEAN_DOMAIN_TYPE + ",*");
+    private static final ObjectName GARBAGE_COLLECTORS = newObjectName(ManagementFactory.GARBAGE_COLLECTOR_MXBEAN_DOMAIN_TYPE + ",*");
+
+    // keys are weak so that entries go away with their connections, pools and collectors
+    // hardly change but are queried again after the TTL in case they do
+    private static final Cache<MBeanServerConnection, PlatformBeans> CACHE = CacheBuilder.newBuilder()
+            .weakKeys()
+            .expireAfterWrite(TTL_MINUTES, TimeUnit.MINUTES)
+            .build();
+
+    final List<ObjectName> memoryPools;
+    final List<ObjectName> garbageCollectors;
+
+    private PlatformBeans(List<ObjectName> memoryPools, List<ObjectName> garbageCollectors) {
+        this.memoryPools = memoryPools;
+        this.garbageCollectors = garbageCollectors;
+    }
+
+    /**
+     * Returns platform beans of `connection`, which are queried the first time.
+     */
+    static PlatformBeans get(MBeanServerConnection connection) throws IOException {
+        checkNotNull(connection, "connection is null");
+        PlatformBeans beans = CACHE.getIfPresent(connection);
+        if (beans == null) {
+            beans = new PlatformBeans(
+                    ImmutableList.copyOf(Ordering.natural().sortedCopy(connection.queryNames(MEMORY_POOLS, null))),
+                    ImmutableList.copyOf(Ordering.natural().sortedCopy(connection.queryNames(GARBAGE_COLLECTORS, null))));
+            CACHE.put(connection, beans);
+        }
+        return beans;
+    }
+
+    /**
+     * Forget beans of `connection`, e.g. when one of them turns out to be gone.
+     */
+    static void invalidate(MBeanServerConnection connection) {
+        CACHE.invalidate(connection);
+    }
+
+    private static ObjectName newObjectName(String name) {
+        try {
+            return new ObjectName(name);
+        } catch (MalformedObjectNameException e) {
+            throw new IllegalArgumentException("invalid objectName: " + name, e);
+        }
+    }
+}
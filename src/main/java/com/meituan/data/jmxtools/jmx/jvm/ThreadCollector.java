@@ -1,13 +1,15 @@
 package com.meituan.data.jmxtools.jmx.jvm;
 
-import com.google.common.collect.Lists;
-import com.meituan.data.jmxtools.jmx.Metric;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import com.meituan.data.jmxtools.conf.JvmMetricGroup;
+import com.meituan.data.jmxtools.jmx.MetricBatch;
 
-import java.lang.management.ThreadInfo;
-import java.lang.management.ThreadMXBean;
-import java.util.Collection;
+import javax.management.JMException;
+import javax.management.MBeanServerConnection;
+import javax.management.openmbean.CompositeData;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.meituan.data.jmxtools.jmx.Metric.Type.GAUGE;
@@ -19,62 +21,111 @@ import static com.meituan.data.jmxtools.jmx.Metric.Type.GAUGE;
  *     <li>Thread.DaemonCount</li>
  *     <li>Thread.PeakCount</li>
  *     <li>Thread.TotalStartedCount</li>
- *     <li>Thread.DeadlockCount</li>
- *     <li>Thread.{Runnable, Blocked, Waiting}.Count</li>
+ *     <li>Thread.{Runnable, Blocked, Waiting, TimedWaiting}.Count</li>
  * </ul>
+ *
+ * Counting thread states reads an info of every thread, which dominates the collection of JVMs
+ * with thousands of threads. A group may read infos of a random sample of threads instead, see
+ * {@link JvmMetricGroup}, and run this collector less often with its "Thread" collector interval.
+ * A metric is left out if the JVM doesn't have its attribute.
  */
 class ThreadCollector implements Collector {
-    private static Logger LOG = LoggerFactory.getLogger(ThreadCollector.class);
-    private final ThreadMXBean threadMXBean;
+    static final String[] ATTRIBUTES = {"ThreadCount", "DaemonThreadCount", "PeakThreadCount",
+            "TotalStartedThreadCount", "AllThreadIds"};
 
-    public ThreadCollector(ThreadMXBean threadMXBean) {
-        this.threadMXBean = checkNotNull(threadMXBean, "threadMXBean is null");
-    }
+    // state counts computed from infos of threads, kept in the attributes they are read along with
+    static final String THREAD_STATES = "ThreadStates";
 
-    @Override
-    public Collection<Metric> collect(String metricPrefix) {
-        Collection<Metric> metrics = Lists.newArrayList();
-        metricPrefix += "Thread.";
+    private static final Thread.State[] COUNTED_STATES = {
+            Thread.State.RUNNABLE, Thread.State.BLOCKED, Thread.State.WAITING, Thread.State.TIMED_WAITING};
+    private static final String[] COUNTED_STATE_NAMES = {
+            "Thread.Runnable.Count", "Thread.Blocked.Count", "Thread.Waiting.Count", "Thread.TimedWaiting.Count"};
 
-        metrics.add(new Metric(metricPrefix + "LiveCount", threadMXBean.getThreadCount(), GAUGE));
-        metrics.add(new Metric(metricPrefix + "DaemonCount", threadMXBean.getDaemonThreadCount(), GAUGE));
-        metrics.add(new Metric(metricPrefix + "PeakCount", threadMXBean.getPeakThreadCount(), GAUGE));
-        metrics.add(new Metric(metricPrefix + "TotalStartedCount", threadMXBean.getTotalStartedThreadCount(), GAUGE));
+    private final Attributes threading;
 
-        try {
-            long[] deadlocked = threadMXBean.findDeadlockedThreads();
-            int deadlockedCount = (deadlocked == null) ? 0 : deadlocked.length;
-            metrics.add(new Metric(metricPrefix + "DeadlockCount", deadlockedCount, GAUGE));
+    public ThreadCollector(Attributes threading) {
+        this.threading = checkNotNull(threading, "threading is null");
+    }
 
-        } catch (UnsupportedOperationException e) {
-            LOG.debug("findDeadlockedThreads is not supported", e);
+    /**
+     * Read attributes of the threading bean, then infos of threads, which takes two round trips.
+     */
+    static Attributes fetch(MBeanServerConnection connection, JvmMetricGroup metricGroup)
+            throws IOException, JMException {
+        Attributes threading = Attributes.fetch(connection, PlatformBeans.THREADING, ATTRIBUTES);
+        if (threading.has("AllThreadIds")) {
+            threading.put(THREAD_STATES, countStates(connection, (long[]) threading.get("AllThreadIds"), metricGroup));
         }
+        return threading;
+    }
 
-        int runnableCount = 0;
-        int blockedCount= 0;
-        int waitingCount = 0;
-        long[] allLiveIds = threadMXBean.getAllThreadIds();
+    /**
+     * Count states of threads `ids`, or estimate them from a random sample in "sampled" mode.
+     * Infos are read without stack traces, and only their states are decoded.
+     */
+    private static long[] countStates(MBeanServerConnection connection, long[] ids, JvmMetricGroup metricGroup)
+            throws IOException, JMException {
+        long[] readIds = ids;
+        if (metricGroup.getThreadStateMode() == JvmMetricGroup.ThreadStateMode.SAMPLED
+                && ids.length > metricGroup.getThreadStateSampleSize()) {
+            readIds = sample(ids, metricGroup.getThreadStateSampleSize());
+        }
 
-        for (ThreadInfo info : threadMXBean.getThreadInfo(allLiveIds)) {
+        CompositeData[] infos = (CompositeData[]) connection.invoke(PlatformBeans.THREADING, "getThreadInfo",
+                new Object[]{readIds}, new String[]{long[].class.getName()});
+        long[] counts = new long[Thread.State.values().length];
+        int read = 0;
+        for (CompositeData info : infos) {
+            // null for threads died after their ids were read
             if (info != null) {
-                switch (info.getThreadState()) {
-                    case RUNNABLE:
-                        runnableCount++;
-                        break;
-                    case BLOCKED:
-                        blockedCount++;
-                        break;
-                    case WAITING:
-                        waitingCount++;
-                        break;
-                }
+                counts[Thread.State.valueOf((String) info.get("threadState")).ordinal()]++;
+                read++;
             }
         }
 
-        metrics.add(new Metric(metricPrefix + "Runnable.Count", runnableCount, GAUGE));
-        metrics.add(new Metric(metricPrefix + "Blocked.Count", blockedCount, GAUGE));
-        metrics.add(new Metric(metricPrefix + "Waiting.Count", waitingCount, GAUGE));
+        // the sample is scaled by the infos actually read, so dead threads don't lower the estimate
+        if (readIds.length < ids.length && read > 0) {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = Math.round((double) counts[i] * ids.length / read);
+            }
+        }
+        return counts;
+    }
 
-        return metrics;
+    // `size` distinct ids chosen at random, by a partial Fisher-Yates shuffle
+    static long[] sample(long[] ids, int size) {
+        long[] shuffled = ids.clone();
+        Random random = ThreadLocalRandom.current();
+        for (int i = 0; i < size; i++) {
+            int j = i + random.nextInt(shuffled.length - i);
+            long tmp = shuffled[i];
+            shuffled[i] = shuffled[j];
+            shuffled[j] = tmp;
+        }
+        return Arrays.copyOf(shuffled, size);
+    }
+
+    @Override
+    public void collect(String metricPrefix, MetricBatch batch) {
+        if (threading.has("ThreadCount")) {
+            batch.add(metricPrefix, "Thread.LiveCount", threading.getLong("ThreadCount"), GAUGE);
+        }
+        if (threading.has("DaemonThreadCount")) {
+            batch.add(metricPrefix, "Thread.DaemonCount", threading.getLong("DaemonThreadCount"), GAUGE);
+        }
+        if (threading.has("PeakThreadCount")) {
+            batch.add(metricPrefix, "Thread.PeakCount", threading.getLong("PeakThreadCount"), GAUGE);
+        }
+        if (threading.has("TotalStartedThreadCount")) {
+            batch.add(metricPrefix, "Thread.TotalStartedCount", threading.getLong("TotalStartedThreadCount"), GAUGE);
+        }
+
+        if (!threading.has(THREAD_STATES)) {
+            return;
+        }
+        long[] counts = (long[]) threading.get(THREAD_STATES);
+        for (int i = 0; i < COUNTED_STATES.length; i++) {
+            batch.add(metricPrefix, COUNTED_STATE_NAMES[i], counts[COUNTED_STATES[i].ordinal()], GAUGE);
+        }
     }
 }
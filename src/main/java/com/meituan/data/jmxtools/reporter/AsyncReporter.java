@@ -0,0 +1,343 @@
+package com.meituan.data.jmxtools.reporter;
+
+import com.google.common.util.concurrent.RateLimiter;
+import com.meituan.data.jmxtools.jmx.Metric;
+import com.meituan.data.jmxtools.jmx.MetricBatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A reporter which queues reports and sends them to another reporter in its own thread,
+ * so that collecting threads never block on the monitoring system.
+ *
+ * <p>When the queue is full, a report is dropped according to the drop policy. A failed report
+ * is retried with exponential backoff, it's put aside until its retry is due, so that a failing
+ * endpoint or backend doesn't hold up the reports behind it. Options:
+ * <ul>
+ *     <li>queueSize: max reports waiting in queue, default {@value #DEFAULT_QUEUE_SIZE}</li>
+ *     <li>dropPolicy: "dropOldest" or "dropNewest" (the incoming one) when queue is full, default "dropOldest"</li>
+ *     <li>maxRetries: max retries of a failed report, default {@value #DEFAULT_MAX_RETRIES}</li>
+ *     <li>retryBackoff: backoff in milliseconds before the first retry, doubled on each retry up to
+ *     {@value #MAX_RETRY_BACKOFF_MILLIS}, default {@value #DEFAULT_RETRY_BACKOFF_MILLIS}</li>
+ *     <li>spoolDir: directory of the {@link Spool}, no spool by default</li>
+ *     <li>spoolMaxBytes: max size of the spool, default {@value #DEFAULT_SPOOL_MAX_BYTES}</li>
+ *     <li>spoolReplayRate: max spooled reports sent per second, default {@value #DEFAULT_SPOOL_REPLAY_RATE}</li>
+ * </ul>
+ *
+ * <p>With a spool, reports which failed all retries or were dropped from a full queue are spooled
+ * on disk instead of lost, and replayed with their original timestamps in the background, once a
+ * report succeeds again. Live reports go before spooled ones.
+ */
+public class AsyncReporter implements BatchReporter {
+    static final Logger LOG = LoggerFactory.getLogger(AsyncReporter.class);
+    static final int DEFAULT_QUEUE_SIZE = 1000;
+    static final int DEFAULT_MAX_RETRIES = 3;
+    static final int DEFAULT_RETRY_BACKOFF_MILLIS = 1000;
+    static final long MAX_RETRY_BACKOFF_MILLIS = 30 * 1000;
+    static final long CLOSE_TIMEOUT_MILLIS = 20 * 1000;
+    static final int DEFAULT_SPOOL_MAX_BYTES = 256 * 1024 * 1024;
+    static final int SPOOL_SEGMENT_BYTES = 8 * 1024 * 1024;
+    static final int DEFAULT_SPOOL_REPLAY_RATE = 5;
+
+    // a failed report and its next attempt
+    private static final class Retry implements Delayed {
+        final Report report;
+        final int attempt;
+        final long dueNanos;
+
+        Retry(Report report, int attempt, long delayMillis) {
+            this.report = report;
+            this.attempt = attempt;
+            this.dueNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(dueNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            long diff = dueNanos - ((Retry) other).dueNanos;
+            return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+        }
+    }
+
+    public enum DropPolicy {
+        DROP_OLDEST, DROP_NEWEST;
+
+        // "dropOldest" -> DROP_OLDEST
+        public static DropPolicy of(String s) {
+            checkNotNull(s);
+            return DropPolicy.valueOf(s.replaceAll("([a-z])([A-Z])", "$1_$2").toUpperCase());
+        }
+    }
+
+    private final Reporter delegate;
+    private final BlockingQueue<Report> queue;
+    // failed reports waiting for their retries, at most as many as the queue size
+    private final DelayQueue<Retry> retries = new DelayQueue<>();
+    private final int queueSize;
+    private final DropPolicy dropPolicy;
+    private final int maxRetries;
+    private final long retryBackoffMillis;
+    private final Spool spool;
+    private final RateLimiter replayLimiter;
+    private final Thread worker;
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile boolean closed;
+
+    public AsyncReporter(Reporter delegate, Map<String, String> options) {
+        this.delegate = checkNotNull(delegate, "delegate is null");
+        checkNotNull(options, "options is null");
+
+        int queueSize = Reporters.getIntOption(options, "queueSize", DEFAULT_QUEUE_SIZE);
+        checkArgument(queueSize > 0, "queueSize should be positive");
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.queueSize = queueSize;
+        try {
+            this.dropPolicy = options.containsKey("dropPolicy")
+                    ? DropPolicy.of(options.get("dropPolicy"))
+                    : DropPolicy.DROP_OLDEST;
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid dropPolicy value", e);
+        }
+        this.maxRetries = Reporters.getIntOption(options, "maxRetries", DEFAULT_MAX_RETRIES);
+        this.retryBackoffMillis = Reporters.getIntOption(options, "retryBackoff", DEFAULT_RETRY_BACKOFF_MILLIS);
+        checkArgument(maxRetries >= 0, "maxRetries should not be negative");
+        checkArgument(retryBackoffMillis > 0, "retryBackoff should be positive");
+
+        if (options.containsKey("spoolDir")) {
+            int spoolMaxBytes = Reporters.getIntOption(options, "spoolMaxBytes", DEFAULT_SPOOL_MAX_BYTES);
+            int replayRate = Reporters.getIntOption(options, "spoolReplayRate", DEFAULT_SPOOL_REPLAY_RATE);
+            checkArgument(replayRate > 0, "spoolReplayRate should be positive");
+            try {
+                this.spool = new Spool(new File(options.get("spoolDir")), spoolMaxBytes,
+                        Math.min(spoolMaxBytes, SPOOL_SEGMENT_BYTES));
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Failed to open spool in " + options.get("spoolDir"), e);
+            }
+            this.replayLimiter = RateLimiter.create(replayRate);
+        } else {
+            this.spool = null;
+            this.replayLimiter = null;
+        }
+
+        this.worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, "async-reporter");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Queue the report and return at once, metrics are copied into a batch.
+     *
+     * @throws MetricsReportException if the reporter is closed, or the report is dropped
+     *                                because the queue is full and policy is DROP_NEWEST
+     */
+    @Override
+    public void report(String serviceHost, String serviceName, long timestamp,
+                       List<Metric> metrics) throws MetricsReportException {
+        enqueue(new Report(serviceHost, serviceName, timestamp, metrics));
+    }
+
+    /**
+     * Queue a copy of the batch and return at once, see {@link #report(String, String, long, List)}.
+     */
+    @Override
+    public void report(String serviceHost, String serviceName, long timestamp,
+                       MetricBatch batch) throws MetricsReportException {
+        checkNotNull(batch, "batch is null");
+        enqueue(new Report(serviceHost, serviceName, timestamp, batch.copy()));
+    }
+
+    private void enqueue(Report report) throws MetricsReportException {
+        if (closed) {
+            throw new MetricsReportException("Reporter is closed");
+        }
+
+        while (!queue.offer(report)) {
+            if (dropPolicy == DropPolicy.DROP_NEWEST) {
+                dropped.incrementAndGet();
+                if (!spool(report)) {
+                    throw new MetricsReportException("Report queue is full, dropped " + report.metrics.size() + " metrics");
+                }
+                return;
+            }
+            Report oldest = queue.poll();
+            if (oldest != null) {
+                dropped.incrementAndGet();
+                if (!spool(oldest)) {
+                    LOG.warn("Report queue is full, dropped {} metrics of {} at {}",
+                            oldest.metrics.size(), oldest.serviceName, oldest.timestamp);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns number of reports dropped from the queue because it was full, including those spooled.
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Returns number of reports waiting in queue.
+     */
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    private void drain() {
+        // whether the last report succeeded, spooled reports are only replayed when it did
+        boolean healthy = true;
+        try {
+            while (true) {
+                boolean replaying = healthy && spool != null && !spool.isEmpty();
+                if (closed && queue.isEmpty() && retries.isEmpty() && !replaying) {
+                    break;
+                }
+
+                // due retries go first, they are older than queued reports
+                Retry retry = retries.poll();
+                if (retry != null) {
+                    healthy = send(retry.report, retry.attempt);
+                    continue;
+                }
+                Report report = replaying ? queue.poll() : queue.poll(getPollMillis(), TimeUnit.MILLISECONDS);
+                if (report != null) {
+                    healthy = send(report, 0);
+                } else if (replaying) {
+                    replayLimiter.acquire();
+                    healthy = replay();
+                }
+            }
+        } catch (InterruptedException e) {
+            LOG.warn("Reporter thread interrupted, {} reports not sent", queue.size() + retries.size());
+        }
+    }
+
+    // wait for queued reports at most until the next retry is due
+    private long getPollMillis() {
+        Retry next = retries.peek();
+        return next == null ? 1000 : Math.max(0, Math.min(1000, next.getDelay(TimeUnit.MILLISECONDS)));
+    }
+
+    /**
+     * Make attempt `attempt` (0 for the first one) to send a report. A failed report is put aside
+     * for a retry, or spooled once it failed all retries.
+     * @return whether the report is sent
+     */
+    private boolean send(Report report, int attempt) {
+        try {
+            report.sendTo(delegate);
+            LOG.info("Successfully report {} metrics of {}", report.metrics.size(), report.serviceName);
+            return true;
+
+        } catch (MetricsReportException | RuntimeException e) {
+            if (attempt >= maxRetries || retries.size() >= queueSize) {
+                LOG.error("Failed to report " + report.metrics.size() + " metrics of " + report.serviceName
+                        + " after " + (attempt + 1) + " attempts", e);
+                spool(report);
+                return false;
+            }
+            long backoff = Math.min(MAX_RETRY_BACKOFF_MILLIS, retryBackoffMillis << Math.min(attempt, 30));
+            LOG.warn("Failed to report metrics of {}, retry in {}ms: {}", report.serviceName, backoff, e.toString());
+            retries.add(new Retry(report, attempt + 1, backoff));
+            return false;
+        }
+    }
+
+    /**
+     * Send the oldest spooled report once.
+     * @return whether the report is sent
+     */
+    private boolean replay() {
+        try {
+            Report report = spool.peek();
+            if (report == null) {
+                return true;
+            }
+            report.sendTo(delegate);
+            spool.remove();
+            LOG.info("Successfully replayed {} metrics of {} at {}, {} reports left in spool",
+                    report.metrics.size(), report.serviceName, report.timestamp, spool.getPendingCount());
+            return true;
+
+        } catch (MetricsReportException | RuntimeException e) {
+            LOG.warn("Failed to replay spooled report, stop replaying until a report succeeds: {}", e.toString());
+            return false;
+        }
+    }
+
+    /**
+     * Keep a report in the spool for replaying later.
+     * @return false if there is no spool or spooling failed
+     */
+    private boolean spool(Report report) {
+        if (spool == null) {
+            return false;
+        }
+        try {
+            spool.append(report);
+            LOG.info("Spooled {} metrics of {} at {}", report.metrics.size(), report.serviceName, report.timestamp);
+            return true;
+        } catch (IOException e) {
+            LOG.error("Failed to spool " + report.metrics.size() + " metrics of " + report.serviceName, e);
+            return false;
+        }
+    }
+
+    /**
+     * Stop accepting reports and wait (at most {@value #CLOSE_TIMEOUT_MILLIS}ms) until queued reports
+     * and retries are sent and the spool is replayed, then close the underlying reporter. Reports
+     * still in queue or waiting for retries after that are spooled.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        try {
+            worker.join(CLOSE_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (worker.isAlive()) {
+            worker.interrupt();
+            try {
+                worker.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (spool != null) {
+            for (Report report = queue.poll(); report != null; report = queue.poll()) {
+                spool(report);
+            }
+            for (Retry retry : retries) {
+                spool(retry.report);
+            }
+            retries.clear();
+            spool.close();
+        }
+        delegate.close();
+    }
+}
@@ -0,0 +1,19 @@
+package com.meituan.data.jmxtools.reporter;
+
+import com.meituan.data.jmxtools.jmx.MetricBatch;
+
+/**
+ * A reporter also taking metrics as a {@link MetricBatch}, which saves creating a
+ * {@link com.meituan.data.jmxtools.jmx.Metric} per metric on the collection path.
+ * Use {@link Reporters#report(Reporter, String, String, long, MetricBatch)} to report a batch
+ * to any reporter.
+ */
+public interface BatchReporter extends Reporter {
+
+    /**
+     * Report all metrics in the batch, like {@link #report(String, String, long, java.util.List)}.
+     * The batch is reused by the caller after this call returns, an implementation keeping
+     * metrics for later must copy them.
+     */
+    void report(String serviceHost, String serviceName, long timestamp, MetricBatch batch) throws MetricsReportException;
+}
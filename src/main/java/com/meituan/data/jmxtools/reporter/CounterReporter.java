@@ -0,0 +1,135 @@
+package com.meituan.data.jmxtools.reporter;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.meituan.data.jmxtools.jmx.Metric;
+import com.meituan.data.jmxtools.jmx.MetricBatch;
+import com.meituan.data.jmxtools.jmx.MetricNames;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A reporter turning cumulative COUNTER metrics into deltas or per-second rates before passing
+ * reports to its delegate, for backends without counter semantics.
+ *
+ * <p>Last values of counters are kept per service and host. A counter is left out of a report
+ * when there is no previous value of it within `counterMaxGapSeconds`, e.g. the first report, or
+ * the first report after an outage. Options:
+ * <ul>
+ *     <li>counterMode: "raw" to pass counters as is (default), "delta" or "rate". Computed
+ *     values are reported as GAUGE, and rates are named with ".Rate" instead of ".Delta"</li>
+ *     <li>counterMaxGapSeconds: max seconds between two values of a counter to compute a delta,
+ *     default {@value #DEFAULT_MAX_GAP_SECONDS}</li>
+ * </ul>
+ */
+class CounterReporter implements BatchReporter {
+    static final int DEFAULT_MAX_GAP_SECONDS = 600;
+    static final String DELTA_SUFFIX = ".Delta";
+    static final String RATE_SUFFIX = ".Rate";
+
+    enum Mode {
+        RAW, DELTA, RATE;
+
+        static Mode of(String name) {
+            for (Mode mode : values()) {
+                if (mode.name().equalsIgnoreCase(name)) {
+                    return mode;
+                }
+            }
+            throw new IllegalArgumentException("Invalid counterMode value: " + name);
+        }
+    }
+
+    private final Reporter delegate;
+    private final boolean perSecond;
+    private final long maxGapSeconds;
+    private final LoadingCache<String, CounterStore> stores;
+
+    CounterReporter(Reporter delegate, Map<String, String> options) {
+        this.delegate = checkNotNull(delegate, "delegate is null");
+        checkNotNull(options, "options is null");
+
+        Mode mode = getMode(options);
+        checkArgument(mode != Mode.RAW, "counterMode is raw");
+        this.perSecond = mode == Mode.RATE;
+        this.maxGapSeconds = Reporters.getIntOption(options, "counterMaxGapSeconds", DEFAULT_MAX_GAP_SECONDS);
+        checkArgument(maxGapSeconds > 0, "counterMaxGapSeconds should be positive");
+
+        // an endpoint not reported for longer than the max gap has nothing worth keeping
+        this.stores = CacheBuilder.newBuilder()
+                .expireAfterAccess(maxGapSeconds, TimeUnit.SECONDS)
+                .build(new CacheLoader<String, CounterStore>() {
+                    @Override
+                    public CounterStore load(String key) {
+                        return new CounterStore();
+                    }
+                });
+    }
+
+    static Mode getMode(Map<String, String> options) {
+        String mode = options.get("counterMode");
+        return mode == null ? Mode.RAW : Mode.of(mode);
+    }
+
+    @Override
+    public void report(String serviceHost, String serviceName, long timestamp,
+                       List<Metric> metrics) throws MetricsReportException {
+        checkNotNull(metrics, "metrics is null");
+        report(serviceHost, serviceName, timestamp, MetricBatch.of(metrics));
+    }
+
+    @Override
+    public void report(String serviceHost, String serviceName, long timestamp,
+                       MetricBatch batch) throws MetricsReportException {
+        checkNotNull(serviceHost, "serviceHost is null");
+        checkNotNull(serviceName, "serviceName is null");
+        checkNotNull(batch, "batch is null");
+
+        CounterStore store = stores.getUnchecked(serviceName + "@" + serviceHost);
+        MetricNames names = batch.getNames();
+        // the result batch is reused among reports of an endpoint, delegates keeping it copy it (see BatchReporter)
+        synchronized (store) {
+            MetricBatch result = store.scratch(names);
+            int counters = 0;
+            for (int i = 0; i < batch.size(); i++) {
+                if (batch.getType(i) != Metric.Type.COUNTER) {
+                    result.add(batch, i);
+                    continue;
+                }
+
+                counters++;
+                Number value = store.update(batch, i, timestamp, maxGapSeconds, perSecond);
+                if (value != null) {
+                    int nameId = perSecond ? store.getRateNameId() : batch.getNameId(i);
+                    result.add(nameId, value, Metric.Type.GAUGE, batch.getTags(i));
+                }
+            }
+
+            // counters of exited JVMs or removed beans are dropped once they grow noticeable
+            if (store.size() > counters * 2 + 64) {
+                store.evictBefore(timestamp - maxGapSeconds);
+            }
+
+            Reporters.report(delegate, serviceHost, serviceName, timestamp, result);
+        }
+    }
+
+    static String rateName(String name) {
+        if (name.endsWith(DELTA_SUFFIX)) {
+            return name.substring(0, name.length() - DELTA_SUFFIX.length()) + RATE_SUFFIX;
+        }
+        return name + RATE_SUFFIX;
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+}
@@ -0,0 +1,214 @@
+package com.meituan.data.jmxtools.reporter;
+
+import com.meituan.data.jmxtools.jmx.MetricBatch;
+import com.meituan.data.jmxtools.jmx.MetricNames;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Last values of the counters of an endpoint, for computing deltas between reports.
+ *
+ * <p>A counter is identified by the name id of its {@link MetricNames} and its tags. Each counter
+ * is given a slot, found by an open addressing table of ints, and values, types and timestamps
+ * of slots are kept in primitive arrays, so updating a counter allocates nothing once its slot
+ * exists. Integral counters are kept as long to stay exact.
+ *
+ * <p>Name ids are translated once when reports come with another dictionary (e.g. the endpoint
+ * renewed its dictionary), so that counters are kept.
+ */
+class CounterStore {
+    private MetricNames names;
+    private int[] table = new int[32];     // slot + 1 of each hash bucket, 0 if empty
+    private int[] nameIds = new int[16];
+    private Map<String, String>[] tags = newTagsArray(16);
+    private boolean[] integral = new boolean[16];
+    private long[] longValues = new long[16];
+    private double[] doubleValues = new double[16];
+    private long[] timestamps = new long[16];
+    private int[] rateNameIds = new int[16]; // -1 until the rate name is interned
+    private int size;
+    private int lastSlot = -1;
+    // batch of computed reports of the endpoint, reused among reports
+    private MetricBatch scratch;
+
+    /**
+     * Record the value of counter `index` of `batch` at `timestamp`, and returns the delta since its
+     * previous value (divided by elapsed seconds if `perSecond`), or null if there is no previous
+     * value within `maxGapSeconds`.
+     *
+     * <p>A value less than the previous one means the counter was reset (e.g. the JVM restarted),
+     * the delta is then the value itself, i.e. counted from zero. A value of another type than the
+     * previous one (integral or floating point) is also taken as a reset, but nothing is returned
+     * since the two values don't compare. A timestamp not after the previous one is ignored.
+     */
+    synchronized Number update(MetricBatch batch, int index, long timestamp, long maxGapSeconds, boolean perSecond) {
+        if (batch.getNames() != names) {
+            translate(batch.getNames());
+        }
+        boolean isIntegral = batch.isIntegral(index);
+        long longValue = isIntegral ? batch.getLong(index) : 0;
+        double doubleValue = isIntegral ? longValue : batch.getDouble(index);
+
+        int slot = find(batch.getNameId(index), batch.getTags(index));
+        if (slot < 0) {
+            slot = allocate(batch.getNameId(index), batch.getTags(index));
+            set(slot, isIntegral, longValue, doubleValue, timestamp);
+            return null;
+        }
+        lastSlot = slot;
+
+        long elapsed = timestamp - timestamps[slot];
+        if (elapsed <= 0) {
+            return null; // duplicated or out of order
+        }
+
+        Number delta = null;
+        if (elapsed <= maxGapSeconds && isIntegral == integral[slot]) {
+            if (isIntegral) {
+                long previous = longValues[slot];
+                delta = longValue >= previous ? longValue - previous : longValue;
+            } else {
+                double previous = doubleValues[slot];
+                delta = doubleValue >= previous ? doubleValue - previous : doubleValue;
+            }
+            if (perSecond) {
+                delta = delta.doubleValue() / elapsed;
+            }
+        }
+
+        set(slot, isIntegral, longValue, doubleValue, timestamp);
+        return delta;
+    }
+
+    /**
+     * Name id of the rate of the counter last updated, interned the first time it's asked.
+     */
+    synchronized int getRateNameId() {
+        if (rateNameIds[lastSlot] < 0) {
+            rateNameIds[lastSlot] = names.intern(CounterReporter.rateName(names.getName(nameIds[lastSlot])));
+        }
+        return rateNameIds[lastSlot];
+    }
+
+    /**
+     * The cleared scratch batch of `names`, only used while holding the lock of this store.
+     */
+    MetricBatch scratch(MetricNames names) {
+        if (scratch == null || scratch.getNames() != names) {
+            scratch = new MetricBatch(names);
+        } else {
+            scratch.clear();
+        }
+        return scratch;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Forget counters not updated since `timestamp`, to bound memory when counters come and go.
+     */
+    synchronized void evictBefore(long timestamp) {
+        int newSize = 0;
+        for (int slot = 0; slot < size; slot++) {
+            if (timestamps[slot] >= timestamp) {
+                // slots only move down, so a kept slot is never overwritten before it's moved
+                nameIds[newSize] = nameIds[slot];
+                tags[newSize] = tags[slot];
+                integral[newSize] = integral[slot];
+                longValues[newSize] = longValues[slot];
+                doubleValues[newSize] = doubleValues[slot];
+                timestamps[newSize] = timestamps[slot];
+                rateNameIds[newSize] = rateNameIds[slot];
+                newSize++;
+            }
+        }
+        Arrays.fill(tags, newSize, size, null);
+        size = newSize;
+        lastSlot = -1;
+        rehash(table.length);
+    }
+
+    // ids of counters are translated to `newNames` by their names
+    private void translate(MetricNames newNames) {
+        for (int slot = 0; slot < size; slot++) {
+            nameIds[slot] = newNames.intern(names.getName(nameIds[slot]));
+            rateNameIds[slot] = -1;
+        }
+        names = newNames;
+        rehash(table.length);
+    }
+
+    private int find(int nameId, Map<String, String> counterTags) {
+        int mask = table.length - 1;
+        for (int bucket = hash(nameId, counterTags) & mask; ; bucket = (bucket + 1) & mask) {
+            int slot = table[bucket] - 1;
+            if (slot < 0) {
+                return -1;
+            }
+            if (nameIds[slot] == nameId && (tags[slot] == counterTags || tags[slot].equals(counterTags))) {
+                return slot;
+            }
+        }
+    }
+
+    private int allocate(int nameId, Map<String, String> counterTags) {
+        if (size == timestamps.length) {
+            int capacity = size * 2;
+            nameIds = Arrays.copyOf(nameIds, capacity);
+            tags = Arrays.copyOf(tags, capacity);
+            integral = Arrays.copyOf(integral, capacity);
+            longValues = Arrays.copyOf(longValues, capacity);
+            doubleValues = Arrays.copyOf(doubleValues, capacity);
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            rateNameIds = Arrays.copyOf(rateNameIds, capacity);
+        }
+        int slot = size++;
+        nameIds[slot] = nameId;
+        tags[slot] = counterTags;
+        rateNameIds[slot] = -1;
+        // load factor of the table is kept under 1/2
+        if (size * 2 > table.length) {
+            rehash(table.length * 2);
+        } else {
+            insert(slot);
+        }
+        lastSlot = slot;
+        return slot;
+    }
+
+    private void rehash(int capacity) {
+        table = new int[capacity];
+        for (int slot = 0; slot < size; slot++) {
+            insert(slot);
+        }
+    }
+
+    private void insert(int slot) {
+        int mask = table.length - 1;
+        int bucket = hash(nameIds[slot], tags[slot]) & mask;
+        while (table[bucket] != 0) {
+            bucket = (bucket + 1) & mask;
+        }
+        table[bucket] = slot + 1;
+    }
+
+    private static int hash(int nameId, Map<String, String> counterTags) {
+        int h = nameId * 31 + (counterTags.isEmpty() ? 0 : counterTags.hashCode());
+        return h ^ (h >>> 16);
+    }
+
+    private void set(int slot, boolean isIntegral, long longValue, double doubleValue, long timestamp) {
+        integral[slot] = isIntegral;
+        longValues[slot] = longValue;
+        doubleValues[slot] = doubleValue;
+        timestamps[slot] = timestamp;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Map<String, String>[] newTagsArray(int capacity) {
+        return new Map[capacity];
+    }
+}
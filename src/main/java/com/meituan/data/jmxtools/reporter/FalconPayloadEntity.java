@@ -0,0 +1,155 @@
+package com.meituan.data.jmxtools.reporter;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.google.common.base.Joiner;
+import com.meituan.data.jmxtools.jmx.Metric;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * HTTP entity of a falcon push request, which encodes metrics straight into the request
+ * stream, rather than building the whole JSON payload in memory first.
+ *
+ * <p>The payload is an array of items like
+ * <pre>
+ * {"endpoint": host, "metric": serviceName.metricName, "timestamp": ts, "step": step,
+ *  "value": value, "counterType": "GAUGE" or "COUNTER", "tags": "k1=v1,k2=v2"}
+ * </pre>
+ */
+class FalconPayloadEntity extends AbstractHttpEntity {
+    // JsonFactory is thread safe, and recycles buffers of generators
+    private static final JsonFactory JSON_FACTORY = new JsonFactory()
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    private static final Joiner.MapJoiner TAGS_JOINER = Joiner.on(',').withKeyValueSeparator("=");
+
+    // bytes of an item besides its strings: field names, punctuation, timestamp, step, value and type
+    static final int ITEM_OVERHEAD_BYTES = 128;
+
+    private final String serviceHost;
+    private final String serviceName;
+    private final int timestamp;
+    private final int step;
+    private final List<Metric> metrics;
+    private final boolean gzip;
+
+    FalconPayloadEntity(String serviceHost, String serviceName, long timestamp, int step,
+                        List<Metric> metrics, boolean gzip) {
+        this.serviceHost = checkNotNull(serviceHost, "serviceHost is null");
+        this.serviceName = checkNotNull(serviceName, "serviceName is null");
+        this.timestamp = (int) timestamp;
+        this.step = step;
+        this.metrics = checkNotNull(metrics, "metrics is null");
+        this.gzip = gzip;
+
+        setContentType(ContentType.APPLICATION_JSON.toString());
+        if (gzip) {
+            setContentEncoding("gzip");
+        }
+        setChunked(true);
+    }
+
+    /**
+     * Estimated bytes of the item of `metric` in an uncompressed payload, assuming ASCII names.
+     */
+    static int estimateSize(String serviceHost, String serviceName, Metric metric) {
+        int size = ITEM_OVERHEAD_BYTES + serviceHost.length() + serviceName.length() + 1 + metric.getName().length();
+        for (Map.Entry<String, String> tag : metric.getTags().entrySet()) {
+            size += tag.getKey().length() + tag.getValue().length() + 2;
+        }
+        return size;
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        return -1;
+    }
+
+    /**
+     * Payload in memory, for callers that read the entity (e.g. logging or buffering wrappers),
+     * requests are sent with {@link #writeTo(OutputStream)}.
+     */
+    @Override
+    public InputStream getContent() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeTo(out);
+        return new ByteArrayInputStream(out.toByteArray());
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        checkNotNull(out, "out is null");
+        if (gzip) {
+            GZIPOutputStream gzipOut = new GZIPOutputStream(out);
+            write(gzipOut);
+            gzipOut.finish();
+        } else {
+            write(out);
+        }
+    }
+
+    private void write(OutputStream out) throws IOException {
+        // "serviceName." followed by the metric name, reused among metrics
+        char[] name = new char[serviceName.length() + 64];
+        serviceName.getChars(0, serviceName.length(), name, 0);
+        name[serviceName.length()] = '.';
+        int prefixLength = serviceName.length() + 1;
+
+        try (JsonGenerator gen = JSON_FACTORY.createGenerator(out)) {
+            gen.writeStartArray();
+            for (Metric metric : metrics) {
+                String metricName = metric.getName();
+                if (prefixLength + metricName.length() > name.length) {
+                    char[] larger = new char[(prefixLength + metricName.length()) * 2];
+                    System.arraycopy(name, 0, larger, 0, prefixLength);
+                    name = larger;
+                }
+                metricName.getChars(0, metricName.length(), name, prefixLength);
+
+                gen.writeStartObject();
+                gen.writeStringField("endpoint", serviceHost);
+                gen.writeFieldName("metric");
+                gen.writeString(name, 0, prefixLength + metricName.length());
+                gen.writeNumberField("timestamp", timestamp);
+                gen.writeNumberField("step", step);
+                gen.writeFieldName("value");
+                writeNumber(gen, metric.getValue());
+                gen.writeStringField("counterType", metric.getType().name());
+                gen.writeStringField("tags", metric.getTags().isEmpty() ? "" : TAGS_JOINER.join(metric.getTags()));
+                gen.writeEndObject();
+            }
+            gen.writeEndArray();
+        }
+    }
+
+    private static void writeNumber(JsonGenerator gen, Number value) throws IOException {
+        if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            gen.writeNumber(value.longValue());
+        } else if (value instanceof Float || value instanceof Double) {
+            gen.writeNumber(value.doubleValue());
+        } else {
+            gen.writeNumber(value.toString());
+        }
+    }
+}
@@ -1,13 +1,14 @@
 package com.meituan.data.jmxtools.reporter;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.meituan.data.jmxtools.jmx.Metric;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -15,6 +16,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.*;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -22,34 +24,39 @@ import static com.google.common.base.Preconditions.checkNotNull;
 /**
  * Report metrics to Falcon. See
  * http://wiki.sankuai.com/pages/viewpage.action?pageId=217873642
+ *
+ * <p>All reports share one HTTP client whose connections are pooled and kept alive, so
+ * endpoints reporting every step don't each open a new TCP connection. Options:
+ * <ul>
+ *     <li>apiUrl: url of falcon push api, required</li>
+ *     <li>step: interval of metrics in seconds, required</li>
+ *     <li>connectTimeout: connect timeout in milliseconds, default {@value #DEFAULT_CONNECT_TIMEOUT_MILLIS}</li>
+ *     <li>socketTimeout: read timeout in milliseconds, default {@value #DEFAULT_SOCKET_TIMEOUT_MILLIS}</li>
+ *     <li>maxConnections: max pooled connections, default {@value #DEFAULT_MAX_CONNECTIONS}</li>
+ *     <li>gzip: "true" to send payload with gzip content encoding, default false</li>
+ *     <li>maxBatchSize: max metrics per request, default {@value #DEFAULT_MAX_BATCH_SIZE}</li>
+ *     <li>maxBatchBytes: max estimated bytes of uncompressed payload per request,
+ *     default {@value #DEFAULT_MAX_BATCH_BYTES}</li>
+ * </ul>
+ *
+ * <p>Metrics exceeding a batch limit are split into several requests sent concurrently.
  */
 class FalconReporter implements Reporter {
     static final Logger LOG = LoggerFactory.getLogger(FalconReporter.class);
+    static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 5000;
+    static final int DEFAULT_SOCKET_TIMEOUT_MILLIS = 10000;
+    static final int DEFAULT_MAX_CONNECTIONS = 32;
+    static final int IDLE_CONNECTION_TIMEOUT_SECONDS = 60;
+    static final int DEFAULT_MAX_BATCH_SIZE = 1000;
+    static final int DEFAULT_MAX_BATCH_BYTES = 1024 * 1024;
 
     private final String apiUrl;
     private final int step;
-    private final long timestamp;
-
-    private static class PayloadItem {
-        public String endpoint;
-        public String metric;
-        public int timestamp;
-        public int step;
-        public Number value;
-        public Metric.Type counterType;
-        public String tags;
-
-        public PayloadItem(String endpoint, String metric, int timestamp, int step,
-                           Number value, Metric.Type counterType) {
-            this.endpoint = endpoint;
-            this.metric = metric;
-            this.timestamp = timestamp;
-            this.step = step;
-            this.value = value;
-            this.counterType = counterType;
-            this.tags = "";
-        }
-    }
+    private final boolean gzip;
+    private final int maxBatchSize;
+    private final int maxBatchBytes;
+    private final CloseableHttpClient client;
+    private final ExecutorService batchPool;
 
     FalconReporter(Map<String, String> options) {
         checkNotNull(options, "options is null");
@@ -57,45 +64,121 @@ class FalconReporter implements Reporter {
         checkArgument(options.get("step") != null, "step not found in options");
 
         apiUrl = options.get("apiUrl");
-        try {
-            step = Integer.parseInt(options.get("step"));
-        } catch (NumberFormatException e) {
-            throw new IllegalArgumentException("Invalid step value", e);
-        }
-        this.timestamp = System.currentTimeMillis() / 1000;
-    }
-
-    private String convertToPayload(String serviceHost, String serviceName,
-                                    List<Metric> metrics) throws JsonProcessingException {
-        List<PayloadItem> payload = new ArrayList<>();
-        for (Metric metric : metrics) {
-            payload.add(new PayloadItem(serviceHost,
-                    serviceName + "." + metric.getName(),
-                    (int) this.timestamp,
-                    this.step,
-                    metric.getValue(),
-                    metric.getType()));
-        }
-
-        ObjectMapper mapper = new ObjectMapper();
-        return mapper.writeValueAsString(payload);
+        step = Reporters.getIntOption(options, "step", 0);
+        gzip = Boolean.parseBoolean(options.get("gzip"));
+        maxBatchSize = Reporters.getIntOption(options, "maxBatchSize", DEFAULT_MAX_BATCH_SIZE);
+        maxBatchBytes = Reporters.getIntOption(options, "maxBatchBytes", DEFAULT_MAX_BATCH_BYTES);
+        checkArgument(maxBatchSize > 0, "maxBatchSize should be positive");
+        checkArgument(maxBatchBytes > 0, "maxBatchBytes should be positive");
+
+        int maxConnections = Reporters.getIntOption(options, "maxConnections", DEFAULT_MAX_CONNECTIONS);
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnections);
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(Reporters.getIntOption(options, "connectTimeout", DEFAULT_CONNECT_TIMEOUT_MILLIS))
+                .setSocketTimeout(Reporters.getIntOption(options, "socketTimeout", DEFAULT_SOCKET_TIMEOUT_MILLIS))
+                .setConnectionRequestTimeout(Reporters.getIntOption(options, "connectTimeout", DEFAULT_CONNECT_TIMEOUT_MILLIS))
+                .build();
+
+        client = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .evictExpiredConnections()
+                .evictIdleConnections(IDLE_CONNECTION_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                .build();
+
+        // at most one thread per pooled connection, the caller sends by itself when all are busy
+        batchPool = new ThreadPoolExecutor(
+                0, maxConnections, 60, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(),
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("falcon-reporter-%d").build(),
+                new ThreadPoolExecutor.CallerRunsPolicy());
     }
 
     @Override
-    public void report(String serviceHost, String serviceName, List<Metric> metrics) throws MetricsReportException {
+    public void report(final String serviceHost, final String serviceName, final long timestamp,
+                       List<Metric> metrics) throws MetricsReportException {
         checkNotNull(serviceHost, "serviceHost is null");
         checkNotNull(serviceName, "serviceName is null");
         checkNotNull(metrics, "metrics is null");
 
-        try {
-            String payload = convertToPayload(serviceHost, serviceName, metrics);
+        List<List<Metric>> batches = split(serviceHost, serviceName, metrics, maxBatchSize, maxBatchBytes);
+        if (batches.size() == 1) {
+            send(serviceHost, serviceName, timestamp, batches.get(0));
+            return;
+        }
 
+        // send batches concurrently, then wait for all of them
+        List<Future<?>> futures = new ArrayList<>(batches.size());
+        for (final List<Metric> batch : batches) {
+            futures.add(batchPool.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws MetricsReportException {
+                    send(serviceHost, serviceName, timestamp, batch);
+                    return null;
+                }
+            }));
+        }
+
+        List<Integer> failedBatches = new ArrayList<>();
+        Throwable failure = null;
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                futures.get(i).get();
+            } catch (ExecutionException e) {
+                failedBatches.add(i);
+                failure = e.getCause();
+            } catch (InterruptedException e) {
+                for (Future<?> future : futures) {
+                    future.cancel(true);
+                }
+                Thread.currentThread().interrupt();
+                throw new MetricsReportException("Interrupted while reporting metrics to Falcon", e);
+            }
+        }
+
+        if (!failedBatches.isEmpty()) {
+            throw new MetricsReportException("Failed to report batches " + failedBatches + " of " + batches.size()
+                    + " (" + metrics.size() + " metrics) to Falcon", failure);
+        }
+    }
+
+    /**
+     * Split `metrics` into batches of at most `maxSize` metrics, and at most `maxBytes`
+     * estimated payload bytes unless a single metric exceeds it.
+     */
+    static List<List<Metric>> split(String serviceHost, String serviceName, List<Metric> metrics,
+                                    int maxSize, long maxBytes) {
+        List<List<Metric>> batches = new ArrayList<>();
+        int start = 0;
+        long bytes = 0;
+        for (int i = 0; i < metrics.size(); i++) {
+            int size = FalconPayloadEntity.estimateSize(serviceHost, serviceName, metrics.get(i));
+            if (i > start && (i - start >= maxSize || bytes + size > maxBytes)) {
+                batches.add(metrics.subList(start, i));
+                start = i;
+                bytes = 0;
+            }
+            bytes += size;
+        }
+        if (start < metrics.size() || batches.isEmpty()) {
+            batches.add(metrics.subList(start, metrics.size()));
+        }
+        return batches;
+    }
+
+    private void send(String serviceHost, String serviceName, long timestamp,
+                      List<Metric> metrics) throws MetricsReportException {
+        try {
             HttpPost post = new HttpPost(apiUrl);
-            post.setEntity(new StringEntity(payload));
+            post.setEntity(new FalconPayloadEntity(serviceHost, serviceName, timestamp, step, metrics, gzip));
 
-            try (CloseableHttpClient client = HttpClients.createDefault()) {
-                CloseableHttpResponse resp = client.execute(post);
+            // the response must be consumed so that its connection goes back to the pool
+            try (CloseableHttpResponse resp = client.execute(post)) {
                 LOG.debug("http response status: {}", resp.getStatusLine().toString());
+                EntityUtils.consume(resp.getEntity());
 
                 int statusCode = resp.getStatusLine().getStatusCode();
                 if (statusCode != 200) {
@@ -107,4 +190,10 @@ class FalconReporter implements Reporter {
             throw new MetricsReportException("Failed to report metrics to Falcon", e);
         }
     }
+
+    @Override
+    public void close() throws IOException {
+        batchPool.shutdown();
+        client.close();
+    }
 }
@@ -0,0 +1,82 @@
+package com.meituan.data.jmxtools.reporter;
+
+import com.google.common.collect.ImmutableList;
+import com.meituan.data.jmxtools.jmx.Metric;
+import com.meituan.data.jmxtools.jmx.MetricBatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A reporter sending every report to all of its reporters.
+ *
+ * <p>Reporters are called one by one, so they should be {@link AsyncReporter}s which return at
+ * once, then each reporter sends in its own thread from its own queue, and a slow reporter
+ * doesn't hold back the others.
+ */
+class FanOutReporter implements BatchReporter {
+    static final Logger LOG = LoggerFactory.getLogger(FanOutReporter.class);
+
+    private final List<Reporter> reporters;
+
+    FanOutReporter(List<? extends Reporter> reporters) {
+        checkNotNull(reporters, "reporters is null");
+        checkArgument(!reporters.isEmpty(), "reporters is empty");
+        this.reporters = ImmutableList.copyOf(reporters);
+    }
+
+    /**
+     * @throws MetricsReportException if any reporter failed, after all reporters are called
+     */
+    @Override
+    public void report(String serviceHost, String serviceName, long timestamp,
+                       List<Metric> metrics) throws MetricsReportException {
+        checkNotNull(metrics, "metrics is null");
+        report(serviceHost, serviceName, timestamp, MetricBatch.of(metrics));
+    }
+
+    /**
+     * @throws MetricsReportException if any reporter failed, after all reporters are called
+     */
+    @Override
+    public void report(String serviceHost, String serviceName, long timestamp,
+                       MetricBatch batch) throws MetricsReportException {
+        List<Integer> failedReporters = new ArrayList<>();
+        MetricsReportException failure = null;
+        for (int i = 0; i < reporters.size(); i++) {
+            try {
+                Reporters.report(reporters.get(i), serviceHost, serviceName, timestamp, batch);
+            } catch (MetricsReportException e) {
+                failedReporters.add(i);
+                failure = e;
+            }
+        }
+
+        if (failure != null) {
+            throw new MetricsReportException("Reporters " + failedReporters + " of " + reporters.size()
+                    + " failed to report metrics", failure);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (Reporter reporter : reporters) {
+            try {
+                reporter.close();
+            } catch (IOException e) {
+                LOG.warn("Failed to close " + reporter, e);
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
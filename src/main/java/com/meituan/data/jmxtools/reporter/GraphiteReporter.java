@@ -0,0 +1,116 @@
+package com.meituan.data.jmxtools.reporter;
+
+import com.meituan.data.jmxtools.jmx.MetricBatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Report metrics to Graphite in plaintext protocol over TCP. The connection is kept open between
+ * reports, and lines are written in chunks of `packetSize` bytes.
+ *
+ * <p>Metric is sent as "{serviceName}.{serviceHost}.{metricName};k1=v1 {value} {timestamp}", with
+ * tags of the metric in Graphite 1.1 format. Options:
+ * <ul>
+ *     <li>host: host of Graphite, required</li>
+ *     <li>port: port of Graphite plaintext receiver, default {@value #DEFAULT_PORT}</li>
+ *     <li>packetSize: bytes of a write, default {@value #DEFAULT_PACKET_SIZE} which is the
+ *     TCP payload of an ethernet frame</li>
+ *     <li>connectTimeout: connect timeout in milliseconds, default {@value #DEFAULT_CONNECT_TIMEOUT_MILLIS}</li>
+ * </ul>
+ */
+class GraphiteReporter extends LineReporter {
+    static final Logger LOG = LoggerFactory.getLogger(GraphiteReporter.class);
+    static final int DEFAULT_PORT = 2003;
+    static final int DEFAULT_PACKET_SIZE = 1460;
+    static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 5000;
+    // characters having a meaning in metric paths and tags
+    static final String INVALID_NAME_CHARS = ";=~";
+
+    private final InetSocketAddress address;
+    private final int connectTimeoutMillis;
+    private SocketChannel channel;
+
+    GraphiteReporter(Map<String, String> options) {
+        super(Reporters.getIntOption(checkNotNull(options, "options is null"), "packetSize", DEFAULT_PACKET_SIZE));
+        checkArgument(options.get("host") != null, "host not found in options");
+
+        address = new InetSocketAddress(options.get("host"), Reporters.getIntOption(options, "port", DEFAULT_PORT));
+        connectTimeoutMillis = Reporters.getIntOption(options, "connectTimeout", DEFAULT_CONNECT_TIMEOUT_MILLIS);
+    }
+
+    @Override
+    boolean appendLine(StringBuilder sb, String serviceHost, String serviceName, long timestamp,
+                       MetricBatch batch, int index) {
+        if (!isFinite(batch, index)) {
+            return false;
+        }
+        appendSanitized(sb, serviceName, INVALID_NAME_CHARS);
+        sb.append('.');
+        appendSanitized(sb, serviceHost.replace('.', '_'), INVALID_NAME_CHARS);
+        sb.append('.');
+        appendSanitized(sb, batch.getName(index), INVALID_NAME_CHARS);
+        for (Map.Entry<String, String> tag : batch.getTags(index).entrySet()) {
+            sb.append(';');
+            appendSanitized(sb, tag.getKey(), INVALID_NAME_CHARS);
+            sb.append('=');
+            appendSanitized(sb, tag.getValue(), INVALID_NAME_CHARS);
+        }
+        sb.append(' ');
+        appendValue(sb, batch, index);
+        sb.append(' ').append(timestamp);
+        return true;
+    }
+
+    @Override
+    void write(ByteBuffer packet) throws IOException {
+        if (channel == null) {
+            SocketChannel newChannel = SocketChannel.open();
+            try {
+                newChannel.socket().setTcpNoDelay(true);
+                newChannel.socket().connect(address, connectTimeoutMillis);
+            } catch (IOException e) {
+                newChannel.close();
+                throw e;
+            }
+            channel = newChannel;
+        }
+        while (packet.hasRemaining()) {
+            channel.write(packet);
+        }
+    }
+
+    @Override
+    void onOversizedLine(StringBuilder sb) {
+        LOG.warn("Skipped metric exceeding packet size: {}", sb);
+    }
+
+    @Override
+    void onWriteFailure() {
+        closeChannel();
+    }
+
+    @Override
+    public synchronized void close() {
+        closeChannel();
+    }
+
+    private void closeChannel() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOG.debug("Failed to close channel to " + address, e);
+            }
+            channel = null;
+        }
+    }
+}
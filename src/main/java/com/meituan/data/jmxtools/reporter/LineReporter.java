@@ -0,0 +1,154 @@
+package com.meituan.data.jmxtools.reporter;
+
+import com.meituan.data.jmxtools.jmx.Metric;
+import com.meituan.data.jmxtools.jmx.MetricBatch;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Base of reporters sending one text line per metric, like StatsD and Graphite.
+ *
+ * <p>Lines are packed into a direct buffer of `packetSize` bytes, which is written out only when
+ * the next line doesn't fit, so a write carries as many lines as possible. All buffers are
+ * allocated once and reused among reports.
+ */
+abstract class LineReporter implements BatchReporter {
+    private final ByteBuffer packet;
+    private final ByteBuffer line;
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+    private final StringBuilder text = new StringBuilder();
+    private char[] chars = new char[256];
+    private CharBuffer charBuffer = CharBuffer.wrap(chars);
+
+    LineReporter(int packetSize) {
+        checkArgument(packetSize > 0, "packet size should be positive");
+        this.packet = ByteBuffer.allocateDirect(packetSize);
+        this.line = ByteBuffer.allocate(packetSize);
+    }
+
+    /**
+     * Append the line of metric `index` of `batch` to `sb`, without line separator.
+     * @return false if the metric should be skipped
+     */
+    abstract boolean appendLine(StringBuilder sb, String serviceHost, String serviceName, long timestamp,
+                                MetricBatch batch, int index);
+
+    /**
+     * Write out all remaining bytes of `packet`.
+     */
+    abstract void write(ByteBuffer packet) throws IOException;
+
+    /**
+     * Called when a line doesn't fit in a packet.
+     */
+    abstract void onOversizedLine(StringBuilder sb);
+
+    /**
+     * Called when a report failed to write, e.g. to drop a broken connection.
+     */
+    void onWriteFailure() {
+    }
+
+    @Override
+    public void report(String serviceHost, String serviceName, long timestamp,
+                       List<Metric> metrics) throws MetricsReportException {
+        checkNotNull(metrics, "metrics is null");
+        report(serviceHost, serviceName, timestamp, MetricBatch.of(metrics));
+    }
+
+    @Override
+    public synchronized void report(String serviceHost, String serviceName, long timestamp,
+                                    MetricBatch batch) throws MetricsReportException {
+        checkNotNull(serviceHost, "serviceHost is null");
+        checkNotNull(serviceName, "serviceName is null");
+        checkNotNull(batch, "batch is null");
+
+        ((Buffer) packet).clear();
+        try {
+            for (int i = 0; i < batch.size(); i++) {
+                text.setLength(0);
+                if (!appendLine(text, serviceHost, serviceName, timestamp, batch, i)) {
+                    continue;
+                }
+                text.append('\n');
+                if (!encodeLine()) {
+                    onOversizedLine(text);
+                    continue;
+                }
+
+                if (line.remaining() > packet.remaining()) {
+                    flush();
+                }
+                packet.put(line);
+            }
+            flush();
+
+        } catch (IOException e) {
+            onWriteFailure();
+            throw new MetricsReportException("Failed to report metrics by " + getClass().getSimpleName(), e);
+        }
+    }
+
+    // encode `text` into `line`, returns false if it doesn't fit
+    private boolean encodeLine() {
+        int length = text.length();
+        if (chars.length < length) {
+            chars = new char[Math.max(length, chars.length * 2)];
+            charBuffer = CharBuffer.wrap(chars);
+        }
+        text.getChars(0, length, chars, 0);
+        // cast to Buffer, methods of subclasses returning themselves only exist since java 9
+        ((Buffer) charBuffer).limit(length);
+        ((Buffer) charBuffer).position(0);
+
+        ((Buffer) line).clear();
+        encoder.reset();
+        CoderResult result = encoder.encode(charBuffer, line, true);
+        if (result.isOverflow() || encoder.flush(line).isOverflow()) {
+            return false;
+        }
+        ((Buffer) line).flip();
+        return true;
+    }
+
+    private void flush() throws IOException {
+        ((Buffer) packet).flip();
+        if (packet.hasRemaining()) {
+            write(packet);
+        }
+        ((Buffer) packet).clear();
+    }
+
+    static void appendValue(StringBuilder sb, MetricBatch batch, int index) {
+        if (batch.isIntegral(index)) {
+            sb.append(batch.getLong(index));
+        } else {
+            sb.append(batch.getDouble(index));
+        }
+    }
+
+    static boolean isFinite(MetricBatch batch, int index) {
+        double d = batch.getDouble(index);
+        return !Double.isNaN(d) && !Double.isInfinite(d);
+    }
+
+    /**
+     * Append `s` to `sb` with characters in `invalid` replaced by '_'.
+     */
+    static void appendSanitized(StringBuilder sb, String s, String invalid) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            sb.append(invalid.indexOf(c) >= 0 || Character.isWhitespace(c) ? '_' : c);
+        }
+    }
+}
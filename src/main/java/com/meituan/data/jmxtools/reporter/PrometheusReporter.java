@@ -0,0 +1,387 @@
+package com.meituan.data.jmxtools.reporter;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.meituan.data.jmxtools.jmx.Metric;
+import com.meituan.data.jmxtools.jmx.MetricBatch;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPOutputStream;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A reporter serving the latest reported metrics in Prometheus text format, on an embedded
+ * HTTP server at "/metrics".
+ *
+ * <p>Each report replaces the previous one of the same service and host, and is encoded once when
+ * it arrives. The whole exposition is then assembled from encoded reports in background, at most
+ * once per `encodeDelayMillis` (reports arriving meanwhile, e.g. of other endpoints in the same
+ * step, are folded in), and scrapes are served from the assembled bytes, so scraping never
+ * touches JMX and costs the same however many endpoints there are. Metrics are only kept while
+ * the process runs, so the reporter requires daemon mode.
+ *
+ * <p>Metric "{serviceName}.{metricName}" is exposed as "{serviceName}_{metricName}" with invalid
+ * characters replaced by '_', labeled by host and tags of the metric. Options:
+ * <ul>
+ *     <li>port: port to listen on, default {@value #DEFAULT_PORT}</li>
+ *     <li>host: address to listen on, default all addresses</li>
+ *     <li>expireSeconds: metrics of a service and host not reported for so long are removed,
+ *     default {@value #DEFAULT_EXPIRE_SECONDS}</li>
+ *     <li>encodeDelayMillis: delay of assembling the exposition after a report, default
+ *     {@value #DEFAULT_ENCODE_DELAY_MILLIS}</li>
+ * </ul>
+ */
+public class PrometheusReporter implements BatchReporter {
+    static final Logger LOG = LoggerFactory.getLogger(PrometheusReporter.class);
+    static final int DEFAULT_PORT = 9404;
+    static final int DEFAULT_EXPIRE_SECONDS = 600;
+    static final int DEFAULT_ENCODE_DELAY_MILLIS = 1000;
+    static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    /**
+     * The latest report of a service on a host, encoded by metric family.
+     */
+    static class Snapshot {
+        final String serviceHost;
+        final String serviceName;
+        final long timestamp;
+        final long receivedMillis;
+        // family name -> samples of the family in this report
+        final Map<String, Family> families;
+
+        Snapshot(String serviceHost, String serviceName, long timestamp, MetricBatch batch, long receivedMillis) {
+            this.serviceHost = serviceHost;
+            this.serviceName = serviceName;
+            this.timestamp = timestamp;
+            this.receivedMillis = receivedMillis;
+            this.families = encodeFamilies(serviceHost, serviceName, batch);
+        }
+    }
+
+    static class Family {
+        final Metric.Type type;
+        final byte[] samples;
+
+        Family(Metric.Type type, byte[] samples) {
+            this.type = type;
+            this.samples = samples;
+        }
+    }
+
+    // encoded exposition, both plain and gzipped, swapped as a whole
+    private static class Exposition {
+        final byte[] plain;
+        final byte[] gzipped;
+
+        Exposition(byte[] plain, byte[] gzipped) {
+            this.plain = plain;
+            this.gzipped = gzipped;
+        }
+    }
+
+    private final Map<String, Snapshot> snapshots = new HashMap<>();
+    private final long expireMillis;
+    private final long encodeDelayMillis;
+    private final HttpServer server;
+    private final ExecutorService httpPool;
+    private final ScheduledExecutorService encoder;
+    private final AtomicBoolean encodePending = new AtomicBoolean();
+    private volatile Exposition exposition = new Exposition(new byte[0], gzip(new byte[0]));
+
+    public PrometheusReporter(Map<String, String> options) {
+        checkNotNull(options, "options is null");
+        int port = Reporters.getIntOption(options, "port", DEFAULT_PORT);
+        expireMillis = TimeUnit.SECONDS.toMillis(Reporters.getIntOption(options, "expireSeconds", DEFAULT_EXPIRE_SECONDS));
+        checkArgument(expireMillis > 0, "expireSeconds should be positive");
+        encodeDelayMillis = Reporters.getIntOption(options, "encodeDelayMillis", DEFAULT_ENCODE_DELAY_MILLIS);
+        checkArgument(encodeDelayMillis >= 0, "encodeDelayMillis should not be negative");
+
+        InetSocketAddress address = options.containsKey("host")
+                ? new InetSocketAddress(options.get("host"), port)
+                : new InetSocketAddress(port);
+        try {
+            server = HttpServer.create(address, 0);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Failed to listen on " + address, e);
+        }
+
+        httpPool = Executors.newFixedThreadPool(2,
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("prometheus-http-%d").build());
+        encoder = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("prometheus-encoder-%d").build());
+
+        HttpHandler handler = new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                serve(exchange);
+            }
+        };
+        server.createContext("/metrics", handler);
+        server.createContext("/", handler);
+        server.setExecutor(httpPool);
+        server.start();
+        LOG.info("Serving Prometheus metrics on {}", server.getAddress());
+    }
+
+    /**
+     * Returns the port the server listens on.
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    @Override
+    public void report(String serviceHost, String serviceName, long timestamp,
+                       List<Metric> metrics) throws MetricsReportException {
+        checkNotNull(metrics, "metrics is null");
+        report(serviceHost, serviceName, timestamp, MetricBatch.of(metrics));
+    }
+
+    @Override
+    public void report(String serviceHost, String serviceName, long timestamp,
+                       MetricBatch batch) throws MetricsReportException {
+        checkNotNull(serviceHost, "serviceHost is null");
+        checkNotNull(serviceName, "serviceName is null");
+        checkNotNull(batch, "batch is null");
+
+        String key = serviceName + "@" + serviceHost;
+        synchronized (snapshots) {
+            Snapshot last = snapshots.get(key);
+            if (last != null && last.timestamp > timestamp) {
+                return; // replay of an older report, keep the newer one
+            }
+        }
+        // encoded out of the lock, the batch is not kept
+        Snapshot snapshot = new Snapshot(serviceHost, serviceName, timestamp, batch, System.currentTimeMillis());
+        synchronized (snapshots) {
+            Snapshot last = snapshots.get(key);
+            if (last != null && last.timestamp > timestamp) {
+                return;
+            }
+            snapshots.put(key, snapshot);
+        }
+
+        // at most one encoding waiting, which takes all reports arrived before it starts
+        if (encodePending.compareAndSet(false, true)) {
+            encoder.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    encodePending.set(false);
+                    refresh();
+                }
+            }, encodeDelayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void refresh() {
+        List<Snapshot> current;
+        synchronized (snapshots) {
+            long expireBefore = System.currentTimeMillis() - expireMillis;
+            Iterator<Snapshot> it = snapshots.values().iterator();
+            while (it.hasNext()) {
+                if (it.next().receivedMillis < expireBefore) {
+                    it.remove();
+                }
+            }
+            current = new ArrayList<>(snapshots.values());
+        }
+
+        try {
+            byte[] plain = encode(current);
+            exposition = new Exposition(plain, gzip(plain));
+        } catch (RuntimeException e) {
+            LOG.error("Failed to encode metrics", e);
+        }
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        try {
+            Exposition current = exposition;
+            String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+
+            byte[] body = gzip ? current.gzipped : current.plain;
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            if (gzip) {
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            }
+
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(200, -1);
+            } else {
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Encode metrics of a report by family, each family being samples lines in Prometheus text format.
+     */
+    static Map<String, Family> encodeFamilies(String serviceHost, String serviceName, MetricBatch batch) {
+        // family name -> (type, lines of samples)
+        Map<String, Metric.Type> types = new HashMap<>();
+        Map<String, StringBuilder> samples = new HashMap<>();
+
+        // names differing only in invalid characters become the same series, which must be unique
+        Set<String> series = new HashSet<>();
+
+        StringBuilder labels = new StringBuilder();
+        for (int i = 0; i < batch.size(); i++) {
+            String family = sanitizeName(serviceName + "_" + batch.getName(i));
+            StringBuilder lines = samples.get(family);
+            if (lines == null) {
+                lines = new StringBuilder();
+                samples.put(family, lines);
+                types.put(family, batch.getType(i));
+            }
+
+            labels.setLength(0);
+            labels.append("host=\"");
+            escapeLabelValue(serviceHost, labels);
+            labels.append('"');
+            for (Map.Entry<String, String> tag : batch.getTags(i).entrySet()) {
+                labels.append(',').append(sanitizeLabelName(tag.getKey())).append("=\"");
+                escapeLabelValue(tag.getValue(), labels);
+                labels.append('"');
+            }
+
+            if (!series.add(family + labels)) {
+                continue;
+            }
+            lines.append(family).append('{').append(labels).append("} ");
+            if (batch.isIntegral(i)) {
+                lines.append(batch.getLong(i));
+            } else {
+                appendValue(batch.getDouble(i), lines);
+            }
+            lines.append('\n');
+        }
+
+        Map<String, Family> families = new HashMap<>();
+        for (Map.Entry<String, StringBuilder> entry : samples.entrySet()) {
+            families.put(entry.getKey(), new Family(types.get(entry.getKey()),
+                    entry.getValue().toString().getBytes(StandardCharsets.UTF_8)));
+        }
+        return families;
+    }
+
+    /**
+     * Assemble the exposition of snapshots, samples of a metric family are grouped together.
+     */
+    static byte[] encode(Collection<Snapshot> snapshots) {
+        SortedMap<String, List<Family>> families = new TreeMap<>();
+        // services whose names become the same family on a host would have the same series
+        Set<String> hostFamilies = new HashSet<>();
+        int size = 0;
+        for (Snapshot snapshot : snapshots) {
+            for (Map.Entry<String, Family> entry : snapshot.families.entrySet()) {
+                if (!hostFamilies.add(entry.getKey() + "\n" + snapshot.serviceHost)) {
+                    continue;
+                }
+                List<Family> list = families.get(entry.getKey());
+                if (list == null) {
+                    list = new ArrayList<>(1);
+                    families.put(entry.getKey(), list);
+                }
+                list.add(entry.getValue());
+                size += entry.getValue().samples.length;
+            }
+        }
+
+        ByteArrayOutputStream text = new ByteArrayOutputStream(size + families.size() * 64);
+        for (Map.Entry<String, List<Family>> entry : families.entrySet()) {
+            List<Family> list = entry.getValue();
+            String header = "# TYPE " + entry.getKey() + " "
+                    + (list.get(0).type == Metric.Type.COUNTER ? "counter" : "gauge") + "\n";
+            byte[] bytes = header.getBytes(StandardCharsets.UTF_8);
+            text.write(bytes, 0, bytes.length);
+            for (Family family : list) {
+                text.write(family.samples, 0, family.samples.length);
+            }
+        }
+        return text.toByteArray();
+    }
+
+    // metric names match [a-zA-Z_:][a-zA-Z0-9_:]*
+    static String sanitizeName(String name) {
+        StringBuilder sb = new StringBuilder(name.length() + 1);
+        if (name.isEmpty() || (name.charAt(0) >= '0' && name.charAt(0) <= '9')) {
+            sb.append('_');
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            boolean valid = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || c == '_' || c == ':';
+            sb.append(valid ? c : '_');
+        }
+        return sb.toString();
+    }
+
+    // label names match [a-zA-Z_][a-zA-Z0-9_]*
+    static String sanitizeLabelName(String name) {
+        return sanitizeName(name).replace(':', '_');
+    }
+
+    private static void escapeLabelValue(String value, StringBuilder sb) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '"') {
+                sb.append('\\').append(c);
+            } else if (c == '\n') {
+                sb.append("\\n");
+            } else {
+                sb.append(c);
+            }
+        }
+    }
+
+    private static void appendValue(double d, StringBuilder sb) {
+        if (Double.isNaN(d)) {
+            sb.append("NaN");
+        } else if (Double.isInfinite(d)) {
+            sb.append(d > 0 ? "+Inf" : "-Inf");
+        } else {
+            sb.append(d);
+        }
+    }
+
+    private static byte[] gzip(byte[] data) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length / 4 + 64);
+            try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+                out.write(data);
+            }
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new AssertionError("Writing to ByteArrayOutputStream should never fail", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        httpPool.shutdownNow();
+        encoder.shutdownNow();
+    }
+}
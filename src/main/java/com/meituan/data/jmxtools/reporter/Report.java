@@ -0,0 +1,34 @@
+package com.meituan.data.jmxtools.reporter;
+
+import com.meituan.data.jmxtools.jmx.Metric;
+import com.meituan.data.jmxtools.jmx.MetricBatch;
+
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Arguments of a {@link Reporter#report(String, String, long, List)} call,
+ * kept for sending later. Metrics are kept as a batch owned by the report.
+ */
+class Report {
+    final String serviceHost;
+    final String serviceName;
+    final long timestamp;
+    final MetricBatch metrics;
+
+    Report(String serviceHost, String serviceName, long timestamp, List<Metric> metrics) {
+        this(serviceHost, serviceName, timestamp, MetricBatch.of(checkNotNull(metrics, "metrics is null")));
+    }
+
+    Report(String serviceHost, String serviceName, long timestamp, MetricBatch metrics) {
+        this.serviceHost = checkNotNull(serviceHost, "serviceHost is null");
+        this.serviceName = checkNotNull(serviceName, "serviceName is null");
+        this.timestamp = timestamp;
+        this.metrics = checkNotNull(metrics, "metrics is null");
+    }
+
+    void sendTo(Reporter reporter) throws MetricsReportException {
+        Reporters.report(reporter, serviceHost, serviceName, timestamp, metrics);
+    }
+}
@@ -2,9 +2,14 @@ package com.meituan.data.jmxtools.reporter;
 
 import com.meituan.data.jmxtools.jmx.Metric;
 
+import java.io.Closeable;
 import java.util.List;
 
-public interface Reporter {
+/**
+ * Reports metrics to a monitoring system. A reporter may hold resources like connections
+ * across reports, which are released by {@link #close()}.
+ */
+public interface Reporter extends Closeable {
 
     /**
      * Report all metrics in the list to a monitoring system.
@@ -12,8 +17,9 @@ public interface Reporter {
      *
      * @param serviceHost host of the service these metrics belongs to
      * @param serviceName name of the service these metrics belongs to
+     * @param timestamp unix time in seconds when these metrics were collected
      * @param metrics all the metrics collected for the service
      * @throws MetricsReportException
      */
-    void report(String serviceHost, String serviceName, List<Metric> metrics) throws MetricsReportException;
+    void report(String serviceHost, String serviceName, long timestamp, List<Metric> metrics) throws MetricsReportException;
 }
@@ -1,7 +1,14 @@
 package com.meituan.data.jmxtools.reporter;
 
+import com.google.common.base.Throwables;
 import com.meituan.data.jmxtools.conf.ReporterConf;
+import com.meituan.data.jmxtools.jmx.MetricBatch;
 
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.*;
+
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
@@ -12,7 +19,9 @@ public final class Reporters {
 
     /**
      * Return a new reporter according to `conf`.
-     * @param conf specify which reporter to use and its configurations
+     * @param conf specify which reporter to use and its configurations, the type is either
+     *             "falcon", "prometheus", "statsd", "graphite", or name of a Reporter class with
+     *             a public constructor taking options
      * @return a new reporter
      */
     public static Reporter newReporter(ReporterConf conf) {
@@ -21,6 +30,144 @@ public final class Reporters {
         if (conf.getType().equals("falcon")) {
             return new FalconReporter(conf.getOptions());
         }
+        if (conf.getType().equals("prometheus")) {
+            return new PrometheusReporter(conf.getOptions());
+        }
+        if (conf.getType().equals("statsd")) {
+            return new StatsdReporter(conf.getOptions());
+        }
+        if (conf.getType().equals("graphite")) {
+            return new GraphiteReporter(conf.getOptions());
+        }
+        if (conf.getType().contains(".")) {
+            return newCustomReporter(conf.getType(), conf.getOptions());
+        }
         throw new IllegalArgumentException("Unsupported reporter type: " + conf.getType());
     }
+
+    /**
+     * Return a new reporter according to `conf`, which queues reports and sends them in background.
+     * See {@link AsyncReporter} and {@link CounterReporter} for their options, which are also in `conf`.
+     */
+    public static Reporter newAsyncReporter(ReporterConf conf) {
+        checkNotNull(conf, "conf is null");
+        Map<String, String> options = conf.getOptions();
+        // validate before the reporter is created, which may listen on a port
+        CounterReporter.Mode mode = CounterReporter.getMode(options);
+
+        Reporter reporter = new AsyncReporter(newReporter(conf), options);
+        if (mode == CounterReporter.Mode.RAW) {
+            return reporter;
+        }
+        // counters are computed before queueing, so spooled reports keep the computed values
+        try {
+            return new CounterReporter(reporter, options);
+        } catch (RuntimeException e) {
+            try {
+                reporter.close();
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Return a new reporter sending every report to all reporters of `confs`,
+     * each reporter sends in background from its own queue, see {@link #newAsyncReporter(ReporterConf)}.
+     */
+    public static Reporter newAsyncReporter(List<ReporterConf> confs) {
+        checkNotNull(confs, "confs is null");
+        checkArgument(!confs.isEmpty(), "confs is empty");
+        if (confs.size() == 1) {
+            return newAsyncReporter(confs.get(0));
+        }
+
+        Set<String> spoolDirs = new HashSet<>();
+        for (ReporterConf conf : confs) {
+            String spoolDir = conf.getOptions().get("spoolDir");
+            checkArgument(spoolDir == null || spoolDirs.add(spoolDir), "spoolDir %s is shared by reporters", spoolDir);
+        }
+
+        List<Reporter> reporters = new ArrayList<>();
+        try {
+            for (ReporterConf conf : confs) {
+                reporters.add(newAsyncReporter(conf));
+            }
+        } catch (RuntimeException e) {
+            for (Reporter reporter : reporters) {
+                try {
+                    reporter.close();
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+            }
+            throw e;
+        }
+        return new FanOutReporter(reporters);
+    }
+
+    /**
+     * Whether reporters of `conf` compute deltas or rates of counters ("counterMode" option), which
+     * needs previous values of a long running process: a single collection reports no counters.
+     */
+    public static boolean computesCounters(ReporterConf conf) {
+        checkNotNull(conf, "conf is null");
+        return CounterReporter.getMode(conf.getOptions()) != CounterReporter.Mode.RAW;
+    }
+
+    /**
+     * Whether the reporter of `conf` serves metrics to be scraped ("prometheus"), which needs
+     * a long running process: a single collection would be gone before any scrape.
+     */
+    public static boolean servesMetrics(ReporterConf conf) {
+        checkNotNull(conf, "conf is null");
+        return conf.getType().equals("prometheus");
+    }
+
+    /**
+     * Report `batch` to `reporter`, as a batch if it's a {@link BatchReporter},
+     * or as a list of metrics otherwise.
+     */
+    public static void report(Reporter reporter, String serviceHost, String serviceName, long timestamp,
+                              MetricBatch batch) throws MetricsReportException {
+        checkNotNull(reporter, "reporter is null");
+        checkNotNull(batch, "batch is null");
+        if (reporter instanceof BatchReporter) {
+            ((BatchReporter) reporter).report(serviceHost, serviceName, timestamp, batch);
+        } else {
+            reporter.report(serviceHost, serviceName, timestamp, batch.toMetrics());
+        }
+    }
+
+    private static Reporter newCustomReporter(String className, Map<String, String> options) {
+        try {
+            Class<? extends Reporter> clazz = Class.forName(className).asSubclass(Reporter.class);
+            return clazz.getConstructor(Map.class).newInstance(options);
+
+        } catch (ClassNotFoundException | ClassCastException | NoSuchMethodException e) {
+            throw new IllegalArgumentException("Invalid reporter class: " + className, e);
+        } catch (InvocationTargetException e) {
+            Throwables.propagateIfPossible(e.getCause());
+            throw new IllegalArgumentException("Failed to create reporter " + className, e.getCause());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException("Failed to create reporter " + className, e);
+        }
+    }
+
+    /**
+     * Integer value of option `key`, or `defaultValue` if the option is absent.
+     * @throws IllegalArgumentException if the value is not an integer
+     */
+    static int getIntOption(Map<String, String> options, String key, int defaultValue) {
+        String value = options.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + key + " value", e);
+        }
+    }
 }
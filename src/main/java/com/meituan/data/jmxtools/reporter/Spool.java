@@ -0,0 +1,324 @@
+package com.meituan.data.jmxtools.reporter;
+
+import com.google.common.collect.ImmutableSortedMap;
+import com.meituan.data.jmxtools.jmx.Metric;
+import com.meituan.data.jmxtools.jmx.MetricBatch;
+import com.meituan.data.jmxtools.jmx.MetricNames;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A write-ahead spool of undelivered reports on local disk, so that metrics outlive an outage
+ * of the monitoring system, as well as a restart of this process.
+ *
+ * <p>Reports are appended to memory-mapped segment files named "spool-{seq}.seg". Each record is
+ * an int length followed by the encoded report. The length is written after the report, so a
+ * record is either complete or ends the segment (length 0). A delivered record is marked by
+ * negating its length in place. A segment is deleted once all its records are delivered, and the
+ * oldest segments are dropped when the spool exceeds its max size.
+ *
+ * <p>The spool is thread safe.
+ */
+class Spool implements Closeable {
+    static final Logger LOG = LoggerFactory.getLogger(Spool.class);
+    static final String SEGMENT_PREFIX = "spool-";
+    static final String SEGMENT_SUFFIX = ".seg";
+
+    private static class Segment {
+        final File file;
+        final MappedByteBuffer buffer;
+        int readPosition;   // first record which may be undelivered
+        int writePosition;  // end of records
+        int pendingRecords;
+
+        Segment(File file, int capacity) throws IOException {
+            this.file = file;
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                // the mapping stays valid after the channel is closed
+                this.buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+                        capacity > 0 ? capacity : raf.length());
+            }
+        }
+
+        // find read and write positions of an existing segment
+        void scan() {
+            int pos = 0;
+            readPosition = -1;
+            while (pos + 4 <= buffer.capacity()) {
+                int length = buffer.getInt(pos);
+                if (length == 0 || pos + 4 + Math.abs(length) > buffer.capacity()) {
+                    break;
+                }
+                if (length > 0) {
+                    pendingRecords++;
+                    if (readPosition < 0) {
+                        readPosition = pos;
+                    }
+                }
+                pos += 4 + Math.abs(length);
+            }
+            writePosition = pos;
+            if (readPosition < 0) {
+                readPosition = pos;
+            }
+        }
+    }
+
+    private final File dir;
+    private final long maxBytes;
+    private final int segmentBytes;
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private long nextSeq;
+    private long droppedRecords;
+
+    // the record returned by the last peek(), which may be dropped by append() before remove()
+    private Segment peekedSegment;
+    private int peekedPosition;
+
+    /**
+     * Open the spool in `dir`, reports left by a previous process are kept.
+     *
+     * @param maxBytes max total size of segment files
+     * @param segmentBytes size of a segment file, unless a single report is larger
+     */
+    Spool(File dir, long maxBytes, int segmentBytes) throws IOException {
+        this.dir = checkNotNull(dir, "dir is null");
+        checkArgument(segmentBytes > 0 && segmentBytes <= maxBytes, "segmentBytes should be in (0, maxBytes]");
+        this.maxBytes = maxBytes;
+        this.segmentBytes = segmentBytes;
+
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Failed to create spool directory " + dir);
+        }
+
+        SortedMap<Long, File> files = new TreeMap<>();
+        File[] children = dir.listFiles();
+        if (children != null) {
+            for (File file : children) {
+                String name = file.getName();
+                if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                    try {
+                        long seq = Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                                name.length() - SEGMENT_SUFFIX.length()));
+                        files.put(seq, file);
+                    } catch (NumberFormatException e) {
+                        LOG.warn("Ignored unknown file {} in spool", file);
+                    }
+                }
+            }
+        }
+
+        for (Map.Entry<Long, File> entry : files.entrySet()) {
+            Segment segment = new Segment(entry.getValue(), 0);
+            segment.scan();
+            segments.addLast(segment);
+            nextSeq = entry.getKey() + 1;
+        }
+        if (!segments.isEmpty()) {
+            LOG.info("Opened spool {} with {} pending reports", dir, getPendingCount());
+        }
+    }
+
+    /**
+     * Append a report to the spool, dropping the oldest reports if the spool is full.
+     */
+    synchronized void append(Report report) throws IOException {
+        byte[] record = encode(report);
+
+        Segment last = segments.peekLast();
+        if (last == null || last.writePosition + 4 + record.length > last.buffer.capacity()) {
+            last = new Segment(new File(dir, SEGMENT_PREFIX + nextSeq + SEGMENT_SUFFIX),
+                    Math.max(segmentBytes, 4 + record.length));
+            nextSeq++;
+            segments.addLast(last);
+        }
+
+        // body first, then length, so that a partially written record is never read
+        int pos = last.writePosition;
+        put(last.buffer, pos + 4, record);
+        last.buffer.putInt(pos, record.length);
+        last.writePosition = pos + 4 + record.length;
+        last.pendingRecords++;
+
+        while (getTotalBytes() > maxBytes && segments.size() > 1) {
+            Segment oldest = segments.removeFirst();
+            droppedRecords += oldest.pendingRecords;
+            LOG.warn("Spool is full, dropped {} reports in {}", oldest.pendingRecords, oldest.file);
+            delete(oldest);
+        }
+    }
+
+    /**
+     * Returns the oldest undelivered report, or null if there is none. A record which can't be
+     * decoded (e.g. corrupted on disk) is dropped, so that it doesn't block the records after it.
+     */
+    synchronized Report peek() {
+        while (!segments.isEmpty()) {
+            Segment first = segments.peekFirst();
+            while (first.readPosition < first.writePosition) {
+                int length = first.buffer.getInt(first.readPosition);
+                if (length > 0) {
+                    byte[] record = new byte[length];
+                    get(first.buffer, first.readPosition + 4, record);
+                    try {
+                        Report report = decode(record);
+                        peekedSegment = first;
+                        peekedPosition = first.readPosition;
+                        return report;
+                    } catch (IOException | RuntimeException e) {
+                        LOG.warn("Dropped corrupt record at {} of {}: {}", first.readPosition, first.file, e.toString());
+                        first.buffer.putInt(first.readPosition, -length);
+                        first.pendingRecords--;
+                        droppedRecords++;
+                    }
+                }
+                first.readPosition += 4 + Math.abs(length);
+            }
+
+            // segment is done, delete it unless it's still being appended
+            if (segments.size() == 1) {
+                return null;
+            }
+            delete(segments.removeFirst());
+        }
+        return null;
+    }
+
+    /**
+     * Mark the report returned by the last {@link #peek()} as delivered,
+     * does nothing if it has been dropped meanwhile.
+     */
+    synchronized void remove() {
+        Segment first = segments.peekFirst();
+        if (first == null || first != peekedSegment || first.readPosition != peekedPosition) {
+            return;
+        }
+        peekedSegment = null;
+
+        int length = first.buffer.getInt(first.readPosition);
+        first.buffer.putInt(first.readPosition, -length);
+        first.readPosition += 4 + length;
+        first.pendingRecords--;
+    }
+
+    synchronized boolean isEmpty() {
+        return getPendingCount() == 0;
+    }
+
+    synchronized int getPendingCount() {
+        int count = 0;
+        for (Segment segment : segments) {
+            count += segment.pendingRecords;
+        }
+        return count;
+    }
+
+    /**
+     * Returns number of reports dropped because the spool was full or they were corrupt.
+     */
+    synchronized long getDroppedCount() {
+        return droppedRecords;
+    }
+
+    @Override
+    public synchronized void close() {
+        for (Segment segment : segments) {
+            segment.buffer.force();
+        }
+    }
+
+    private long getTotalBytes() {
+        long total = 0;
+        for (Segment segment : segments) {
+            total += segment.buffer.capacity();
+        }
+        return total;
+    }
+
+    // absolute bulk put/get, without changing position of the shared buffer.
+    // cast to Buffer, ByteBuffer.position(int) only exists since java 9
+    private static void put(ByteBuffer buffer, int position, byte[] src) {
+        ByteBuffer view = buffer.duplicate();
+        ((Buffer) view).position(position);
+        view.put(src);
+    }
+
+    private static void get(ByteBuffer buffer, int position, byte[] dst) {
+        ByteBuffer view = buffer.duplicate();
+        ((Buffer) view).position(position);
+        view.get(dst);
+    }
+
+    // The mapping of a deleted segment is released when its buffer is garbage collected, there is
+    // no public API to unmap it earlier on java 7. Until then it holds address space and the disk
+    // blocks of the unlinked file, at most the few segments deleted since the last GC
+    private static void delete(Segment segment) {
+        if (!segment.file.delete()) {
+            LOG.warn("Failed to delete spool segment {}", segment.file);
+        }
+    }
+
+    static byte[] encode(Report report) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + report.metrics.size() * 64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF(report.serviceHost);
+        out.writeUTF(report.serviceName);
+        out.writeLong(report.timestamp);
+        MetricBatch metrics = report.metrics;
+        out.writeInt(metrics.size());
+        for (int i = 0; i < metrics.size(); i++) {
+            out.writeUTF(metrics.getName(i));
+            out.writeByte(metrics.getType(i).ordinal());
+
+            if (metrics.isIntegral(i)) {
+                out.writeByte(0);
+                out.writeLong(metrics.getLong(i));
+            } else {
+                out.writeByte(1);
+                out.writeDouble(metrics.getDouble(i));
+            }
+
+            Map<String, String> tags = metrics.getTags(i);
+            out.writeInt(tags.size());
+            for (Map.Entry<String, String> tag : tags.entrySet()) {
+                out.writeUTF(tag.getKey());
+                out.writeUTF(tag.getValue());
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    static Report decode(byte[] record) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        String serviceHost = in.readUTF();
+        String serviceName = in.readUTF();
+        long timestamp = in.readLong();
+        int count = in.readInt();
+
+        MetricBatch metrics = new MetricBatch(new MetricNames(), Math.max(count, 1));
+        for (int i = 0; i < count; i++) {
+            int nameId = metrics.getNames().intern(in.readUTF());
+            Metric.Type type = Metric.Type.values()[in.readByte()];
+            Number value = in.readByte() == 0 ? (Number) in.readLong() : (Number) in.readDouble();
+
+            int tagCount = in.readInt();
+            Map<String, String> tags = new TreeMap<>();
+            for (int j = 0; j < tagCount; j++) {
+                tags.put(in.readUTF(), in.readUTF());
+            }
+            metrics.add(nameId, value, type, ImmutableSortedMap.copyOf(tags));
+        }
+        return new Report(serviceHost, serviceName, timestamp, metrics);
+    }
+}
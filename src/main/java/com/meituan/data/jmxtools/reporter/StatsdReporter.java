@@ -0,0 +1,95 @@
+package com.meituan.data.jmxtools.reporter;
+
+import com.meituan.data.jmxtools.jmx.MetricBatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Report metrics to StatsD over UDP, as many lines as fit are sent in one datagram.
+ *
+ * <p>Metric is sent as "{serviceName}.{serviceHost}.{metricName}:{value}|g", tags of the metric
+ * are appended as "|#k1:v1,k2:v2" (DogStatsD format). Counters are sent as gauges too, since
+ * their values are totals rather than increments. Options:
+ * <ul>
+ *     <li>host: host of StatsD, required</li>
+ *     <li>port: port of StatsD, default {@value #DEFAULT_PORT}</li>
+ *     <li>packetSize: max bytes of a datagram, default {@value #DEFAULT_PACKET_SIZE}
+ *     which fits in an ethernet frame</li>
+ * </ul>
+ */
+class StatsdReporter extends LineReporter {
+    static final Logger LOG = LoggerFactory.getLogger(StatsdReporter.class);
+    static final int DEFAULT_PORT = 8125;
+    static final int DEFAULT_PACKET_SIZE = 1432;
+    // characters having a meaning in StatsD protocol
+    static final String INVALID_NAME_CHARS = ":|@#,";
+
+    private final DatagramChannel channel;
+
+    StatsdReporter(Map<String, String> options) {
+        super(Reporters.getIntOption(checkNotNull(options, "options is null"), "packetSize", DEFAULT_PACKET_SIZE));
+        checkArgument(options.get("host") != null, "host not found in options");
+
+        InetSocketAddress address = new InetSocketAddress(options.get("host"),
+                Reporters.getIntOption(options, "port", DEFAULT_PORT));
+        try {
+            channel = DatagramChannel.open();
+            channel.connect(address);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Failed to open channel to " + address, e);
+        }
+    }
+
+    @Override
+    boolean appendLine(StringBuilder sb, String serviceHost, String serviceName, long timestamp,
+                       MetricBatch batch, int index) {
+        if (!isFinite(batch, index)) {
+            return false;
+        }
+        appendSanitized(sb, serviceName, INVALID_NAME_CHARS);
+        sb.append('.');
+        appendSanitized(sb, serviceHost.replace('.', '_'), INVALID_NAME_CHARS);
+        sb.append('.');
+        appendSanitized(sb, batch.getName(index), INVALID_NAME_CHARS);
+        sb.append(':');
+        appendValue(sb, batch, index);
+        sb.append("|g");
+
+        if (!batch.getTags(index).isEmpty()) {
+            char separator = '#';
+            sb.append('|');
+            for (Map.Entry<String, String> tag : batch.getTags(index).entrySet()) {
+                sb.append(separator);
+                appendSanitized(sb, tag.getKey(), INVALID_NAME_CHARS);
+                sb.append(':');
+                appendSanitized(sb, tag.getValue(), INVALID_NAME_CHARS);
+                separator = ',';
+            }
+        }
+        return true;
+    }
+
+    @Override
+    void write(ByteBuffer packet) throws IOException {
+        channel.write(packet);
+    }
+
+    @Override
+    void onOversizedLine(StringBuilder sb) {
+        LOG.warn("Skipped metric exceeding packet size: {}", sb);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
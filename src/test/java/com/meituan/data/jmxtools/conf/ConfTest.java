@@ -0,0 +1,38 @@
+package com.meituan.data.jmxtools.conf;
+
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class ConfTest extends ConfTestBase {
+
+    @Test
+    public void testMultipleReporters() throws IOException {
+        Conf conf = fromFile("conf_multiple_reporters.json", Conf.class);
+        assertEquals(2, conf.getReporterConfs().size());
+        assertEquals("falcon", conf.getReporterConf().getType());
+        assertEquals("com.meituan.data.jmxtools.reporter.TestCustomReporter",
+                conf.getReporterConfs().get(1).getType());
+    }
+
+    @Test
+    public void testSingleReporter() throws IOException {
+        String json = "{\"serviceName\": \"s\", \"reporter\": {\"type\": \"Falcon\", \"options\": {}},"
+                + " \"endpoints\": [{\"name\": \"localhost:9999\", \"remote\": true}], \"metrics\": []}";
+        Conf conf = new ObjectMapper().readValue(json, Conf.class);
+        assertEquals(1, conf.getReporterConfs().size());
+        assertEquals("falcon", conf.getReporterConf().getType());
+
+        try {
+            new ObjectMapper().readValue(json.replace("\"reporter\"", "\"reporters\": [], \"reporter\""), Conf.class);
+            fail();
+        } catch (JsonMappingException e) {
+            assertEquals(IllegalArgumentException.class, e.getCause().getClass());
+        }
+    }
+}
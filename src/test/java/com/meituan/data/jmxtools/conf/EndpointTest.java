@@ -1,5 +1,6 @@
 package com.meituan.data.jmxtools.conf;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.Test;
 
 import static org.junit.Assert.*;
@@ -31,4 +32,27 @@ public class EndpointTest {
             assertEquals("remote name should be host:port, but was localhost", e.getMessage());
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testAllInstances() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        Endpoint endpoint = mapper.readValue("{\"name\": \".*Worker.*\", \"allInstances\": true}", Endpoint.class);
+        assertFalse(endpoint.isRemote());
+        assertTrue(endpoint.isAllInstances());
+        assertNull(endpoint.getPid());
+
+        Endpoint instance = endpoint.forInstance("1234");
+        assertEquals(".*Worker.*", instance.getName());
+        assertEquals("1234", instance.getPid());
+        assertFalse(instance.isAllInstances());
+
+        assertFalse(mapper.readValue("{\"name\": \".*Worker.*\"}", Endpoint.class).isAllInstances());
+
+        try {
+            new Endpoint("localhost:1234", true, true);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("allInstances is only valid for local endpoint", e.getMessage());
+        }
+    }
+}
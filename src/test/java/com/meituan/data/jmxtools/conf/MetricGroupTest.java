@@ -17,10 +17,14 @@ public class MetricGroupTest extends ConfTestBase {
         assertEquals("com.facebook.presto.execution:name=QueryManager", simple.getObjectNameString());
         assertEquals(Lists.newArrayList("*"), simple.getGauges());
         assertTrue(simple.getCounters().isEmpty());
+        assertEquals(MetricGroup.DEFAULT_TIMEOUT_SECONDS, simple.getTimeoutSeconds());
+        assertEquals(0, simple.getSampleIntervalSeconds());
 
         GlobMetricGroup full = fromFile("glob_metric_group_full.json", GlobMetricGroup.class);
         assertEquals("QueryManager", full.getGroupName());
         assertEquals("com.facebook.presto.execution:name=QueryManager", full.getObjectNameString());
+        assertEquals(5, full.getTimeoutSeconds());
+        assertEquals(1, full.getSampleIntervalSeconds());
 
         assertEquals(Lists.newArrayList("RunningQueries", "StartedQueries.*.Count"),
                 full.getGauges());
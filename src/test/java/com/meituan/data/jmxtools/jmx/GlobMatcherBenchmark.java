@@ -0,0 +1,121 @@
+package com.meituan.data.jmxtools.jmx;
+
+import com.google.common.collect.Lists;
+
+import java.util.List;
+
+import static com.meituan.data.jmxtools.jmx.GlobMetricResolver.GlobMatcher.convertGlobToRegex;
+
+/**
+ * Compares matching flattened attribute names against the patterns of example/presto.json
+ * using {@link GlobAutomaton} and the former per-call String.matches implementation.
+ *
+ * <p>Not a unit test, run it with
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.meituan.data.jmxtools.jmx.GlobMatcherBenchmark
+ * </pre>
+ */
+public class GlobMatcherBenchmark {
+    static final List<String> GAUGES = Lists.newArrayList(
+            "RunningQueries",
+            "StartedQueries.*.Count",
+            "CompletedQueries.*.Count",
+            "FailedQueries.*.Count",
+            "UserErrorFailures.*.Count",
+            "InternalFailures.*.Count",
+            "ExternalFailures.*.Count",
+            "InsufficientResourcesFailures.*.Count",
+            "AbandonedQueries.*.Count",
+            "CanceledQueries.*.Count",
+            "ExecutionTime.*.P??",
+            "WallInputBytesRate.*.P??",
+            "CpuInputByteRate.*.P??");
+
+    static final List<String> COUNTERS = Lists.newArrayList(
+            "StartedQueries.TotalCount",
+            "CompletedQueries.TotalCount",
+            "FailedQueries.TotalCount",
+            "ExecutionTime.*.Count");
+
+    static final String[] ATTRIBUTES = {
+            "RunningQueries", "StartedQueries", "CompletedQueries", "FailedQueries", "UserErrorFailures",
+            "InternalFailures", "ExternalFailures", "InsufficientResourcesFailures", "AbandonedQueries",
+            "CanceledQueries", "ExecutionTime", "WallInputBytesRate", "CpuInputByteRate", "QueuedQueries"};
+
+    static final String[] WINDOWS = {"OneMinute", "FiveMinutes", "FifteenMinutes", "AllTime"};
+
+    static final String[] LEAVES = {"Count", "TotalCount", "Rate", "P50", "P75", "P90", "P95", "P99", "Min", "Max"};
+
+    public static void main(String[] args) {
+        List<String> names = Lists.newArrayList();
+        for (String attr : ATTRIBUTES) {
+            for (String window : WINDOWS) {
+                for (String leaf : LEAVES) {
+                    names.add(attr + "." + window + "." + leaf);
+                }
+            }
+        }
+
+        final int rounds = 1000;
+        for (int i = 0; i < 5; i++) {   // the first iterations warm up the JIT
+            long legacy = timeLegacy(names, rounds);
+            long automaton = timeAutomaton(names, rounds);
+            System.out.printf("names=%d legacy=%dns/name automaton=%dns/name speedup=%.1fx%n",
+                    names.size(), legacy / (rounds * names.size()), automaton / (rounds * names.size()),
+                    (double) legacy / automaton);
+        }
+    }
+
+    private static long timeLegacy(List<String> names, int rounds) {
+        int matched = 0;
+        long start = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            for (String name : names) {
+                if (legacyMatches(GAUGES, name)) {
+                    matched++;
+                }
+                if (legacyMatches(COUNTERS, name)) {
+                    matched++;
+                }
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        consume(matched);
+        return elapsed;
+    }
+
+    private static boolean legacyMatches(List<String> globs, String name) {
+        for (String glob : globs) {
+            if (!glob.contains("*") && !glob.contains("?")) {
+                if (glob.equals(name)) {
+                    return true;
+                }
+            } else if (name.matches(convertGlobToRegex(glob))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long timeAutomaton(List<String> names, int rounds) {
+        GlobAutomaton automaton = GlobMetricResolver.compile(GAUGES, COUNTERS);
+        int matched = 0;
+        long start = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            for (String name : names) {
+                matched += Integer.bitCount(automaton.match(name));
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        consume(matched);
+        return elapsed;
+    }
+
+    // keeps the JIT from eliminating the loops
+    private static void consume(int value) {
+        if (value == Integer.MIN_VALUE) {
+            System.out.println(value);
+        }
+    }
+}
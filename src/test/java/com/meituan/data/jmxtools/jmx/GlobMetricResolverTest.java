@@ -7,10 +7,18 @@ import com.meituan.data.jmxtools.jmx.Metric.Type;
 import org.junit.Test;
 
 import javax.management.MBeanServer;
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
 import java.io.IOException;
 import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.util.Collection;
 import java.util.List;
+import java.util.Random;
 import java.util.Set;
 
 import static com.meituan.data.jmxtools.jmx.GlobMetricResolver.GlobMatcher.convertGlobToRegex;
@@ -74,7 +82,76 @@ public class GlobMetricResolverTest {
     }
 
     @Test
-    public void testResolve() throws IOException {
+    public void testGlobAutomatonAgreesWithRegex() {
+        final char[] alphabet = {'A', 'B', '.', '*', '?', '\\'};
+        Random random = new Random(42);
+
+        for (int i = 0; i < 2000; i++) {
+            String pattern = randomString(random, alphabet, 6);
+            String text = randomString(random, alphabet, 8);
+
+            boolean expected = (!pattern.contains("*") && !pattern.contains("?"))
+                    ? pattern.equals(text)
+                    : text.matches(convertGlobToRegex(pattern));
+            assertEquals("pattern=" + pattern + ", text=" + text,
+                    expected, new GlobMetricResolver.GlobMatcher(pattern).apply(text));
+        }
+    }
+
+    private static String randomString(Random random, char[] alphabet, int maxLength) {
+        StringBuilder sb = new StringBuilder();
+        int length = random.nextInt(maxLength + 1);
+        for (int i = 0; i < length; i++) {
+            sb.append(alphabet[random.nextInt(alphabet.length)]);
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void testGlobAutomatonLabels() {
+        GlobAutomaton automaton = GlobMetricResolver.compile(
+                Lists.newArrayList("RunningQueries", "ExecutionTime.*.P??"),
+                Lists.newArrayList("RunningQueries", "ExecutionTime.*.Count"));
+
+        assertEquals(3, automaton.match("RunningQueries"));
+        assertEquals(1, automaton.match("ExecutionTime.OneMinute.P99"));
+        assertEquals(2, automaton.match("ExecutionTime.OneMinute.Count"));
+        assertEquals(0, automaton.match("ExecutionTime.OneMinute.Min"));
+        assertEquals(0, automaton.match("StartedQueries.OneMinute.Count"));
+
+        assertTrue(automaton.mayMatchUnder("RunningQueries"));
+        assertTrue(automaton.mayMatchUnder("ExecutionTime"));
+        assertFalse(automaton.mayMatchUnder("StartedQueries"));
+    }
+
+    private void mayMatchUnder(String attrName, String pattern) {
+        assertTrue(new GlobMetricResolver.GlobMatcher(pattern).mayMatchUnder(attrName));
+    }
+
+    private void notMayMatchUnder(String attrName, String pattern) {
+        assertFalse(new GlobMetricResolver.GlobMatcher(pattern).mayMatchUnder(attrName));
+    }
+
+    @Test
+    public void testMayMatchUnder() {
+        mayMatchUnder("A", "A");
+        mayMatchUnder("A", "A.B.C");
+        mayMatchUnder("A", "*");
+        mayMatchUnder("A", "*.C");
+        mayMatchUnder("A", "A.*.P??");
+        mayMatchUnder("AB", "A?");
+        mayMatchUnder("AB", "A?.C");
+        mayMatchUnder("A.B", "A.B.*");
+
+        notMayMatchUnder("A", "B");
+        notMayMatchUnder("A", "AB");
+        notMayMatchUnder("A", "B.*");
+        notMayMatchUnder("AB", "A");
+        notMayMatchUnder("ABC", "A?");
+    }
+
+    @Test
+    public void testResolve() throws Exception {
         MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
         GlobMetricResolver resolver = new GlobMetricResolver(mBeanServer);
 
@@ -110,5 +187,139 @@ public class GlobMetricResolverTest {
 
         assertEquals(expectedGauges, actualGauges);
         assertEquals(expectedCounters, actualCounters);
+
+        // attributes other than HeapMemoryUsage and NonHeapMemoryUsage are never fetched
+        ObjectName memory = group.getObjectName();
+        assertTrue(GlobMetricResolver.getSkippedAttributeCount(group, memory, mBeanServer.getMBeanInfo(memory)) > 0);
+    }
+
+    @Test
+    public void testFormatBeanName() throws Exception {
+        ObjectName bean = new ObjectName("kafka.server:type=BrokerTopicMetrics,name=BytesInPerSec,topic=\"a b\"");
+        List<String> gauges = Lists.newArrayList("Count");
+
+        GlobMetricGroup formatted = new GlobMetricGroup("Kafka", "kafka.server:type=BrokerTopicMetrics,*",
+                "{topic}.{name}", gauges, null);
+        assertEquals("a b.BytesInPerSec", GlobMetricResolver.formatBeanName(formatted, bean));
+
+        GlobMetricGroup listPattern = new GlobMetricGroup("Kafka", "kafka.server:type=BrokerTopicMetrics,*", gauges, null);
+        assertEquals("BytesInPerSec.a b", GlobMetricResolver.formatBeanName(listPattern, bean));
+
+        GlobMetricGroup valuePattern = new GlobMetricGroup("Kafka",
+                "kafka.server:type=BrokerTopicMetrics,name=BytesInPerSec,topic=*", gauges, null);
+        assertEquals("a b", GlobMetricResolver.formatBeanName(valuePattern, bean));
+    }
+
+    @Test
+    public void testResolvePattern() throws IOException {
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        GlobMetricResolver resolver = new GlobMetricResolver(mBeanServer);
+
+        GlobMetricGroup group = new GlobMetricGroup("MemPool", "java.lang:type=MemoryPool,name=*",
+                "{name}", Lists.newArrayList("Usage.used"), null);
+
+        Set<String> expected = Sets.newHashSet();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            expected.add("MemPool." + pool.getName() + ".Usage.used");
+        }
+
+        Set<String> actual = Sets.newHashSet();
+        for (Metric metric : resolver.resolve(group)) {
+            actual.add(metric.getName());
+        }
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testNamesReusedAmongResolves() throws IOException {
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        GlobMetricResolver resolver = new GlobMetricResolver(mBeanServer);
+        GlobMetricGroup group = new GlobMetricGroup("Mem", "java.lang:type=Memory",
+                Lists.newArrayList("HeapMemoryUsage.used"), Lists.newArrayList("HeapMemoryUsage.used"));
+
+        List<Metric> first = Lists.newArrayList(resolver.resolve(group));
+        List<Metric> second = Lists.newArrayList(resolver.resolve(group));
+        assertEquals(2, first.size());
+        assertEquals(2, second.size());
+        for (int i = 0; i < first.size(); i++) {
+            // names are built once per bean, not in every resolve
+            assertSame(first.get(i).getName(), second.get(i).getName());
+        }
+        assertEquals("Mem.HeapMemoryUsage.used.Delta", second.get(1).getName());
+    }
+
+    @Test
+    public void testResolvePatternKeepsOtherBeans() throws Exception {
+        final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName failing = mBeanServer.queryNames(new ObjectName("java.lang:type=MemoryPool,*"), null)
+                .iterator().next();
+        // the platform server, failing to read attributes of one pool as if it were unreachable
+        MBeanServerConnection connection = (MBeanServerConnection) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class<?>[]{MBeanServerConnection.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (method.getName().equals("getAttributes") && failing.equals(args[0])) {
+                            throw new IOException("unreachable");
+                        }
+                        try {
+                            return method.invoke(mBeanServer, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    }
+                });
+
+        GlobMetricGroup group = new GlobMetricGroup("MemPool", "java.lang:type=MemoryPool,name=*",
+                "{name}", Lists.newArrayList("Usage.used"), null);
+        MetricBatch batch = new MetricBatch();
+        try {
+            new GlobMetricResolver(connection).resolve(group, batch);
+            fail("IOException expected");
+        } catch (IOException e) {
+            assertEquals("unreachable", e.getMessage());
+        }
+        assertEquals(ManagementFactory.getMemoryPoolMXBeans().size() - 1, batch.size());
+    }
+
+    public interface CounterMBean {
+        int getCount();
+    }
+
+    public static class Counter implements CounterMBean {
+        private final int count;
+
+        Counter(int count) {
+            this.count = count;
+        }
+
+        @Override
+        public int getCount() {
+            return count;
+        }
+    }
+
+    @Test
+    public void testResolvePatternOfSameClass() throws Exception {
+        // standard MBeans of a class share their MBeanInfo in a local server
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        ObjectName a = new ObjectName("test:type=Counter,name=a");
+        ObjectName b = new ObjectName("test:type=Counter,name=b");
+        mBeanServer.registerMBean(new Counter(1), a);
+        mBeanServer.registerMBean(new Counter(2), b);
+        try {
+            GlobMetricGroup group = new GlobMetricGroup("G", "test:type=Counter,*",
+                    "{name}", Lists.newArrayList("Count"), null);
+            GlobMetricResolver resolver = new GlobMetricResolver(mBeanServer);
+            for (int i = 0; i < 2; i++) {
+                Set<String> actual = Sets.newHashSet();
+                for (Metric metric : resolver.resolve(group)) {
+                    actual.add(metric.getName() + "=" + metric.getValue());
+                }
+                assertEquals(Sets.newHashSet("G.a.Count=1", "G.b.Count=2"), actual);
+            }
+        } finally {
+            mBeanServer.unregisterMBean(a);
+            mBeanServer.unregisterMBean(b);
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,96 @@
+package com.meituan.data.jmxtools.jmx;
+
+import org.junit.Test;
+
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerConnection;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class MBeanInfoCacheTest {
+
+    public interface SampleMBean {
+        int getValue();
+    }
+
+    public static class Sample implements SampleMBean {
+        @Override
+        public int getValue() {
+            return 1;
+        }
+    }
+
+    @Test
+    public void testInvalidateOnUnregistration() throws Exception {
+        MBeanServer server = MBeanServerFactory.newMBeanServer();
+        ObjectName name = new ObjectName("test:type=Sample");
+        server.registerMBean(new StandardMBean(new Sample(), SampleMBean.class), name);
+
+        MBeanInfoCache.subscribe(server);
+        MBeanInfo first = MBeanInfoCache.getMBeanInfo(server, name);
+        assertSame(first, MBeanInfoCache.getMBeanInfo(server, name));
+
+        // re-registration must be seen through MBeanServerDelegate notifications
+        server.unregisterMBean(name);
+        server.registerMBean(new StandardMBean(new Sample(), SampleMBean.class), name);
+        assertNotSame(first, MBeanInfoCache.getMBeanInfo(server, name));
+    }
+
+    @Test
+    public void testUnsubscribe() throws Exception {
+        MBeanServer server = MBeanServerFactory.newMBeanServer();
+        ObjectName name = new ObjectName("test:type=Sample");
+        server.registerMBean(new StandardMBean(new Sample(), SampleMBean.class), name);
+
+        MBeanInfoCache.subscribe(server);
+        MBeanInfoCache.unsubscribe(server, true);
+        MBeanInfo first = MBeanInfoCache.getMBeanInfo(server, name);
+
+        // without subscription, entries only expire by TTL
+        server.unregisterMBean(name);
+        server.registerMBean(new StandardMBean(new Sample(), SampleMBean.class), name);
+        assertSame(first, MBeanInfoCache.getMBeanInfo(server, name));
+    }
+
+    @Test
+    public void testInvalidateWhileFetching() throws Exception {
+        final MBeanServer server = MBeanServerFactory.newMBeanServer();
+        final ObjectName name = new ObjectName("test:type=Sample");
+        server.registerMBean(new StandardMBean(new Sample(), SampleMBean.class), name);
+
+        // the bean is invalidated after its info is fetched and before it's cached
+        final AtomicInteger fetches = new AtomicInteger();
+        final MBeanServerConnection[] holder = new MBeanServerConnection[1];
+        holder[0] = (MBeanServerConnection) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{MBeanServerConnection.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        try {
+                            Object result = method.invoke(server, args);
+                            if (method.getName().equals("getMBeanInfo")) {
+                                fetches.incrementAndGet();
+                                MBeanInfoCache.invalidate(holder[0], name);
+                            }
+                            return result;
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    }
+                });
+
+        MBeanInfoCache.getMBeanInfo(holder[0], name);
+        MBeanInfoCache.getMBeanInfo(holder[0], name);
+        assertEquals(2, fetches.get());
+    }
+}
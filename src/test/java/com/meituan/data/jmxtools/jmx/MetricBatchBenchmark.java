@@ -0,0 +1,84 @@
+package com.meituan.data.jmxtools.jmx;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares bytes allocated per collected metric when metrics of an endpoint are gathered as
+ * {@link Metric} objects (a TreeMap per group, then a list, as resolvers used to do) and into a
+ * {@link MetricBatch} reused among collections.
+ *
+ * <p>Names and values are prepared up front, as both ways get the same names and boxed values
+ * from JMX. Not a unit test, run it with
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.meituan.data.jmxtools.jmx.MetricBatchBenchmark
+ * </pre>
+ */
+public class MetricBatchBenchmark {
+    static final int GROUPS = 20;
+    static final int METRICS_PER_GROUP = 100;
+
+    public static void main(String[] args) {
+        String[][] names = new String[GROUPS][METRICS_PER_GROUP];
+        Number[][] values = new Number[GROUPS][METRICS_PER_GROUP];
+        for (int g = 0; g < GROUPS; g++) {
+            for (int m = 0; m < METRICS_PER_GROUP; m++) {
+                names[g][m] = "Group" + g + ".Attribute" + m + ".Count";
+                values[g][m] = (m % 2 == 0) ? (Number) (long) (m * 1000) : (Number) (m * 0.5);
+            }
+        }
+
+        final int rounds = 2000;
+        int metrics = GROUPS * METRICS_PER_GROUP;
+        MetricBatch batch = new MetricBatch();
+        for (int i = 0; i < 5; i++) {   // the first iterations warm up the JIT
+            long objects = allocatedBytes();
+            int count = 0;
+            for (int r = 0; r < rounds; r++) {
+                count += collectObjects(names, values).size();
+            }
+            objects = allocatedBytes() - objects;
+
+            long columns = allocatedBytes();
+            for (int r = 0; r < rounds; r++) {
+                batch.clear();
+                collectBatch(names, values, batch);
+                count += batch.size();
+            }
+            columns = allocatedBytes() - columns;
+
+            System.out.printf("metrics=%d objects=%.1fB/metric batch=%.1fB/metric (checked %d)%n",
+                    metrics, (double) objects / (rounds * metrics), (double) columns / (rounds * metrics), count);
+        }
+    }
+
+    private static List<Metric> collectObjects(String[][] names, Number[][] values) {
+        List<Metric> result = Lists.newArrayList();
+        for (int g = 0; g < names.length; g++) {
+            Map<String, Metric> group = Maps.newTreeMap();
+            for (int m = 0; m < names[g].length; m++) {
+                group.put(names[g][m], new Metric(names[g][m], values[g][m], Metric.Type.GAUGE));
+            }
+            result.addAll(group.values());
+        }
+        return result;
+    }
+
+    private static void collectBatch(String[][] names, Number[][] values, MetricBatch batch) {
+        for (int g = 0; g < names.length; g++) {
+            for (int m = 0; m < names[g].length; m++) {
+                batch.add(names[g][m], values[g][m], Metric.Type.GAUGE);
+            }
+        }
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,116 @@
+package com.meituan.data.jmxtools.jmx;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MetricBatchTest {
+
+    @Test
+    public void testColumns() {
+        MetricNames names = new MetricNames();
+        MetricBatch batch = new MetricBatch(names, 1);
+        batch.add("a", 1, Metric.Type.GAUGE);
+        batch.add("b", 2.5, Metric.Type.COUNTER);
+        batch.add("c", Long.MAX_VALUE, Metric.Type.GAUGE);
+        batch.add(new Metric("a", 3, Metric.Type.GAUGE, ImmutableMap.of("pid", "1")));
+
+        assertEquals(4, batch.size());
+        assertEquals(3, names.size());
+        assertEquals(batch.getNameId(0), batch.getNameId(3));
+        assertEquals("b", batch.getName(1));
+
+        assertTrue(batch.isIntegral(0));
+        assertEquals(1L, batch.getValue(0));
+        assertFalse(batch.isIntegral(1));
+        assertEquals(2.5, batch.getValue(1));
+        assertEquals(2L, batch.getLong(1));
+        assertEquals(Metric.Type.COUNTER, batch.getType(1));
+        assertEquals(Long.MAX_VALUE, batch.getLong(2));
+        assertEquals("1", batch.getTags(3).get("pid"));
+        assertTrue(batch.getTags(0).isEmpty());
+
+        List<Metric> metrics = batch.toMetrics();
+        assertEquals(4, metrics.size());
+        assertEquals("a", metrics.get(3).getName());
+        assertEquals(ImmutableMap.of("pid", "1"), metrics.get(3).getTags());
+
+        // columns are kept for reuse
+        batch.clear();
+        assertTrue(batch.isEmpty());
+        batch.add("d", 4, Metric.Type.GAUGE);
+        assertEquals("d", batch.getName(0));
+        assertEquals(4, names.size());
+    }
+
+    @Test
+    public void testAddAllAndTag() {
+        MetricBatch batch = new MetricBatch();
+        batch.add("alive", 1, Metric.Type.GAUGE);
+
+        MetricBatch instance = new MetricBatch(batch.getNames());
+        instance.add("a", 1, Metric.Type.GAUGE);
+        instance.add(new Metric("b", 2, Metric.Type.GAUGE, ImmutableMap.of("bean", "x")));
+        batch.addAll(instance);
+        batch.tag(1, "pid", "42");
+
+        assertEquals(3, batch.size());
+        assertTrue(batch.getTags(0).isEmpty());
+        assertEquals(ImmutableMap.of("pid", "42"), batch.getTags(1));
+        assertEquals(ImmutableMap.of("bean", "x", "pid", "42"), batch.getTags(2));
+        assertTrue(instance.getTags(0).isEmpty());
+
+        // batches of other names are copied by name
+        MetricBatch other = MetricBatch.of(Lists.newArrayList(new Metric("z", 9, Metric.Type.COUNTER)));
+        batch.addAll(other);
+        assertEquals("z", batch.getName(3));
+        assertEquals(Metric.Type.COUNTER, batch.getType(3));
+
+        MetricBatch copy = batch.copy();
+        batch.clear();
+        assertEquals(4, copy.size());
+        assertEquals(9L, copy.getValue(3));
+        assertSame(batch.getNames(), copy.getNames());
+    }
+
+    @Test
+    public void testInternJoined() {
+        MetricNames names = new MetricNames();
+        int id = names.intern("Jvm.", "GC.All.Count");
+        assertEquals("Jvm.GC.All.Count", names.getName(id));
+        assertEquals(id, names.intern("Jvm.GC.All.Count"));
+        assertEquals(id, names.intern("Jvm.", "GC.All.Count"));
+        assertEquals(id, names.intern("Jvm.GC.", "All.Count"));
+        assertEquals(1, names.size());
+
+        MetricBatch batch = new MetricBatch(names);
+        batch.add("Jvm.", "GC.All.Count", 3L, Metric.Type.GAUGE);
+        batch.add("Jvm.", "OS.SystemCpuLoad", 0.5, Metric.Type.GAUGE);
+        assertEquals(id, batch.getNameId(0));
+        assertEquals(3L, batch.getValue(0));
+        assertEquals("Jvm.OS.SystemCpuLoad", batch.getName(1));
+        assertEquals(0.5, batch.getValue(1));
+    }
+
+    @Test
+    public void testRenewNames() {
+        MetricNames names = new MetricNames();
+        MetricBatch batch = new MetricBatch(names);
+        for (int i = 0; i < MetricNames.RENEW_SLACK + 40; i++) {
+            names.intern("Topic" + i + ".Count");
+        }
+        batch.add("Topic0.Count", 1, Metric.Type.GAUGE);
+        assertFalse(names.shouldRenew(10));
+        assertTrue(names.shouldRenew(batch.size()));
+
+        // metrics kept from the old dictionary are copied by name
+        MetricBatch renewed = new MetricBatch(new MetricNames());
+        renewed.addAll(batch);
+        assertEquals("Topic0.Count", renewed.getName(0));
+        assertEquals(1, renewed.getNames().size());
+    }
+}
@@ -0,0 +1,116 @@
+package com.meituan.data.jmxtools.jmx;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.meituan.data.jmxtools.conf.GlobMetricGroup;
+import com.meituan.data.jmxtools.conf.MetricGroup;
+import org.junit.Test;
+
+import javax.management.MBeanServerConnection;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class MetricCollectorTest {
+
+    private static List<String> collectNames(MetricCollector collector, MBeanServerConnection connection)
+            throws IOException {
+        List<String> names = Lists.newArrayList();
+        for (Metric metric : collectMetrics(collector, connection)) {
+            names.add(metric.getName());
+        }
+        return names;
+    }
+
+    private static List<Metric> collectMetrics(MetricCollector collector, MBeanServerConnection connection)
+            throws IOException {
+        List<Metric> metrics = Lists.newArrayList();
+        collector.collect(connection, metrics);
+        return metrics;
+    }
+
+    @Test
+    public void testIntervalCycles() throws IOException {
+        MBeanServerConnection connection = ManagementFactory.getPlatformMBeanServer();
+        GlobMetricGroup everyCycle = new GlobMetricGroup("Threading", "java.lang:type=Threading",
+                Lists.newArrayList("ThreadCount"), null);
+        GlobMetricGroup everyOther = new GlobMetricGroup("ClassLoading", "java.lang:type=ClassLoading",
+                Lists.newArrayList("LoadedClassCount"), null);
+        everyOther.setIntervalCycles(2);
+        everyOther.setStalePolicy(MetricGroup.StalePolicy.SKIP);
+        MetricCollector collector = new MetricCollector(Lists.<MetricGroup>newArrayList(everyCycle, everyOther));
+
+        assertEquals(Lists.newArrayList("Threading.ThreadCount", "ClassLoading.LoadedClassCount"),
+                collectNames(collector, connection));
+        assertEquals(Collections.singletonList("Threading.ThreadCount"), collectNames(collector, connection));
+        assertEquals(Lists.newArrayList("Threading.ThreadCount", "ClassLoading.LoadedClassCount"),
+                collectNames(collector, connection));
+
+        // the last collected values are reported in between
+        everyOther.setStalePolicy(MetricGroup.StalePolicy.REUSE);
+        List<Metric> reused = collectMetrics(collector, connection);
+        assertEquals(2, reused.size());
+        assertEquals("ClassLoading.LoadedClassCount", reused.get(1).getName());
+    }
+
+    @Test
+    public void testCountersNotReused() throws IOException {
+        MBeanServerConnection connection = ManagementFactory.getPlatformMBeanServer();
+        GlobMetricGroup group = new GlobMetricGroup("ClassLoading", "java.lang:type=ClassLoading",
+                Lists.newArrayList("LoadedClassCount"), Lists.newArrayList("TotalLoadedClassCount"));
+        group.setIntervalCycles(2);
+        MetricCollector collector = new MetricCollector(Lists.<MetricGroup>newArrayList(group));
+
+        assertEquals(Sets.newHashSet("ClassLoading.LoadedClassCount", "ClassLoading.TotalLoadedClassCount.Delta"),
+                Sets.newHashSet(collectNames(collector, connection)));
+        // a repeated counter value would read as no change, so only gauges are reused
+        assertEquals(Collections.singletonList("ClassLoading.LoadedClassCount"), collectNames(collector, connection));
+    }
+
+    @Test
+    public void testMoreGroupsInFlightThanThreads() throws Exception {
+        // a slow group, resolved by more concurrent collections than the pool had threads before
+        MetricGroup slow = new MetricGroup("Slow") {
+            @Override
+            public Collection<Metric> resolveMetrics(MBeanServerConnection connection) throws IOException {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+                return Collections.singletonList(new Metric("Slow.Count", 1, Metric.Type.GAUGE));
+            }
+        };
+        final MetricCollector collector = new MetricCollector(Collections.singletonList(slow));
+        final MBeanServerConnection connection = ManagementFactory.getPlatformMBeanServer();
+
+        int collections = 100;
+        ExecutorService pool = Executors.newFixedThreadPool(collections);
+        try {
+            List<Future<List<Metric>>> futures = Lists.newArrayList();
+            for (int i = 0; i < collections; i++) {
+                futures.add(pool.submit(new Callable<List<Metric>>() {
+                    @Override
+                    public List<Metric> call() throws IOException {
+                        return collectMetrics(collector, connection);
+                    }
+                }));
+            }
+            // no group is skipped
+            for (Future<List<Metric>> future : futures) {
+                assertEquals(1, future.get().size());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
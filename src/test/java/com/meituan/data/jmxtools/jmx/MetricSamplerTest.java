@@ -0,0 +1,77 @@
+package com.meituan.data.jmxtools.jmx;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+public class MetricSamplerTest {
+
+    private static Map<String, Number> toMap(List<Metric> metrics) {
+        Map<String, Number> result = new TreeMap<>();
+        for (Metric metric : metrics) {
+            result.put(metric.getName() + metric.getTags(), metric.getValue());
+        }
+        return result;
+    }
+
+    @Test
+    public void testSummaries() {
+        MetricSampler sampler = new MetricSampler(128);
+        for (int i = 1; i <= 100; i++) {
+            sampler.add(Lists.newArrayList(
+                    new Metric("Blocked", i, Metric.Type.GAUGE),
+                    new Metric("Blocked", i * 2, Metric.Type.GAUGE, ImmutableMap.of("pid", "1")),
+                    new Metric("Started.Delta", i, Metric.Type.COUNTER)));
+        }
+
+        List<Metric> result = Lists.newArrayList();
+        sampler.drain(result);
+        Map<String, Number> values = toMap(result);
+        assertEquals(13, values.size());
+        assertEquals(100, values.get("Blocked{}"));
+        assertEquals(1.0, values.get("Blocked.Min{}"));
+        assertEquals(100.0, values.get("Blocked.Max{}"));
+        assertEquals(50.5, values.get("Blocked.Mean{}"));
+        assertEquals(50.0, values.get("Blocked.P50{}"));
+        assertEquals(99.0, values.get("Blocked.P99{}"));
+        assertEquals(200.0, values.get("Blocked.Max{pid=1}"));
+        assertEquals(100, values.get("Started.Delta{}"));
+
+        // start over, metrics no longer sampled are forgotten
+        sampler.add(Lists.newArrayList(new Metric("Blocked", 7, Metric.Type.GAUGE)));
+        result.clear();
+        sampler.drain(result);
+        values = toMap(result);
+        assertEquals(6, values.size());
+        assertEquals(7.0, values.get("Blocked.Min{}"));
+        assertEquals(7.0, values.get("Blocked.P99{}"));
+
+        result.clear();
+        sampler.drain(result);
+        assertTrue(result.isEmpty());
+    }
+
+    @Test
+    public void testReservoirOverflow() {
+        MetricSampler sampler = new MetricSampler(16);
+        for (int i = 1; i <= 1000; i++) {
+            sampler.add(Lists.newArrayList(new Metric("m", i, Metric.Type.GAUGE)));
+        }
+
+        List<Metric> result = Lists.newArrayList();
+        sampler.drain(result);
+        Map<String, Number> values = toMap(result);
+        // exact regardless of the reservoir size
+        assertEquals(1.0, values.get("m.Min{}"));
+        assertEquals(1000.0, values.get("m.Max{}"));
+        assertEquals(500.5, values.get("m.Mean{}"));
+        double p50 = values.get("m.P50{}").doubleValue();
+        assertTrue(p50 >= 1 && p50 <= 1000);
+    }
+}
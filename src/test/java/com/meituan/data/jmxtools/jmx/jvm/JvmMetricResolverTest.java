@@ -0,0 +1,170 @@
+package com.meituan.data.jmxtools.jmx.jvm;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.primitives.Longs;
+import com.meituan.data.jmxtools.conf.JvmMetricGroup;
+import com.meituan.data.jmxtools.conf.MetricGroup;
+import com.meituan.data.jmxtools.jmx.Metric;
+import com.meituan.data.jmxtools.jmx.MetricBatch;
+import org.junit.Test;
+
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class JvmMetricResolverTest {
+
+    private final AtomicInteger calls = new AtomicInteger();
+
+    // the platform server, counting calls as if they were remote
+    private MBeanServerConnection newCountingConnection() {
+        final MBeanServerConnection server = ManagementFactory.getPlatformMBeanServer();
+        return (MBeanServerConnection) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class<?>[]{MBeanServerConnection.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        calls.incrementAndGet();
+                        try {
+                            return method.invoke(server, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    }
+                });
+    }
+
+    private static int getBeanCount() {
+        return 4 + ManagementFactory.getMemoryPoolMXBeans().size()
+                + ManagementFactory.getGarbageCollectorMXBeans().size();
+    }
+
+    private static Map<String, Number> toMap(Collection<Metric> metrics) {
+        Map<String, Number> result = Maps.newHashMap();
+        for (Metric metric : metrics) {
+            result.put(metric.getName(), metric.getValue());
+        }
+        return result;
+    }
+
+    @Test
+    public void testResolve() throws Exception {
+        JvmMetricResolver resolver = new JvmMetricResolver(newCountingConnection());
+        JvmMetricGroup group = new JvmMetricGroup("Jvm");
+        resolver.resolve(group);
+
+        calls.set(0);
+        Map<String, Number> metrics = toMap(resolver.resolve(group));
+        // one call per bean, and two thread operations
+        assertEquals(getBeanCount() + 2, calls.get());
+
+        assertTrue(metrics.keySet().containsAll(Sets.newHashSet(
+                "Jvm.Mem.Heap.Used",
+                "Jvm.Mem.NonHeap.Committed",
+                "Jvm.GC.All.Count.Delta",
+                "Jvm.ClassLoading.Loaded",
+                "Jvm.Thread.LiveCount",
+                "Jvm.Thread.DeadlockCount",
+                "Jvm.Thread.TimedWaiting.Count",
+                "Jvm.OS.ProcessCpuLoad")));
+        // at least the thread running this test
+        assertTrue(metrics.get("Jvm.Thread.Runnable.Count").intValue() >= 1);
+    }
+
+    @Test
+    public void testSampledThreadStates() throws Exception {
+        JvmMetricGroup group = new ObjectMapper().readValue(
+                "{\"group\": \"Jvm\", \"resolver\": \"jvm\", \"threadStateMode\": \"sampled\", "
+                        + "\"threadStateSampleSize\": 2, \"collectorIntervals\": {\"Thread\": 2}}",
+                JvmMetricGroup.class);
+        assertEquals(JvmMetricGroup.ThreadStateMode.SAMPLED, group.getThreadStateMode());
+
+        JvmMetricResolver resolver = new JvmMetricResolver(newCountingConnection());
+        Map<String, Number> first = toMap(resolver.resolve(group));
+        long estimated = first.get("Jvm.Thread.Runnable.Count").longValue()
+                + first.get("Jvm.Thread.Blocked.Count").longValue()
+                + first.get("Jvm.Thread.Waiting.Count").longValue()
+                + first.get("Jvm.Thread.TimedWaiting.Count").longValue();
+        assertTrue(estimated > 0);
+
+        // states are not counted again in the next cycle, and the last counts are reported
+        calls.set(0);
+        Map<String, Number> second = toMap(resolver.resolve(group));
+        assertEquals(getBeanCount(), calls.get());
+        assertEquals(first.get("Jvm.Thread.Waiting.Count"), second.get("Jvm.Thread.Waiting.Count"));
+    }
+
+    @Test
+    public void testSample() {
+        long[] ids = {1, 2, 3, 4, 5};
+        long[] sample = ThreadCollector.sample(ids, 3);
+        assertEquals(3, sample.length);
+        assertEquals(3, Sets.newHashSet(Longs.asList(sample)).size());
+        assertTrue(Longs.asList(ids).containsAll(Longs.asList(sample)));
+    }
+
+    @Test
+    public void testCollectorIntervals() throws Exception {
+        JvmMetricGroup group = new JvmMetricGroup("Jvm");
+        group.setCollectorIntervals(ImmutableMap.of("Deadlock", 3, "Thread", 2));
+        group.setStalePolicy(MetricGroup.StalePolicy.SKIP);
+
+        JvmMetricResolver resolver = new JvmMetricResolver(newCountingConnection());
+        assertTrue(toMap(resolver.resolve(group)).containsKey("Jvm.Thread.DeadlockCount"));
+
+        // neither thread infos nor deadlocks are read in the second cycle
+        calls.set(0);
+        Map<String, Number> second = toMap(resolver.resolve(group));
+        assertEquals(getBeanCount() - 1, calls.get());
+        assertFalse(second.containsKey("Jvm.Thread.LiveCount"));
+        assertFalse(second.containsKey("Jvm.Thread.DeadlockCount"));
+        assertTrue(second.containsKey("Jvm.Mem.Heap.Used"));
+
+        Map<String, Number> third = toMap(resolver.resolve(group));
+        assertTrue(third.containsKey("Jvm.Thread.LiveCount"));
+        assertFalse(third.containsKey("Jvm.Thread.DeadlockCount"));
+
+        // the last metrics of collectors not run are reported again
+        group.setStalePolicy(MetricGroup.StalePolicy.REUSE);
+        Map<String, Number> fourth = toMap(resolver.resolve(group));
+        assertEquals(third.get("Jvm.Thread.LiveCount"), fourth.get("Jvm.Thread.LiveCount"));
+        assertTrue(fourth.containsKey("Jvm.Thread.DeadlockCount"));
+    }
+
+    @Test
+    public void testGcWithoutCollectionCount() throws Exception {
+        Attributes young = new Attributes(new ObjectName("java.lang:type=GarbageCollector,name=Copy"));
+        young.put("Name", "Copy");
+        young.put("CollectionTime", 20L);
+        Attributes old = new Attributes(new ObjectName("java.lang:type=GarbageCollector,name=MarkSweepCompact"));
+        old.put("Name", "MarkSweepCompact");
+        old.put("CollectionCount", -1L);
+        old.put("CollectionTime", 30L);
+
+        MetricBatch batch = new MetricBatch();
+        new GcCollector(Arrays.asList(young, old)).collect("Jvm.", batch);
+        Map<String, Number> metrics = toMap(batch.toMetrics());
+        assertEquals(20L, metrics.get("Jvm.GC.Minor.TimeMillis"));
+        assertEquals(50L, metrics.get("Jvm.GC.All.TimeMillis"));
+        assertFalse(metrics.containsKey("Jvm.GC.Minor.Count"));
+        assertFalse(metrics.containsKey("Jvm.GC.Major.Count"));
+        assertFalse(metrics.containsKey("Jvm.GC.All.Count"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownCollector() {
+        new JvmMetricGroup("Jvm").setCollectorIntervals(ImmutableMap.of("Unknown", 2));
+    }
+}
@@ -0,0 +1,200 @@
+package com.meituan.data.jmxtools.reporter;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import com.meituan.data.jmxtools.jmx.Metric;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AsyncReporterTest {
+
+    // records timestamps of reports, fails the first `failures` calls, and blocks until `gate` opens
+    private static class RecordingReporter implements Reporter {
+        final List<Long> timestamps = new CopyOnWriteArrayList<>();
+        final CountDownLatch gate;
+        int failures;
+        boolean closed;
+
+        RecordingReporter(int failures, CountDownLatch gate) {
+            this.failures = failures;
+            this.gate = gate;
+        }
+
+        @Override
+        public void report(String serviceHost, String serviceName, long timestamp,
+                           List<Metric> metrics) throws MetricsReportException {
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                throw new MetricsReportException("interrupted", e);
+            }
+            if (failures > 0) {
+                failures--;
+                throw new MetricsReportException("failure");
+            }
+            timestamps.add(timestamp);
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    private static List<Metric> newMetrics() {
+        return Lists.newArrayList(new Metric("m", 1, Metric.Type.GAUGE));
+    }
+
+    @Test
+    public void testRetry() throws Exception {
+        RecordingReporter delegate = new RecordingReporter(2, new CountDownLatch(0));
+        AsyncReporter reporter = new AsyncReporter(delegate,
+                ImmutableMap.of("maxRetries", "2", "retryBackoff", "10"));
+
+        reporter.report("host", "svc", 1, newMetrics());
+        reporter.close();
+        assertEquals(Lists.newArrayList(1L), delegate.timestamps);
+        assertTrue(delegate.closed);
+
+        try {
+            reporter.report("host", "svc", 2, newMetrics());
+            fail();
+        } catch (MetricsReportException e) {
+            assertEquals("Reporter is closed", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testGiveUpAfterRetries() throws Exception {
+        RecordingReporter delegate = new RecordingReporter(3, new CountDownLatch(0));
+        AsyncReporter reporter = new AsyncReporter(delegate,
+                ImmutableMap.of("maxRetries", "2", "retryBackoff", "10"));
+
+        reporter.report("host", "svc", 1, newMetrics());
+        reporter.close();
+        assertTrue(delegate.timestamps.isEmpty());
+    }
+
+    @Test
+    public void testRetryNotHoldingUpOthers() throws Exception {
+        // reports of "bad" always fail
+        final List<String> sent = new CopyOnWriteArrayList<>();
+        Reporter delegate = new Reporter() {
+            @Override
+            public void report(String serviceHost, String serviceName, long timestamp,
+                               List<Metric> metrics) throws MetricsReportException {
+                if (serviceName.equals("bad")) {
+                    throw new MetricsReportException("failure");
+                }
+                sent.add(serviceName + timestamp);
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        AsyncReporter reporter = new AsyncReporter(delegate,
+                ImmutableMap.of("maxRetries", "2", "retryBackoff", "5000"));
+
+        reporter.report("host", "bad", 1, newMetrics());
+        reporter.report("host", "good", 1, newMetrics());
+        reporter.report("host", "good", 2, newMetrics());
+
+        // sent long before the first retry of the failed report is due
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (sent.size() < 2 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(Lists.newArrayList("good1", "good2"), sent);
+    }
+
+    @Test
+    public void testDropOldest() throws Exception {
+        CountDownLatch gate = new CountDownLatch(1);
+        RecordingReporter delegate = new RecordingReporter(0, gate);
+        AsyncReporter reporter = new AsyncReporter(delegate, ImmutableMap.of("queueSize", "2"));
+
+        // the first report is taken by the worker, which is blocked
+        reporter.report("host", "svc", 1, newMetrics());
+        waitUntilQueueEmpty(reporter);
+        for (long ts = 2; ts <= 5; ts++) {
+            reporter.report("host", "svc", ts, newMetrics());
+        }
+        assertEquals(2, reporter.getDroppedCount());
+
+        gate.countDown();
+        reporter.close();
+        assertEquals(Lists.newArrayList(1L, 4L, 5L), delegate.timestamps);
+    }
+
+    @Test
+    public void testDropNewest() throws Exception {
+        CountDownLatch gate = new CountDownLatch(1);
+        RecordingReporter delegate = new RecordingReporter(0, gate);
+        AsyncReporter reporter = new AsyncReporter(delegate,
+                ImmutableMap.of("queueSize", "2", "dropPolicy", "dropNewest"));
+
+        reporter.report("host", "svc", 1, newMetrics());
+        waitUntilQueueEmpty(reporter);
+        reporter.report("host", "svc", 2, newMetrics());
+        reporter.report("host", "svc", 3, newMetrics());
+        try {
+            reporter.report("host", "svc", 4, Collections.<Metric>emptyList());
+            fail();
+        } catch (MetricsReportException e) {
+            assertEquals(1, reporter.getDroppedCount());
+        }
+
+        gate.countDown();
+        reporter.close();
+        assertEquals(Lists.newArrayList(1L, 2L, 3L), delegate.timestamps);
+    }
+
+    @Test
+    public void testDropPolicyOf() throws Exception {
+        assertEquals(AsyncReporter.DropPolicy.DROP_OLDEST, AsyncReporter.DropPolicy.of("dropOldest"));
+        assertEquals(AsyncReporter.DropPolicy.DROP_NEWEST, AsyncReporter.DropPolicy.of("dropNewest"));
+    }
+
+    // wait until the worker took the first report
+    private static void waitUntilQueueEmpty(AsyncReporter reporter) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (reporter.getQueueSize() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, reporter.getQueueSize());
+    }
+
+    @Test
+    public void testSpoolAndReplay() throws Exception {
+        File dir = Files.createTempDir();
+        try {
+            // fails all attempts of the first 2 reports, which go to spool
+            RecordingReporter delegate = new RecordingReporter(2, new CountDownLatch(0));
+            AsyncReporter reporter = new AsyncReporter(delegate, ImmutableMap.of(
+                    "maxRetries", "0", "spoolDir", dir.getPath(), "spoolReplayRate", "100"));
+            reporter.report("host", "svc", 1, newMetrics());
+            reporter.report("host", "svc", 2, newMetrics());
+
+            // a succeeded report triggers replaying
+            reporter.report("host", "svc", 3, newMetrics());
+            reporter.close();
+            assertEquals(Lists.newArrayList(3L, 1L, 2L), delegate.timestamps);
+
+        } finally {
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.meituan.data.jmxtools.reporter;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.meituan.data.jmxtools.conf.ReporterConf;
+import com.meituan.data.jmxtools.jmx.Metric;
+import com.meituan.data.jmxtools.jmx.MetricBatch;
+import com.meituan.data.jmxtools.jmx.MetricNames;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class CounterReporterTest {
+
+    private static Metric counter(long value) {
+        return new Metric("gc.Count.Delta", value, Metric.Type.COUNTER);
+    }
+
+    @Test
+    public void testDelta() throws Exception {
+        TestCustomReporter target = new TestCustomReporter(Collections.<String, String>emptyMap());
+        Reporter reporter = new CounterReporter(target, ImmutableMap.of("counterMode", "delta"));
+        Metric gauge = new Metric("heap", 5, Metric.Type.GAUGE);
+
+        // first value has nothing to compare with
+        reporter.report("host", "svc", 60, Lists.newArrayList(counter(100), gauge));
+        assertEquals(1, target.lastMetrics.size());
+        assertEquals("heap", target.lastMetrics.get(0).getName());
+        assertEquals(5L, target.lastMetrics.get(0).getValue());
+
+        reporter.report("host", "svc", 120, Lists.newArrayList(counter(130), gauge));
+        assertEquals(2, target.lastMetrics.size());
+        Metric delta = target.lastMetrics.get(0);
+        assertEquals("gc.Count.Delta", delta.getName());
+        assertEquals(Metric.Type.GAUGE, delta.getType());
+        assertEquals(30L, delta.getValue());
+
+        // reset, counted from zero
+        reporter.report("host", "svc", 180, Lists.newArrayList(counter(10)));
+        assertEquals(10L, target.lastMetrics.get(0).getValue());
+
+        // out of order
+        reporter.report("host", "svc", 170, Lists.newArrayList(counter(5)));
+        assertTrue(target.lastMetrics.isEmpty());
+
+        // gap too long
+        reporter.report("host", "svc", 1000, Lists.newArrayList(counter(20)));
+        assertTrue(target.lastMetrics.isEmpty());
+        reporter.report("host", "svc", 1060, Lists.newArrayList(counter(25)));
+        assertEquals(5L, target.lastMetrics.get(0).getValue());
+
+        // counters of another host are kept apart
+        reporter.report("other", "svc", 1060, Lists.newArrayList(counter(25)));
+        assertTrue(target.lastMetrics.isEmpty());
+
+        reporter.close();
+        assertTrue(target.closed);
+    }
+
+    @Test
+    public void testRate() throws Exception {
+        TestCustomReporter target = new TestCustomReporter(Collections.<String, String>emptyMap());
+        Reporter reporter = new CounterReporter(target, ImmutableMap.of("counterMode", "rate"));
+        Map<String, String> tags = ImmutableMap.of("pid", "1");
+
+        reporter.report("host", "svc", 60, Lists.newArrayList(
+                new Metric("c.Delta", 100, Metric.Type.COUNTER, tags), new Metric("c.Delta", 0.5, Metric.Type.COUNTER)));
+        reporter.report("host", "svc", 80, Lists.newArrayList(
+                new Metric("c.Delta", 300, Metric.Type.COUNTER, tags), new Metric("c.Delta", 1.5, Metric.Type.COUNTER)));
+
+        assertEquals(2, target.lastMetrics.size());
+        Metric tagged = target.lastMetrics.get(0);
+        assertEquals("c.Rate", tagged.getName());
+        assertEquals(Metric.Type.GAUGE, tagged.getType());
+        assertEquals(tags, tagged.getTags());
+        assertEquals(10.0, tagged.getValue().doubleValue(), 1e-9);
+        assertEquals(0.05, target.lastMetrics.get(1).getValue().doubleValue(), 1e-9);
+        assertEquals("c.Rate", CounterReporter.rateName("c"));
+    }
+
+    private static MetricBatch counterBatch(MetricNames names, String name, Number value) {
+        MetricBatch batch = new MetricBatch(names);
+        batch.add(name, value, Metric.Type.COUNTER);
+        return batch;
+    }
+
+    @Test
+    public void testEvict() {
+        CounterStore store = new CounterStore();
+        MetricNames names = new MetricNames();
+        for (int i = 0; i < 100; i++) {
+            store.update(counterBatch(names, "c" + i, i), 0, i, 600, false);
+        }
+        store.evictBefore(90);
+        assertEquals(10, store.size());
+        assertEquals(5L, store.update(counterBatch(names, "c95", 100), 0, 200, 600, false));
+        assertNull(store.update(counterBatch(names, "c5", 100), 0, 200, 600, false));
+
+        // counters are kept when reports come with another dictionary
+        MetricNames renewed = new MetricNames();
+        renewed.intern("other");
+        assertEquals(10L, store.update(counterBatch(renewed, "c95", 110), 0, 210, 600, false));
+    }
+
+    @Test
+    public void testTypeChange() {
+        CounterStore store = new CounterStore();
+        MetricNames names = new MetricNames();
+        store.update(counterBatch(names, "c", 100L), 0, 60, 600, false);
+
+        // integral and floating point values don't compare, taken as a reset
+        assertNull(store.update(counterBatch(names, "c", 130.5), 0, 120, 600, false));
+        assertEquals(10.0, store.update(counterBatch(names, "c", 140.5), 0, 180, 600, false));
+        assertNull(store.update(counterBatch(names, "c", 150L), 0, 240, 600, false));
+        assertEquals(5L, store.update(counterBatch(names, "c", 155L), 0, 300, 600, false));
+    }
+
+    @Test
+    public void testNewAsyncReporter() throws Exception {
+        try {
+            Reporters.newAsyncReporter(new ReporterConf(
+                    TestCustomReporter.class.getName(), ImmutableMap.of("counterMode", "sum")));
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("Invalid counterMode value: sum", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.meituan.data.jmxtools.reporter;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Lists;
+import com.meituan.data.jmxtools.jmx.Metric;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+public class FalconPayloadEntityTest {
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private List<Metric> newMetrics() {
+        StringBuilder longName = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            longName.append("VeryLongName.");
+        }
+        return Lists.newArrayList(
+                new Metric("Memory.HeapMemoryUsage.used", 1024L, Metric.Type.GAUGE),
+                new Metric("Gc.Count", 1.5, Metric.Type.COUNTER).withTag("pid", "123"),
+                new Metric(longName.toString() + "end", 7, Metric.Type.GAUGE));
+    }
+
+    private void assertPayload(List<Metric> metrics, JsonNode payload) {
+        assertEquals(metrics.size(), payload.size());
+        for (int i = 0; i < metrics.size(); i++) {
+            JsonNode item = payload.get(i);
+            assertEquals("host", item.get("endpoint").asText());
+            assertEquals("svc." + metrics.get(i).getName(), item.get("metric").asText());
+            assertEquals(1500000000, item.get("timestamp").asInt());
+            assertEquals(60, item.get("step").asInt());
+            assertEquals(metrics.get(i).getType().name(), item.get("counterType").asText());
+        }
+
+        assertTrue(payload.get(0).get("value").isIntegralNumber());
+        assertEquals(1024L, payload.get(0).get("value").asLong());
+        assertEquals(1.5, payload.get(1).get("value").asDouble(), 0);
+        assertEquals("", payload.get(0).get("tags").asText());
+        assertEquals("pid=123", payload.get(1).get("tags").asText());
+    }
+
+    @Test
+    public void testWrite() throws Exception {
+        List<Metric> metrics = newMetrics();
+        FalconPayloadEntity entity = new FalconPayloadEntity("host", "svc", 1500000000L, 60, metrics, false);
+        assertNull(entity.getContentEncoding());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        entity.writeTo(out);
+        assertPayload(metrics, mapper.readTree(out.toByteArray()));
+
+        // entity is repeatable
+        ByteArrayOutputStream again = new ByteArrayOutputStream();
+        entity.writeTo(again);
+        assertArrayEquals(out.toByteArray(), again.toByteArray());
+    }
+
+    @Test
+    public void testWriteGzip() throws Exception {
+        List<Metric> metrics = newMetrics();
+        FalconPayloadEntity entity = new FalconPayloadEntity("host", "svc", 1500000000L, 60, metrics, true);
+        assertEquals("gzip", entity.getContentEncoding().getValue());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        entity.writeTo(out);
+        GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(out.toByteArray()));
+        assertPayload(metrics, mapper.readTree(in));
+
+        // content is the same payload
+        assertPayload(metrics, mapper.readTree(new GZIPInputStream(entity.getContent())));
+    }
+}
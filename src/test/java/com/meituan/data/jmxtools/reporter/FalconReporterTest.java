@@ -0,0 +1,50 @@
+package com.meituan.data.jmxtools.reporter;
+
+import com.meituan.data.jmxtools.jmx.Metric;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FalconReporterTest {
+
+    private static List<Metric> newMetrics(int count) {
+        List<Metric> metrics = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            metrics.add(new Metric("metric" + i, i, Metric.Type.GAUGE));
+        }
+        return metrics;
+    }
+
+    @Test
+    public void testSplitBySize() throws Exception {
+        List<Metric> metrics = newMetrics(25);
+        List<List<Metric>> batches = FalconReporter.split("host", "svc", metrics, 10, Long.MAX_VALUE);
+        assertEquals(3, batches.size());
+        assertEquals(10, batches.get(0).size());
+        assertEquals(10, batches.get(1).size());
+        assertEquals(5, batches.get(2).size());
+        assertEquals(metrics.get(10), batches.get(1).get(0));
+
+        assertEquals(1, FalconReporter.split("host", "svc", metrics, 25, Long.MAX_VALUE).size());
+        assertEquals(1, FalconReporter.split("host", "svc", newMetrics(0), 10, Long.MAX_VALUE).size());
+    }
+
+    @Test
+    public void testSplitByBytes() throws Exception {
+        List<Metric> metrics = newMetrics(10);
+        int itemSize = FalconPayloadEntity.estimateSize("host", "svc", metrics.get(0));
+
+        List<List<Metric>> batches = FalconReporter.split("host", "svc", metrics, 100, itemSize * 4);
+        assertEquals(3, batches.size());
+        assertEquals(4, batches.get(0).size());
+        assertEquals(4, batches.get(1).size());
+        assertEquals(2, batches.get(2).size());
+
+        // a metric exceeding the limit is sent alone
+        batches = FalconReporter.split("host", "svc", metrics, 100, 1);
+        assertEquals(10, batches.size());
+    }
+}
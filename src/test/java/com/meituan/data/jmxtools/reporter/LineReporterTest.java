@@ -0,0 +1,89 @@
+package com.meituan.data.jmxtools.reporter;
+
+import com.google.common.collect.ImmutableMap;
+import com.meituan.data.jmxtools.jmx.Metric;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LineReporterTest {
+
+    private static List<Metric> newMetrics(int count) {
+        List<Metric> metrics = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            metrics.add(new Metric("Memory.Pool " + i, i, Metric.Type.GAUGE));
+        }
+        metrics.add(new Metric("Gc:Time", 1.5, Metric.Type.COUNTER).withTag("pid", "12"));
+        metrics.add(new Metric("NaN", Double.NaN, Metric.Type.GAUGE));
+        return metrics;
+    }
+
+    @Test
+    public void testStatsd() throws Exception {
+        try (DatagramChannel server = DatagramChannel.open()) {
+            server.bind(new InetSocketAddress("127.0.0.1", 0));
+            int port = ((InetSocketAddress) server.getLocalAddress()).getPort();
+
+            StatsdReporter reporter = new StatsdReporter(ImmutableMap.of(
+                    "host", "127.0.0.1", "port", String.valueOf(port), "packetSize", "512"));
+            reporter.report("host.example.com", "svc", 100, newMetrics(100));
+            reporter.close();
+
+            StringBuilder received = new StringBuilder();
+            ByteBuffer buffer = ByteBuffer.allocate(65536);
+            int packets = 0;
+            server.configureBlocking(false);
+            while (server.receive(buffer) != null) {
+                assertTrue(buffer.position() <= 512);
+                received.append(new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8));
+                buffer.clear();
+                packets++;
+            }
+
+            String[] lines = received.toString().split("\n");
+            assertEquals(101, lines.length);
+            assertTrue(packets > 1 && packets < 20);
+            assertEquals("svc.host_example_com.Memory.Pool_0:0|g", lines[0]);
+            assertEquals("svc.host_example_com.Gc_Time:1.5|g|#pid:12", lines[100]);
+        }
+    }
+
+    @Test
+    public void testGraphite() throws Exception {
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress("127.0.0.1", 0));
+            int port = ((InetSocketAddress) server.getLocalAddress()).getPort();
+
+            GraphiteReporter reporter = new GraphiteReporter(ImmutableMap.of(
+                    "host", "127.0.0.1", "port", String.valueOf(port), "packetSize", "512"));
+            reporter.report("host.example.com", "svc", 100, newMetrics(100));
+            reporter.report("host.example.com", "svc", 160, newMetrics(0));
+            reporter.close();
+
+            ByteArrayOutputStream received = new ByteArrayOutputStream();
+            try (SocketChannel client = server.accept()) {
+                ByteBuffer buffer = ByteBuffer.allocate(4096);
+                while (client.read(buffer) >= 0) {
+                    received.write(buffer.array(), 0, buffer.position());
+                    buffer.clear();
+                }
+            }
+
+            String[] lines = new String(received.toByteArray(), StandardCharsets.UTF_8).split("\n");
+            assertEquals(102, lines.length);
+            assertEquals("svc.host_example_com.Memory.Pool_0 0 100", lines[0]);
+            assertEquals("svc.host_example_com.Gc:Time;pid=12 1.5 100", lines[100]);
+            assertEquals("svc.host_example_com.Gc:Time;pid=12 1.5 160", lines[101]);
+        }
+    }
+}
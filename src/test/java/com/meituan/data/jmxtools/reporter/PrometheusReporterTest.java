@@ -0,0 +1,79 @@
+package com.meituan.data.jmxtools.reporter;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+import com.meituan.data.jmxtools.jmx.Metric;
+import com.meituan.data.jmxtools.jmx.MetricBatch;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PrometheusReporterTest {
+
+    @Test
+    public void testEncode() throws Exception {
+        List<Metric> metrics1 = Lists.newArrayList(
+                new Metric("Memory.HeapMemoryUsage.used", 1024L, Metric.Type.GAUGE),
+                new Metric("Gc.PS-Scavenge.Count", 3, Metric.Type.COUNTER).withTag("pid", "12"));
+        List<Metric> metrics2 = Lists.newArrayList(
+                new Metric("Memory.HeapMemoryUsage.used", 0.5, Metric.Type.GAUGE),
+                new Metric("Memory_HeapMemoryUsage_used", 1, Metric.Type.GAUGE));
+
+        String text = new String(PrometheusReporter.encode(Lists.newArrayList(
+                new PrometheusReporter.Snapshot("h1", "svc", 1, MetricBatch.of(metrics1), 0),
+                new PrometheusReporter.Snapshot("h\"2", "svc", 1, MetricBatch.of(metrics2), 0))), StandardCharsets.UTF_8);
+
+        assertEquals("# TYPE svc_Gc_PS_Scavenge_Count counter\n"
+                + "svc_Gc_PS_Scavenge_Count{host=\"h1\",pid=\"12\"} 3\n"
+                + "# TYPE svc_Memory_HeapMemoryUsage_used gauge\n"
+                + "svc_Memory_HeapMemoryUsage_used{host=\"h1\"} 1024\n"
+                + "svc_Memory_HeapMemoryUsage_used{host=\"h\\\"2\"} 0.5\n", text);
+    }
+
+    @Test
+    public void testSanitizeName() throws Exception {
+        assertEquals("a_b:c_d", PrometheusReporter.sanitizeName("a.b:c-d"));
+        assertEquals("_1a", PrometheusReporter.sanitizeName("1a"));
+        assertEquals("a_b", PrometheusReporter.sanitizeLabelName("a:b"));
+    }
+
+    @Test
+    public void testScrape() throws Exception {
+        PrometheusReporter reporter = new PrometheusReporter(ImmutableMap.of("port", "0", "host", "127.0.0.1", "encodeDelayMillis", "0"));
+        try {
+            reporter.report("h1", "svc", 1, Lists.newArrayList(new Metric("m", 1, Metric.Type.GAUGE)));
+            reporter.report("h1", "svc", 3, Lists.newArrayList(new Metric("m", 3, Metric.Type.GAUGE)));
+            // an older report replayed late doesn't replace the newer one
+            reporter.report("h1", "svc", 2, Lists.newArrayList(new Metric("m", 2, Metric.Type.GAUGE)));
+
+            String expected = "# TYPE svc_m gauge\nsvc_m{host=\"h1\"} 3\n";
+            String body = null;
+            for (int i = 0; i < 100 && !expected.equals(body); i++) {
+                Thread.sleep(10);
+                body = scrape(reporter.getPort());
+            }
+            assertEquals(expected, body);
+
+        } finally {
+            reporter.close();
+        }
+    }
+
+    private static String scrape(int port) throws Exception {
+        HttpURLConnection conn = (HttpURLConnection) new URL("http://127.0.0.1:" + port + "/metrics").openConnection();
+        try (InputStream in = conn.getInputStream()) {
+            assertEquals(200, conn.getResponseCode());
+            assertTrue(conn.getContentType().startsWith("text/plain; version=0.0.4"));
+            return new String(ByteStreams.toByteArray(in), StandardCharsets.UTF_8);
+        } finally {
+            conn.disconnect();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.meituan.data.jmxtools.reporter;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.meituan.data.jmxtools.conf.ReporterConf;
+import com.meituan.data.jmxtools.jmx.Metric;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class ReportersTest {
+
+    @Test
+    public void testNewCustomReporter() throws Exception {
+        Reporter reporter = Reporters.newReporter(new ReporterConf(TestCustomReporter.class.getName(),
+                ImmutableMap.of("k", "v")));
+        assertTrue(reporter instanceof TestCustomReporter);
+        assertEquals("v", ((TestCustomReporter) reporter).options.get("k"));
+
+        try {
+            Reporters.newReporter(new ReporterConf("java.lang.String", Collections.<String, String>emptyMap()));
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("Invalid reporter class: java.lang.String", e.getMessage());
+        }
+
+        try {
+            Reporters.newReporter(new ReporterConf("unknown", Collections.<String, String>emptyMap()));
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("Unsupported reporter type: unknown", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testFanOut() throws Exception {
+        TestCustomReporter first = new TestCustomReporter(Collections.<String, String>emptyMap());
+        TestCustomReporter second = new TestCustomReporter(Collections.<String, String>emptyMap());
+        Reporter reporter = new FanOutReporter(Lists.newArrayList(
+                new AsyncReporter(first, Collections.<String, String>emptyMap()),
+                new AsyncReporter(second, Collections.<String, String>emptyMap())));
+
+        reporter.report("host", "svc", 1, Lists.newArrayList(new Metric("m", 1, Metric.Type.GAUGE)));
+        reporter.report("host", "svc", 2, Lists.newArrayList(new Metric("m", 2, Metric.Type.GAUGE)));
+        reporter.close();
+
+        assertEquals(Lists.newArrayList(1L, 2L), first.timestamps);
+        assertEquals(Lists.newArrayList(1L, 2L), second.timestamps);
+        assertTrue(first.closed && second.closed);
+    }
+
+    @Test
+    public void testSharedSpoolDir() throws Exception {
+        ReporterConf conf = new ReporterConf(TestCustomReporter.class.getName(), ImmutableMap.of("spoolDir", "/tmp/x"));
+        try {
+            Reporters.newAsyncReporter(Lists.newArrayList(conf, conf));
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("spoolDir /tmp/x is shared by reporters", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testComputesCounters() {
+        assertFalse(Reporters.computesCounters(new ReporterConf("falcon", Collections.<String, String>emptyMap())));
+        assertFalse(Reporters.computesCounters(new ReporterConf("falcon", ImmutableMap.of("counterMode", "raw"))));
+        assertTrue(Reporters.computesCounters(new ReporterConf("falcon", ImmutableMap.of("counterMode", "rate"))));
+    }
+
+    @Test
+    public void testServesMetrics() {
+        assertFalse(Reporters.servesMetrics(new ReporterConf("falcon", Collections.<String, String>emptyMap())));
+        assertTrue(Reporters.servesMetrics(new ReporterConf("prometheus", Collections.<String, String>emptyMap())));
+    }
+}
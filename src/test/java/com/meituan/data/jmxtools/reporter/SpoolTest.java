@@ -0,0 +1,137 @@
+package com.meituan.data.jmxtools.reporter;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import com.meituan.data.jmxtools.jmx.Metric;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SpoolTest {
+    private File dir;
+
+    @Before
+    public void setUp() {
+        dir = Files.createTempDir();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    private static Report newReport(long timestamp) {
+        List<Metric> metrics = Lists.newArrayList(
+                new Metric("Memory.used", 1024L, Metric.Type.GAUGE),
+                new Metric("Gc.Time", 1.5, Metric.Type.COUNTER).withTag("pid", "123"));
+        return new Report("host", "svc", timestamp, metrics);
+    }
+
+    @Test
+    public void testEncodeDecode() throws Exception {
+        Report decoded = Spool.decode(Spool.encode(newReport(100)));
+        assertEquals("host", decoded.serviceHost);
+        assertEquals("svc", decoded.serviceName);
+        assertEquals(100, decoded.timestamp);
+        assertEquals(2, decoded.metrics.size());
+
+        Metric first = decoded.metrics.getMetric(0);
+        assertEquals("Memory.used", first.getName());
+        assertEquals(1024L, first.getValue());
+        assertEquals(Metric.Type.GAUGE, first.getType());
+
+        Metric second = decoded.metrics.getMetric(1);
+        assertEquals(1.5, second.getValue());
+        assertEquals(Metric.Type.COUNTER, second.getType());
+        assertEquals("123", second.getTags().get("pid"));
+    }
+
+    @Test
+    public void testAppendAndReplayAcrossRestart() throws Exception {
+        Spool spool = new Spool(dir, 1 << 20, 4096);
+        assertNull(spool.peek());
+        for (long ts = 1; ts <= 100; ts++) {
+            spool.append(newReport(ts));
+        }
+        assertEquals(100, spool.getPendingCount());
+        assertTrue(dir.listFiles().length > 1);
+
+        for (long ts = 1; ts <= 30; ts++) {
+            assertEquals(ts, spool.peek().timestamp);
+            spool.remove();
+        }
+        spool.close();
+
+        // delivered reports are not replayed after reopening
+        spool = new Spool(dir, 1 << 20, 4096);
+        assertEquals(70, spool.getPendingCount());
+        for (long ts = 31; ts <= 100; ts++) {
+            assertEquals(ts, spool.peek().timestamp);
+            spool.remove();
+        }
+        assertNull(spool.peek());
+        assertTrue(spool.isEmpty());
+
+        // delivered segments are deleted, except the last one
+        assertEquals(1, dir.listFiles().length);
+        spool.close();
+    }
+
+    @Test
+    public void testDropOldestSegmentsWhenFull() throws Exception {
+        Spool spool = new Spool(dir, 8192, 4096);
+        for (long ts = 1; ts <= 100; ts++) {
+            spool.append(newReport(ts));
+        }
+        assertTrue(spool.getDroppedCount() > 0);
+        assertEquals(100, spool.getPendingCount() + spool.getDroppedCount());
+        assertEquals(2, dir.listFiles().length);
+
+        // remaining reports are the newest ones
+        assertEquals(100 - spool.getPendingCount() + 1, spool.peek().timestamp);
+        spool.close();
+    }
+
+    @Test
+    public void testSkipCorruptRecord() throws Exception {
+        Spool spool = new Spool(dir, 1 << 20, 4096);
+        for (long ts = 1; ts <= 3; ts++) {
+            spool.append(newReport(ts));
+        }
+        spool.close();
+
+        // break the second record, its host is longer than the record
+        int length = Spool.encode(newReport(1)).length;
+        try (RandomAccessFile file = new RandomAccessFile(dir.listFiles()[0], "rw")) {
+            file.seek(4 + length + 4);
+            file.writeShort(0xffff);
+        }
+
+        spool = new Spool(dir, 1 << 20, 4096);
+        assertEquals(3, spool.getPendingCount());
+        assertEquals(1, spool.peek().timestamp);
+        spool.remove();
+        assertEquals(3, spool.peek().timestamp);
+        assertEquals(1, spool.getDroppedCount());
+        spool.remove();
+        assertTrue(spool.isEmpty());
+        spool.close();
+
+        // the corrupt record is not read again after reopening
+        spool = new Spool(dir, 1 << 20, 4096);
+        assertNull(spool.peek());
+        spool.close();
+    }
+}
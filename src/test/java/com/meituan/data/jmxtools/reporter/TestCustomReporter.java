@@ -0,0 +1,29 @@
+package com.meituan.data.jmxtools.reporter;
+
+import com.meituan.data.jmxtools.jmx.Metric;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public class TestCustomReporter implements Reporter {
+    final Map<String, String> options;
+    final List<Long> timestamps = new CopyOnWriteArrayList<>();
+    volatile List<Metric> lastMetrics;
+    boolean closed;
+
+    public TestCustomReporter(Map<String, String> options) {
+        this.options = options;
+    }
+
+    @Override
+    public void report(String serviceHost, String serviceName, long timestamp, List<Metric> metrics) {
+        timestamps.add(timestamp);
+        lastMetrics = metrics;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+}